@@ -53,6 +53,13 @@ dependencies {
 
     // Gson for JSON parsing
     implementation("com.google.code.gson:gson:2.10.1")
+
+    // 单元测试（IntelliJ Platform 测试框架基于 JUnit 4）
+    testImplementation("junit:junit:4.13.2")
+
+    // JMH 微基准（放在测试源码中，./gradlew jmh 运行）
+    testImplementation("org.openjdk.jmh:jmh-core:1.37")
+    testAnnotationProcessor("org.openjdk.jmh:jmh-generator-annprocess:1.37")
 }
 
 intellijPlatform {
@@ -107,6 +114,39 @@ tasks {
         targetCompatibility = "21"
     }
 
+    // 为内置课程材料预构建向量索引（Local Embedding），打包到 resources/prebuiltIndex
+    // 只依赖编译产物，不依赖 processResources，避免任务循环
+    val buildPrebuiltIndex by registering(JavaExec::class) {
+        group = "build"
+        description = "Prebuilds the Local-embedding vector index of the bundled course materials"
+        dependsOn(compileJava)
+
+        val materialDir = layout.projectDirectory.dir("src/main/resources/courseMaterials/ppt")
+        val outputDir = layout.buildDirectory.dir("generated/prebuiltIndex")
+        inputs.dir(materialDir)
+        outputs.dir(outputDir)
+
+        mainClass.set("com.javaee.mypilot.infra.rag.PrebuiltIndex")
+        // compileClasspath 含 IntelliJ Platform 自带的 Lucene
+        classpath = files(sourceSets.main.get().java.destinationDirectory) + sourceSets.main.get().compileClasspath
+        args(materialDir.asFile.absolutePath, outputDir.get().asFile.absolutePath)
+
+        doFirst {
+            outputDir.get().asFile.deleteRecursively()
+        }
+    }
+
+    // 运行测试源码中的 JMH 基准，-Pjmh.includes=<正则> 只运行匹配的基准
+    register<JavaExec>("jmh") {
+        group = "verification"
+        description = "Runs the JMH microbenchmarks in the test source set"
+        dependsOn(testClasses)
+
+        mainClass.set("org.openjdk.jmh.Main")
+        classpath = sourceSets.test.get().runtimeClasspath
+        args(providers.gradleProperty("jmh.includes").getOrElse("Benchmark"))
+    }
+
     // 确保 resources 目录下的所有文件都被包含（包括 PPT、PDF 等二进制文件）
     processResources {
         // 默认情况下，Gradle 会复制所有 resources 文件
@@ -118,6 +158,11 @@ tasks {
 
         // 特别说明：不要过滤二进制文件
         filteringCharset = "UTF-8"
+
+        // 预构建索引：prebuiltIndex/<模型 ID>.zip
+        from(buildPrebuiltIndex) {
+            into("prebuiltIndex")
+        }
     }
 
     // 构建插件时，确保资源文件被打包
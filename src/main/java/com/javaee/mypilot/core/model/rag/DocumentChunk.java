@@ -19,6 +19,7 @@ public class DocumentChunk {
     private int pageNumber; // 页码或范围
     private String title; // 可选：章节或标题
     private float[] embedding;
+    private SparseVector sparseEmbedding; // 稀疏表示（仅稀疏检索模式下生成）
     private float similarity; // 相似度分数
     private SourceType sourceType; // 文档来源类型
 
@@ -93,6 +94,14 @@ public class DocumentChunk {
         this.embedding = embedding;
     }
 
+    public SparseVector getSparseEmbedding() {
+        return sparseEmbedding;
+    }
+
+    public void setSparseEmbedding(SparseVector sparseEmbedding) {
+        this.sparseEmbedding = sparseEmbedding;
+    }
+
     public float getSimilarity() {
         return similarity;
     }
@@ -0,0 +1,77 @@
+package com.javaee.mypilot.core.model.rag;
+
+/**
+ * 检索过滤条件：按源文件、来源类型和页码范围限定检索范围
+ * 各条件之间为"与"关系，为 null 的条件不参与过滤
+ */
+public class SearchFilter {
+    private final String source; // 源文件名
+    private final DocumentChunk.SourceType sourceType; // 文档来源类型
+    private final int minPage; // 页码下限（含）
+    private final int maxPage; // 页码上限（含）
+
+    public SearchFilter(String source, DocumentChunk.SourceType sourceType, int minPage, int maxPage) {
+        this.source = source;
+        this.sourceType = sourceType;
+        this.minPage = minPage;
+        this.maxPage = maxPage;
+    }
+
+    /**
+     * 只检索指定源文件
+     */
+    public static SearchFilter bySource(String source) {
+        return new SearchFilter(source, null, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 只检索指定来源类型的文档
+     */
+    public static SearchFilter bySourceType(DocumentChunk.SourceType sourceType) {
+        return new SearchFilter(null, sourceType, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 在当前条件上追加页码范围
+     */
+    public SearchFilter withPages(int minPage, int maxPage) {
+        return new SearchFilter(source, sourceType, minPage, maxPage);
+    }
+
+    // Getter
+    public String getSource() {
+        return source;
+    }
+
+    public DocumentChunk.SourceType getSourceType() {
+        return sourceType;
+    }
+
+    public int getMinPage() {
+        return minPage;
+    }
+
+    public int getMaxPage() {
+        return maxPage;
+    }
+
+    public boolean hasPageRange() {
+        return minPage != Integer.MIN_VALUE || maxPage != Integer.MAX_VALUE;
+    }
+
+    /**
+     * 没有任何条件时等价于不过滤
+     */
+    public boolean isEmpty() {
+        return source == null && sourceType == null && !hasPageRange();
+    }
+
+    /**
+     * 判断分块元数据是否满足条件
+     */
+    public boolean matches(String chunkSource, DocumentChunk.SourceType chunkSourceType, int pageNumber) {
+        return (source == null || source.equals(chunkSource))
+            && (sourceType == null || sourceType == chunkSourceType)
+            && pageNumber >= minPage && pageNumber <= maxPage;
+    }
+}
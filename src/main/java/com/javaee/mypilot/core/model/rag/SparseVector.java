@@ -0,0 +1,14 @@
+package com.javaee.mypilot.core.model.rag;
+
+/**
+ * 稀疏向量：特征哈希与对应权重一一对应，权重经过 L2 归一化，两个稀疏向量的点积即余弦相似度
+ *
+ * @param features 特征哈希（互不相同）
+ * @param weights  特征权重（均为正数）
+ */
+public record SparseVector(int[] features, float[] weights) {
+
+    public int size() {
+        return features.length;
+    }
+}
@@ -0,0 +1,231 @@
+package com.javaee.mypilot.infra.rag;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import com.javaee.mypilot.core.model.rag.DocumentChunk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 知识库清单：记录每个已索引源文件的大小、修改时间、内容摘要和分块 ID
+ *
+ * <p>与向量索引放在一起，以 JSON 持久化。同步时先比较大小和修改时间，
+ * 两者都没变的文件不再读取；变化了再比较内容摘要，摘要相同只更新修改时间。
+ */
+public class KnowledgeBaseManifest {
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    private final Path file;
+    private final Gson gson;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(); // 源文件名 -> 清单项
+
+    /**
+     * 清单项
+     */
+    public static class Entry {
+        public String path; // 文件绝对路径
+        public String sourceType;
+        public long size;
+        public long lastModified;
+        public String contentHash; // 文件内容 SHA-256
+        public String modelId; // 生成向量的 Embedding 模型（旧清单中为 null）
+        public List<String> chunkIds = new ArrayList<>();
+        public boolean excluded; // 用户已从知识库删除，同步时跳过（文件变化后重新纳入）
+
+        public DocumentChunk.SourceType sourceType() {
+            try {
+                return sourceType != null ?
+                    DocumentChunk.SourceType.valueOf(sourceType) : DocumentChunk.SourceType.USER_UPLOADED;
+            } catch (IllegalArgumentException e) {
+                return DocumentChunk.SourceType.USER_UPLOADED;
+            }
+        }
+
+        /**
+         * 向量是否由指定模型生成；未记录模型的旧清单项视为一致
+         */
+        public boolean matchesModel(String currentModelId) {
+            return modelId == null || modelId.equals(currentModelId);
+        }
+
+        /**
+         * 大小和修改时间都与清单一致时认为文件没有变化
+         */
+        public boolean matchesStat(File file) {
+            return size == file.length() && lastModified == file.lastModified();
+        }
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param manifestPath 清单文件路径
+     */
+    public KnowledgeBaseManifest(String manifestPath) {
+        this.file = Paths.get(manifestPath);
+        this.gson = new GsonBuilder().setPrettyPrinting().create();
+        load();
+    }
+
+    public synchronized Entry get(String source) {
+        return entries.get(source);
+    }
+
+    public synchronized List<String> sources() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    public synchronized void remove(String source) {
+        entries.remove(source);
+    }
+
+    /**
+     * 移除指定来源类型的全部清单项（null 表示全部）
+     */
+    public synchronized void removeAll(DocumentChunk.SourceType sourceType) {
+        entries.values().removeIf(entry -> sourceType == null || entry.sourceType() == sourceType);
+    }
+
+    /**
+     * 标记文件已被用户从知识库删除
+     */
+    public synchronized void exclude(String source) {
+        Entry entry = entries.get(source);
+        if (entry != null) {
+            entry.excluded = true;
+            entry.chunkIds = new ArrayList<>();
+        }
+    }
+
+    /**
+     * 记录文件索引完成后的状态
+     */
+    public synchronized void record(File sourceFile, DocumentChunk.SourceType sourceType,
+                                    String contentHash, List<String> chunkIds, String modelId) {
+        Entry entry = new Entry();
+        entry.path = sourceFile.getAbsolutePath();
+        entry.sourceType = sourceType.name();
+        entry.size = sourceFile.length();
+        entry.lastModified = sourceFile.lastModified();
+        entry.contentHash = contentHash;
+        entry.chunkIds = new ArrayList<>(chunkIds);
+        entry.modelId = modelId;
+        entries.put(sourceFile.getName(), entry);
+    }
+
+    /**
+     * 内容没变但修改时间变了（例如文件被重新复制）：只更新文件状态
+     */
+    public synchronized void touch(String source, File sourceFile) {
+        Entry entry = entries.get(source);
+        if (entry != null) {
+            entry.path = sourceFile.getAbsolutePath();
+            entry.size = sourceFile.length();
+            entry.lastModified = sourceFile.lastModified();
+        }
+    }
+
+    /**
+     * 导入预构建索引附带的清单项：路径改为本机目录下的同名文件，
+     * 修改时间置 0，首次同步时由内容摘要确认本机文件与构建时一致
+     */
+    public synchronized void importFrom(KnowledgeBaseManifest prebuilt, File baseDir) {
+        for (String source : prebuilt.sources()) {
+            Entry origin = prebuilt.get(source);
+            Entry entry = new Entry();
+            entry.path = new File(baseDir, source).getAbsolutePath();
+            entry.sourceType = origin.sourceType;
+            entry.size = origin.size;
+            entry.lastModified = 0;
+            entry.contentHash = origin.contentHash;
+            entry.modelId = origin.modelId;
+            entry.chunkIds = new ArrayList<>(origin.chunkIds);
+            entries.put(source, entry);
+        }
+    }
+
+    /**
+     * 是否已有指定来源类型的清单项
+     */
+    public synchronized boolean containsType(DocumentChunk.SourceType sourceType) {
+        for (Entry entry : entries.values()) {
+            if (entry.sourceType() == sourceType) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 原子写入清单文件（先写临时文件再替换）
+     */
+    public synchronized void save() {
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                gson.toJson(entries, writer);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("保存知识库清单失败: " + e.getMessage());
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            Map<String, Entry> loaded = gson.fromJson(reader, new TypeToken<LinkedHashMap<String, Entry>>() {}.getType());
+            if (loaded != null) {
+                entries.putAll(loaded);
+            }
+        } catch (Exception e) {
+            // 清单损坏时视为空清单，下次同步会重新比对全部文件
+            System.err.println("读取知识库清单失败，将重新同步: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 计算文件内容的 SHA-256 摘要
+     */
+    public static String hashFile(File sourceFile) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[HASH_BUFFER_SIZE];
+            try (InputStream in = Files.newInputStream(sourceFile.toPath())) {
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("计算文件摘要失败: " + e.getMessage(), e);
+        }
+    }
+}
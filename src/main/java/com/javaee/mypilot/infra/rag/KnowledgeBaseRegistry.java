@@ -0,0 +1,283 @@
+package com.javaee.mypilot.infra.rag;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.javaee.mypilot.core.consts.ExecutorPool;
+import com.javaee.mypilot.core.model.rag.DocumentChunk;
+import com.javaee.mypilot.core.model.rag.SearchFilter;
+import com.javaee.mypilot.core.model.rag.SparseVector;
+import com.javaee.mypilot.infra.rag.embedding.DocumentFrequencyTable;
+import com.javaee.mypilot.infra.rag.embedding.EmbeddingCache;
+import com.javaee.mypilot.infra.rag.vector.VectorDatabase;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * 应用级知识库注册表
+ *
+ * <p>RagService 是项目级服务，多个项目默认使用同一个索引路径。注册表保证每个存储路径只打开一次：
+ * 各项目拿到的是共享向量库的句柄，读取器和缓存在项目间共享，写入器按引用计数管理，
+ * 最后一个句柄关闭时才真正关闭索引，不会再出现第二个项目争抢索引写锁的情况。
+ *
+ * <p>共享索引的检索线程池由注册表持有，不依赖某个项目的 AppExecutors（项目关闭时会被释放）。
+ */
+@Service(Service.Level.APP)
+public final class KnowledgeBaseRegistry implements Disposable {
+    private static final String EMBEDDING_CACHE_PATH = System.getProperty("user.home") + File.separator + ".mypilot"
+        + File.separator + "embedding_cache" + File.separator + "embeddings.bin";
+    // 嵌入缓存文件上限：1536 维向量约 6 KB/条，约可容纳 8 万个分块
+    private static final long EMBEDDING_CACHE_MAX_BYTES = 512L * 1024 * 1024;
+
+    private final Map<String, SharedEntry> databases = new HashMap<>(); // 存储键 -> 共享向量库
+    private final Map<String, KnowledgeBaseManifest> manifests = new HashMap<>(); // 清单路径 -> 共享清单
+    private final Map<String, DocumentFrequencyTable> documentFrequencies = new HashMap<>(); // DF 表路径 -> 共享 DF 表
+    private final Map<String, Integer> frequencyTrackers = new HashMap<>(); // DF 表路径 -> 维护该表的本地嵌入项目数
+    private final Set<String> staleFrequencies = new HashSet<>(); // 维护者释放后需要清空的 DF 表路径
+    private EmbeddingCache embeddingCache; // 所有项目、所有索引共用的嵌入缓存
+
+    /**
+     * 共享索引的检索线程池
+     */
+    private final ExecutorService searchExecutor = new ThreadPoolExecutor(
+            ExecutorPool.CPU_CORE_POOL_SIZE,
+            ExecutorPool.CPU_MAX_POOL_SIZE,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            r -> {
+                Thread thread = new Thread(r, "my-index-search-thread-" + r.hashCode());
+                thread.setDaemon(true);
+                return thread;
+            }
+    );
+
+    private static final class SharedEntry {
+        final VectorDatabase database;
+        int refCount;
+
+        SharedEntry(VectorDatabase database) {
+            this.database = database;
+        }
+    }
+
+    public static KnowledgeBaseRegistry getInstance() {
+        return ApplicationManager.getApplication().getService(KnowledgeBaseRegistry.class);
+    }
+
+    public Executor getSearchExecutor() {
+        return searchExecutor;
+    }
+
+    /**
+     * 获取共享向量库的句柄；该存储第一次被使用时调用 opener 打开
+     *
+     * @param key    存储键（存储类型 + 路径），同一键只打开一次
+     * @param opener 打开向量库
+     * @return 句柄，close() 只释放本句柄的引用
+     */
+    public synchronized VectorDatabase acquire(String key, Supplier<VectorDatabase> opener) {
+        SharedEntry entry = databases.get(key);
+        if (entry == null) {
+            entry = new SharedEntry(opener.get());
+            databases.put(key, entry);
+            System.out.println("打开共享索引: " + key);
+        }
+        entry.refCount++;
+        return new Handle(key, entry.database);
+    }
+
+    /**
+     * 获取共享的知识库清单：同一索引的各个项目读写同一份清单
+     */
+    public synchronized KnowledgeBaseManifest manifest(String manifestPath) {
+        return manifests.computeIfAbsent(manifestPath, KnowledgeBaseManifest::new);
+    }
+
+    /**
+     * 获取共享的文档频率表并登记为维护者：与清单一样按索引共享，只有本地嵌入的项目维护
+     */
+    public synchronized DocumentFrequencyTable trackDocumentFrequencies(String tablePath) {
+        frequencyTrackers.merge(tablePath, 1, Integer::sum);
+        return documentFrequencies.computeIfAbsent(tablePath, DocumentFrequencyTable::new);
+    }
+
+    /**
+     * 本地嵌入的项目释放文档频率表；最后一个维护者释放时，处理期间登记的清空
+     */
+    public synchronized void untrackDocumentFrequencies(String tablePath) {
+        Integer trackers = frequencyTrackers.computeIfPresent(tablePath, (path, count) -> count > 1 ? count - 1 : null);
+        if (trackers == null && staleFrequencies.remove(tablePath)) {
+            clearDocumentFrequencies(tablePath);
+        }
+    }
+
+    /**
+     * 远程嵌入的项目不维护文档频率表，其写入会使表过期：没有本地嵌入的项目在用时立即清空
+     * （切换回本地嵌入时从索引重建），否则等最后一个维护者释放后再清空，不打断正在使用的 IDF 快照
+     */
+    public synchronized void invalidateDocumentFrequencies(String tablePath) {
+        if (frequencyTrackers.containsKey(tablePath)) {
+            staleFrequencies.add(tablePath);
+        } else {
+            clearDocumentFrequencies(tablePath);
+        }
+    }
+
+    private void clearDocumentFrequencies(String tablePath) {
+        DocumentFrequencyTable table = documentFrequencies.computeIfAbsent(tablePath, DocumentFrequencyTable::new);
+        if (table.getDocumentCount() > 0) {
+            table.clear();
+            table.save();
+            System.out.println("已清空远程嵌入期间过期的文档频率表: " + tablePath);
+        }
+    }
+
+    /**
+     * 获取应用级嵌入缓存，第一次使用时打开
+     */
+    public synchronized EmbeddingCache embeddingCache() {
+        if (embeddingCache == null) {
+            embeddingCache = new EmbeddingCache(EMBEDDING_CACHE_PATH, EMBEDDING_CACHE_MAX_BYTES);
+        }
+        return embeddingCache;
+    }
+
+    private synchronized void release(String key) {
+        SharedEntry entry = databases.get(key);
+        if (entry == null) {
+            return;
+        }
+        if (--entry.refCount <= 0) {
+            databases.remove(key);
+            entry.database.close();
+            System.out.println("已关闭共享索引: " + key);
+        }
+    }
+
+    /**
+     * 应用退出时关闭所有仍在使用的索引
+     */
+    @Override
+    public void dispose() {
+        synchronized (this) {
+            for (SharedEntry entry : databases.values()) {
+                entry.database.close();
+            }
+            databases.clear();
+            for (KnowledgeBaseManifest manifest : manifests.values()) {
+                manifest.save();
+            }
+            manifests.clear();
+            for (DocumentFrequencyTable table : documentFrequencies.values()) {
+                table.save();
+            }
+            documentFrequencies.clear();
+            if (embeddingCache != null) {
+                embeddingCache.close();
+                embeddingCache = null;
+            }
+        }
+        searchExecutor.shutdown();
+    }
+
+    /**
+     * 共享向量库的句柄：除 close() 外全部转发给共享实例，close() 只释放一次引用
+     */
+    private final class Handle implements VectorDatabase {
+        private final String key;
+        private final VectorDatabase delegate;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        Handle(String key, VectorDatabase delegate) {
+            this.key = key;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void index(List<DocumentChunk> chunks) {
+            delegate.index(chunks);
+        }
+
+        @Override
+        public BulkSession openBulkSession() {
+            return delegate.openBulkSession();
+        }
+
+        @Override
+        public List<DocumentChunk> search(float[] embedding, int topK, SearchFilter filter, boolean includeEmbedding) {
+            return delegate.search(embedding, topK, filter, includeEmbedding);
+        }
+
+        @Override
+        public List<DocumentChunk> searchSparse(SparseVector query, int topK, SearchFilter filter) {
+            return delegate.searchSparse(query, topK, filter);
+        }
+
+        @Override
+        public List<DocumentChunk> searchText(String queryText, int topK, SearchFilter filter) {
+            return delegate.searchText(queryText, topK, filter);
+        }
+
+        @Override
+        public int getDocumentCount() {
+            return delegate.getDocumentCount();
+        }
+
+        @Override
+        public List<FileInfo> getAllFiles() {
+            return delegate.getAllFiles();
+        }
+
+        @Override
+        public int deleteBySource(String source) {
+            return delegate.deleteBySource(source);
+        }
+
+        @Override
+        public Set<String> getChunkIds(String source) {
+            return delegate.getChunkIds(source);
+        }
+
+        @Override
+        public Map<String, String> getChunkContents(String source) {
+            return delegate.getChunkContents(source);
+        }
+
+        @Override
+        public int retainChunks(String source, Set<String> keepIds) {
+            return delegate.retainChunks(source, keepIds);
+        }
+
+        @Override
+        public boolean addIndex(Path indexDir, Collection<String> sources) {
+            return delegate.addIndex(indexDir, sources);
+        }
+
+        @Override
+        public void clear(DocumentChunk.SourceType sourceType) {
+            delegate.clear(sourceType);
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release(key);
+            }
+        }
+    }
+}
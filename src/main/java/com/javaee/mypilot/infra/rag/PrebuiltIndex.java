@@ -0,0 +1,212 @@
+package com.javaee.mypilot.infra.rag;
+
+import com.javaee.mypilot.core.model.rag.DocumentChunk;
+import com.javaee.mypilot.infra.rag.document.PDFDocumentProcessor;
+import com.javaee.mypilot.infra.rag.embedding.DocumentFrequencyTable;
+import com.javaee.mypilot.infra.rag.embedding.LocalEmbeddingService;
+import com.javaee.mypilot.infra.rag.vector.LuceneVectorDatabase;
+import com.javaee.mypilot.infra.rag.vector.VectorDatabase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 内置课程材料的预构建索引
+ *
+ * <p>构建时（Gradle 任务 buildPrebuiltIndex 调用 {@link #main}）用指定的 Embedding 模型把课程材料 PDF
+ * 写成 Lucene 索引，连同知识库清单打包为 prebuiltIndex/&lt;模型 ID&gt;.zip 放进插件资源；
+ * 运行时 {@link #extract} 解压到临时目录，由向量库直接挂载索引段，不再逐页解析和嵌入。
+ *
+ * <p>包内结构：index/ 下是 Lucene 索引文件，manifest.json 是与 {@link KnowledgeBaseManifest} 相同格式的清单，
+ * document_frequency.bin 是课程材料的文档频率表（本地嵌入的 IDF 权重来自它的快照）。
+ */
+public final class PrebuiltIndex {
+    public static final String RESOURCE_DIR = "prebuiltIndex/";
+    public static final String INDEX_DIR = "index";
+    public static final String DOCUMENT_FREQUENCY_ENTRY = "document_frequency.bin";
+    private static final String MANIFEST_ENTRY = "manifest.json";
+
+    private PrebuiltIndex() {
+    }
+
+    /**
+     * 预构建索引在插件资源中的路径
+     */
+    public static String resourcePath(String modelId) {
+        return RESOURCE_DIR + modelId + ".zip";
+    }
+
+    /**
+     * 从插件资源中解压预构建索引
+     *
+     * @param classLoader 加载插件资源的类加载器
+     * @param modelId     Embedding 模型 ID
+     * @param targetDir   解压目录，索引位于其下的 {@link #INDEX_DIR}
+     * @return 预构建索引附带的清单；插件中没有该模型的预构建索引时返回 null
+     */
+    public static KnowledgeBaseManifest extract(ClassLoader classLoader, String modelId, Path targetDir) throws IOException {
+        try (InputStream in = classLoader.getResourceAsStream(resourcePath(modelId))) {
+            if (in == null) {
+                return null;
+            }
+            Path root = targetDir.toAbsolutePath().normalize();
+            try (ZipInputStream zip = new ZipInputStream(in)) {
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    Path output = root.resolve(entry.getName()).normalize();
+                    if (!output.startsWith(root)) {
+                        throw new IOException("预构建索引包含非法路径: " + entry.getName());
+                    }
+                    if (entry.isDirectory()) {
+                        Files.createDirectories(output);
+                    } else {
+                        Files.createDirectories(output.getParent());
+                        Files.copy(zip, output, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+            }
+        }
+        return new KnowledgeBaseManifest(targetDir.resolve(MANIFEST_ENTRY).toString());
+    }
+
+    /**
+     * 递归删除解压目录
+     */
+    public static void deleteQuietly(Path dir) {
+        if (dir == null || !Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            System.err.println("删除临时目录失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 构建入口：PrebuiltIndex &lt;课程材料目录&gt; &lt;输出目录&gt;
+     *
+     * <p>只构建 Local 模型的索引：远程 Embedding 服务在构建时需要 API Key，由运行时正常导入。
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("用法: PrebuiltIndex <课程材料目录> <输出目录>");
+            System.exit(1);
+        }
+        File materialDir = new File(args[0]);
+        Path outputDir = Paths.get(args[1]);
+
+        File[] files = materialDir.listFiles(file -> file.isFile() && file.getName().toLowerCase().endsWith(".pdf"));
+        if (files == null) {
+            throw new IOException("课程材料目录不存在: " + materialDir.getAbsolutePath());
+        }
+        Arrays.sort(files, Comparator.comparing(File::getName));
+
+        long startTime = System.currentTimeMillis();
+        build(Arrays.asList(files), outputDir);
+        System.out.println("预构建索引完成: " + files.length + " 个文件，耗时 " +
+            (System.currentTimeMillis() - startTime) + "ms");
+    }
+
+    /**
+     * 为一组课程材料构建索引并打包
+     *
+     * <p>第一遍解析分块并统计文档频率、生成 IDF 快照；第二遍用带快照的本地嵌入重新计算向量后写入索引。
+     * 包名使用不带快照版本的模型 ID：运行时本地还没有文档频率时按此查找，挂载后采用包内的快照。
+     */
+    private static void build(List<File> files, Path outputDir) throws IOException {
+        Path workDir = Files.createTempDirectory("mypilot-prebuilt");
+        try {
+            KnowledgeBaseManifest manifest = new KnowledgeBaseManifest(workDir.resolve(MANIFEST_ENTRY).toString());
+            DocumentFrequencyTable documentFrequencies =
+                new DocumentFrequencyTable(workDir.resolve(DOCUMENT_FREQUENCY_ENTRY).toString());
+
+            // 第一遍只解析和去重：把全部分块视为已索引，处理器不生成嵌入，向量在第二遍用带快照的服务计算一次
+            PDFDocumentProcessor processor = new PDFDocumentProcessor(new LocalEmbeddingService());
+            Map<File, List<DocumentChunk>> chunksByFile = new LinkedHashMap<>();
+            for (File file : files) {
+                List<DocumentChunk> chunks = processor.process(file, DocumentChunk.SourceType.STATIC, id -> true);
+                chunksByFile.put(file, chunks);
+                documentFrequencies.addDocuments(contentsOf(chunks));
+            }
+            documentFrequencies.restamp();
+            documentFrequencies.save();
+
+            LocalEmbeddingService embeddingService = new LocalEmbeddingService(documentFrequencies);
+            String modelId = embeddingService.getModelId();
+            LuceneVectorDatabase vectorDatabase = new LuceneVectorDatabase(workDir.resolve(INDEX_DIR).toString());
+            try (VectorDatabase.BulkSession session = vectorDatabase.openBulkSession()) {
+                for (Map.Entry<File, List<DocumentChunk>> entry : chunksByFile.entrySet()) {
+                    File file = entry.getKey();
+                    List<DocumentChunk> chunks = entry.getValue();
+                    List<float[]> embeddings = embeddingService.embedBatch(contentsOf(chunks));
+                    for (int i = 0; i < chunks.size(); i++) {
+                        chunks.get(i).setEmbedding(embeddings.get(i));
+                    }
+                    session.add(chunks);
+
+                    List<String> chunkIds = new ArrayList<>(chunks.size());
+                    for (DocumentChunk chunk : chunks) {
+                        chunkIds.add(chunk.getId());
+                    }
+                    manifest.record(file, DocumentChunk.SourceType.STATIC, KnowledgeBaseManifest.hashFile(file), chunkIds, modelId);
+                    System.out.println("已索引: " + file.getName() + "，" + chunks.size() + " 个文档块");
+                }
+            } finally {
+                vectorDatabase.close();
+            }
+            manifest.save();
+
+            Files.createDirectories(outputDir);
+            pack(workDir, outputDir.resolve(LocalEmbeddingService.MODEL_ID + ".zip"));
+        } finally {
+            deleteQuietly(workDir);
+        }
+    }
+
+    private static List<String> contentsOf(List<DocumentChunk> chunks) {
+        List<String> contents = new ArrayList<>(chunks.size());
+        for (DocumentChunk chunk : chunks) {
+            contents.add(chunk.getContent());
+        }
+        return contents;
+    }
+
+    /**
+     * 把索引目录和清单打包为 zip（不含 Lucene 写锁文件）
+     */
+    private static void pack(Path workDir, Path zipFile) throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(workDir)) {
+            paths.filter(Files::isRegularFile)
+                .filter(path -> !path.getFileName().toString().equals("write.lock"))
+                .sorted()
+                .forEach(entries::add);
+        }
+
+        try (OutputStream out = Files.newOutputStream(zipFile);
+             ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (Path path : entries) {
+                zip.putNextEntry(new ZipEntry(workDir.relativize(path).toString().replace(File.separatorChar, '/')));
+                Files.copy(path, zip);
+                zip.closeEntry();
+            }
+        }
+    }
+}
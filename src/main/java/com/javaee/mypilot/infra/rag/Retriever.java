@@ -1,31 +1,264 @@
 package com.javaee.mypilot.infra.rag;
 
 import com.javaee.mypilot.core.model.rag.DocumentChunk;
+import com.javaee.mypilot.core.model.rag.SearchFilter;
+import com.javaee.mypilot.core.model.rag.SparseVector;
+import com.javaee.mypilot.infra.rag.embedding.EmbeddingException;
 import com.javaee.mypilot.infra.rag.embedding.EmbeddingService;
 import com.javaee.mypilot.infra.rag.vector.VectorDatabase;
+import com.javaee.mypilot.infra.rag.vector.VectorMath;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * 知识检索器
+ *
+ * <p>混合模式下向量检索与关键词（BM25）检索并发执行，用倒数排名融合（RRF）合并两路排名：
+ * score = Σ 1 / (RRF_K + rank)。Embedding 服务超时或失败时退化为只用关键词结果。
+ *
+ * <p>查询向量按模型 ID 和问题文本缓存在有界 LRU 中，重复提问或重新生成时不再调用 Embedding 服务；
+ * 同一问题的并发请求合并为一次调用（single-flight），其余请求等待同一结果。
+ */
 public class Retriever {
+    // RRF 平滑常数，取论文中的经验值
+    private static final int RRF_K = 60;
+    // 每一路召回的候选数：topK 的倍数
+    private static final int CANDIDATE_MULTIPLIER = 4;
+    // 等待向量检索（含 Embedding 调用）的最长时间
+    private static final long VECTOR_TIMEOUT_MS = 5000;
+    // BM25 分数映射到 [0, 1) 的半饱和点：score / (score + LEXICAL_SCORE_HALF)
+    private static final float LEXICAL_SCORE_HALF = 10.0f;
+    // 查询向量 LRU 缓存的容量
+    private static final int QUERY_CACHE_SIZE = 256;
+
     private final EmbeddingService embeddingService;
     private final VectorDatabase vectorDatabase;
+    private final Executor executor;
+    private final boolean hybrid;
+
+    // 模型 ID + 查询文本 -> 归一化后的查询向量（访问顺序，超出容量淘汰最久未用）
+    private final Map<String, float[]> queryCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+            return size() > QUERY_CACHE_SIZE;
+        }
+    };
+    // 正在调用 Embedding 服务的查询
+    private final ConcurrentHashMap<String, CompletableFuture<float[]>> inFlightQueries = new ConcurrentHashMap<>();
+    private final LongAdder queryCacheHits = new LongAdder();
+    private final LongAdder queryCacheMisses = new LongAdder();
 
     public Retriever(EmbeddingService embeddingService, VectorDatabase vectorDatabase) {
+        this(embeddingService, vectorDatabase, null, false);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param executor 混合模式下执行向量检索的线程池
+     * @param hybrid   是否启用向量 + 关键词混合检索
+     */
+    public Retriever(EmbeddingService embeddingService, VectorDatabase vectorDatabase,
+                     Executor executor, boolean hybrid) {
         this.embeddingService = embeddingService;
         this.vectorDatabase = vectorDatabase;
+        this.executor = executor;
+        this.hybrid = hybrid && executor != null;
     }
 
     /**
      * 检索相关知识分块
-     * 
+     *
      * @param query 用户问题
      * @param topK  返回数量
      * @return 相关分块（已设置相似度分数）
      */
     public List<DocumentChunk> retrieve(String query, int topK) {
-        float[] queryEmbedding = embeddingService.embed(query);
+        return retrieve(query, topK, null);
+    }
+
+    /**
+     * 在过滤条件限定的范围内检索相关知识分块
+     *
+     * @param query  用户问题
+     * @param topK   返回数量
+     * @param filter 过滤条件（null 表示不过滤）
+     * @return 相关分块（已设置相似度分数）
+     */
+    public List<DocumentChunk> retrieve(String query, int topK, SearchFilter filter) {
+        if (!hybrid) {
+            return searchVector(query, topK, filter);
+        }
+
+        int candidates = topK * CANDIDATE_MULTIPLIER;
+        // FutureTask 的 cancel(true) 会中断执行线程，超时后 Embedding 调用随之放弃，不再占用 IO 线程
+        FutureTask<List<DocumentChunk>> vectorTask = new FutureTask<>(() -> searchVector(query, candidates, filter));
+        executor.execute(vectorTask);
+        List<DocumentChunk> lexicalResults = searchLexical(query, candidates, filter);
+
+        List<DocumentChunk> vectorResults;
+        try {
+            vectorResults = vectorTask.get(VECTOR_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            vectorTask.cancel(true);
+            System.err.println("向量检索超时，仅使用关键词检索结果");
+            vectorResults = Collections.emptyList();
+        } catch (ExecutionException e) {
+            System.err.println("向量检索失败，仅使用关键词检索结果: " + e.getCause().getMessage());
+            vectorResults = Collections.emptyList();
+        } catch (InterruptedException e) {
+            vectorTask.cancel(true);
+            Thread.currentThread().interrupt();
+            vectorResults = Collections.emptyList();
+        }
+
+        return fuse(vectorResults, lexicalResults, topK);
+    }
+
+    /**
+     * 向量检索
+     */
+    private List<DocumentChunk> searchVector(String query, int topK, SearchFilter filter) {
+        // 稀疏模式（本地嵌入）：查询只展开自身的特征，在倒排表上求点积；本地计算很快，不经过查询缓存
+        SparseVector sparseQuery = embeddingService.embedSparse(query);
+        if (sparseQuery != null) {
+            return vectorDatabase.searchSparse(sparseQuery, topK, filter);
+        }
+
+        float[] queryEmbedding = embedQuery(query);
+
+        // 相似度分数已经在 VectorDatabase.search() 中设置
+        return vectorDatabase.search(queryEmbedding, topK, filter);
+    }
+
+    /**
+     * 生成查询向量：先查 LRU 缓存，再合并同一问题的并发请求，最后才调用 Embedding 服务。
+     * 返回的数组在缓存中共享，调用方不能修改
+     */
+    private float[] embedQuery(String query) {
+        // 缓存键和实际嵌入使用同一个去掉首尾空白的文本，命中缓存的结果与重新嵌入的结果一致
+        String text = query.trim();
+        // 键包含模型 ID：本地嵌入的 IDF 快照更新后模型 ID 随之变化，旧权重的查询向量不再命中
+        String key = embeddingService.getModelId() + '\n' + text;
+        float[] cached;
+        synchronized (queryCache) {
+            cached = queryCache.get(key);
+        }
+        if (cached != null) {
+            queryCacheHits.increment();
+            return cached;
+        }
+
+        CompletableFuture<float[]> future = new CompletableFuture<>();
+        CompletableFuture<float[]> inFlight = inFlightQueries.putIfAbsent(key, future);
+        if (inFlight != null) {
+            // 同一问题已有请求在途，等待其结果（等待可被中断）
+            queryCacheHits.increment();
+            try {
+                return inFlight.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : new CompletionException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw EmbeddingException.interrupted("查询向量生成被中断", e);
+            }
+        }
+
+        try {
+            // 上一个在途请求可能刚好在两次检查之间完成
+            synchronized (queryCache) {
+                cached = queryCache.get(key);
+            }
+            if (cached != null) {
+                queryCacheHits.increment();
+                future.complete(cached);
+                return cached;
+            }
+
+            queryCacheMisses.increment();
+            // 索引中的向量已归一化，查询向量在这里归一化一次，检索时直接做点积
+            float[] queryEmbedding = VectorMath.normalize(embeddingService.embed(text));
+            synchronized (queryCache) {
+                queryCache.put(key, queryEmbedding);
+            }
+            future.complete(queryEmbedding);
+            return queryEmbedding;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightQueries.remove(key, future);
+        }
+    }
+
+    /**
+     * 查询向量缓存命中次数（含合并到在途请求的次数）
+     */
+    public long getQueryCacheHits() {
+        return queryCacheHits.sum();
+    }
+
+    /**
+     * 查询向量缓存未命中次数，即实际调用 Embedding 服务的次数
+     */
+    public long getQueryCacheMisses() {
+        return queryCacheMisses.sum();
+    }
+
+    /**
+     * 关键词检索，BM25 分数映射为 [0, 1) 的相似度，便于与相关性阈值比较
+     */
+    private List<DocumentChunk> searchLexical(String query, int topK, SearchFilter filter) {
+        try {
+            List<DocumentChunk> results = vectorDatabase.searchText(query, topK, filter);
+            for (DocumentChunk chunk : results) {
+                float score = chunk.getSimilarity();
+                chunk.setSimilarity(score / (score + LEXICAL_SCORE_HALF));
+            }
+            return results;
+        } catch (Exception e) {
+            System.err.println("关键词检索失败: " + e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * 倒数排名融合：按 RRF 分数排序取 topK，分块相似度取两路中较高者
+     */
+    private List<DocumentChunk> fuse(List<DocumentChunk> vectorResults, List<DocumentChunk> lexicalResults, int topK) {
+        Map<String, DocumentChunk> chunks = new LinkedHashMap<>();
+        Map<String, Double> fusedScores = new LinkedHashMap<>();
+        for (List<DocumentChunk> ranking : List.of(vectorResults, lexicalResults)) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                DocumentChunk chunk = ranking.get(rank);
+                DocumentChunk existing = chunks.putIfAbsent(chunk.getId(), chunk);
+                if (existing != null && chunk.getSimilarity() > existing.getSimilarity()) {
+                    existing.setSimilarity(chunk.getSimilarity());
+                }
+                fusedScores.merge(chunk.getId(), 1.0 / (RRF_K + rank + 1), Double::sum);
+            }
+        }
+
+        List<String> ids = new ArrayList<>(fusedScores.keySet());
+        ids.sort((a, b) -> Double.compare(fusedScores.get(b), fusedScores.get(a)));
 
-        // 相似度分数已经在 LuceneVectorDatabase.search() 中设置
-        return vectorDatabase.search(queryEmbedding, topK);
+        List<DocumentChunk> results = new ArrayList<>(Math.min(topK, ids.size()));
+        for (int i = 0; i < ids.size() && i < topK; i++) {
+            results.add(chunks.get(ids.get(i)));
+        }
+        return results;
     }
 }
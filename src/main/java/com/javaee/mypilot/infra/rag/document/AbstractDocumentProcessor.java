@@ -0,0 +1,117 @@
+package com.javaee.mypilot.infra.rag.document;
+
+import com.javaee.mypilot.core.model.rag.DocumentChunk;
+import com.javaee.mypilot.core.model.rag.SparseVector;
+import com.javaee.mypilot.infra.rag.embedding.EmbeddingService;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * 文档处理器基类
+ *
+ * <p>子类只负责解析文件并切分出文本块（{@link #parse}），生成分块 ID 和嵌入向量由基类统一完成。
+ * 嵌入向量通过 {@link EmbeddingService#embedBatch} 批量生成；
+ * 稀疏检索的服务只生成稀疏表示（{@link EmbeddingService#embedSparseBatch}）。
+ * 分块 ID 由源文件名、页码、标题和内容的 SHA-256 摘要确定：同一文件同一位置的同一段内容每次得到相同的 ID，
+ * 重复导入时向量库按 ID 覆盖写入，已索引的分块也不再调用 Embedding 服务。
+ * 页码或标题变化（如插入新页、章节改名）的分块得到新 ID 并重新写入，引用的页码和页码过滤保持准确；
+ * 其内容未变，远程 Embedding 由持久化缓存命中，不产生调用。
+ */
+public abstract class AbstractDocumentProcessor implements DocumentProcessor {
+    protected final EmbeddingService embeddingService;
+
+    protected AbstractDocumentProcessor(EmbeddingService embeddingService) {
+        this.embeddingService = embeddingService;
+    }
+
+    @Override
+    public List<DocumentChunk> process(File file, DocumentChunk.SourceType sourceType) {
+        return process(file, sourceType, id -> false);
+    }
+
+    @Override
+    public List<DocumentChunk> process(File file, DocumentChunk.SourceType sourceType, Predicate<String> indexedChunkIds) {
+        // 同一文件同一位置内容完全相同的块只保留第一个
+        Map<String, DocumentChunk> unique = new LinkedHashMap<>();
+        for (DocumentChunk chunk : parse(file, sourceType)) {
+            unique.putIfAbsent(chunk.getId(), chunk);
+        }
+
+        List<DocumentChunk> chunks = new ArrayList<>(unique.values());
+        List<DocumentChunk> pending = new ArrayList<>();
+        for (DocumentChunk chunk : chunks) {
+            if (!indexedChunkIds.test(chunk.getId())) {
+                pending.add(chunk);
+            }
+        }
+        if (pending.isEmpty()) {
+            return chunks;
+        }
+
+        // 整个文件的待嵌入分块一次交给 Embedding 服务，由服务按自身的批大小分批请求
+        List<String> contents = new ArrayList<>(pending.size());
+        for (DocumentChunk chunk : pending) {
+            contents.add(chunk.getContent());
+        }
+        if (embeddingService.isSparse()) {
+            // 稀疏检索不读取稠密向量：每个分块只提取一次特征，也不写入 HNSW 图
+            List<SparseVector> sparseEmbeddings = embeddingService.embedSparseBatch(contents);
+            for (int i = 0; i < pending.size(); i++) {
+                pending.get(i).setSparseEmbedding(sparseEmbeddings.get(i));
+            }
+            return chunks;
+        }
+        List<float[]> embeddings = embeddingService.embedBatch(contents);
+        for (int i = 0; i < pending.size(); i++) {
+            pending.get(i).setEmbedding(embeddings.get(i));
+        }
+        return chunks;
+    }
+
+    /**
+     * 解析文件并切分为文本块（不生成嵌入向量），分块应通过 {@link #newChunk} 创建
+     */
+    protected abstract List<DocumentChunk> parse(File file, DocumentChunk.SourceType sourceType);
+
+    /**
+     * 创建尚未生成嵌入向量的分块，ID 由源文件名、页码、标题和内容决定
+     */
+    protected static DocumentChunk newChunk(String content, String source, int pageNumber, String title,
+                                            DocumentChunk.SourceType sourceType) {
+        return new DocumentChunk(chunkId(source, pageNumber, title, content), content, source, pageNumber, title,
+            null, sourceType);
+    }
+
+    /**
+     * 计算分块 ID：SHA-256(源文件名 + '\0' + 页码 + '\0' + 标题 + '\0' + 内容) 的十六进制表示
+     * 元数据参与摘要：元数据变化的分块必须重新写入，否则索引中保留旧的页码和标题
+     */
+    public static String chunkId(String source, int pageNumber, String title, String content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(source.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(Integer.toString(pageNumber).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update((title != null ? title : "").getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            byte[] hash = digest.digest(content.getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("计算分块 ID 失败: " + e.getMessage(), e);
+        }
+    }
+}
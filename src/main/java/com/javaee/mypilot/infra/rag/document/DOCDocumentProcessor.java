@@ -12,21 +12,19 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
 
 /**
  * 使用 Apache POI 解析 DOC/DOCX 文件的 DocumentProcessor 实现
  */
-public class DOCDocumentProcessor implements DocumentProcessor {
-    private final EmbeddingService embeddingService;
+public class DOCDocumentProcessor extends AbstractDocumentProcessor {
     private static final int CHUNK_SIZE = 1000; // 每个chunk的字符数
 
     public DOCDocumentProcessor(EmbeddingService embeddingService) {
-        this.embeddingService = embeddingService;
+        super(embeddingService);
     }
 
     @Override
-    public List<DocumentChunk> process(File file, DocumentChunk.SourceType sourceType) {
+    protected List<DocumentChunk> parse(File file, DocumentChunk.SourceType sourceType) {
         String fileName = file.getName().toLowerCase();
 
         if (fileName.endsWith(".docx")) {
@@ -120,19 +118,9 @@ public class DOCDocumentProcessor implements DocumentProcessor {
      */
     private void saveChunk(List<DocumentChunk> chunks, String content, String fileName,
                            int pageNumber, int chunkIndex, DocumentChunk.SourceType sourceType) {
-        float[] embedding = embeddingService.embed(content);
-
         String title = "块" + chunkIndex + " (约第" + pageNumber + "页)";
 
-        DocumentChunk chunk = new DocumentChunk(
-                UUID.randomUUID().toString(),
-                content.trim(),
-                fileName,
-                pageNumber,
-                title,
-                embedding,
-                sourceType);
-        chunks.add(chunk);
+        chunks.add(newChunk(content.trim(), fileName, pageNumber, title, sourceType));
     }
 
     /**
@@ -4,6 +4,7 @@ import com.javaee.mypilot.core.model.rag.DocumentChunk;
 
 import java.io.File;
 import java.util.List;
+import java.util.function.Predicate;
 
 /**
  * 文档处理器接口
@@ -17,4 +18,16 @@ public interface DocumentProcessor {
      * @return 文档块列表
      */
     List<DocumentChunk> process(File file, DocumentChunk.SourceType sourceType);
+
+    /**
+     * 解析文档并分块，只为尚未索引的分块生成嵌入
+     *
+     * @param file            文档文件
+     * @param sourceType      文档来源类型
+     * @param indexedChunkIds 判断分块 ID 是否已在向量库中；已索引的分块返回时 embedding 为 null
+     * @return 文档块列表
+     */
+    default List<DocumentChunk> process(File file, DocumentChunk.SourceType sourceType, Predicate<String> indexedChunkIds) {
+        return process(file, sourceType);
+    }
 }
\ No newline at end of file
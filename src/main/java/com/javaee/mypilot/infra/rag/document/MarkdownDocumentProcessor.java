@@ -7,7 +7,6 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -15,17 +14,16 @@ import java.util.regex.Pattern;
  * 处理 Markdown 文件（MD）的 DocumentProcessor 实现
  * 按照 Markdown 的层级结构（标题）进行智能分块
  */
-public class MarkdownDocumentProcessor implements DocumentProcessor {
-    private final EmbeddingService embeddingService;
+public class MarkdownDocumentProcessor extends AbstractDocumentProcessor {
     private static final int CHUNK_SIZE = 1000; // 每个chunk的字符数
     private static final Pattern HEADING_PATTERN = Pattern.compile("^(#{1,6})\\s+(.+)$");
 
     public MarkdownDocumentProcessor(EmbeddingService embeddingService) {
-        this.embeddingService = embeddingService;
+        super(embeddingService);
     }
 
     @Override
-    public List<DocumentChunk> process(File file, DocumentChunk.SourceType sourceType) {
+    protected List<DocumentChunk> parse(File file, DocumentChunk.SourceType sourceType) {
         List<DocumentChunk> chunks = new ArrayList<>();
 
         try {
@@ -122,19 +120,9 @@ public class MarkdownDocumentProcessor implements DocumentProcessor {
      */
     private void saveChunk(List<DocumentChunk> chunks, String content, String fileName,
                           String sectionTitle, int chunkIndex, DocumentChunk.SourceType sourceType) {
-        float[] embedding = embeddingService.embed(content);
-
         String title = sectionTitle + " - 块" + chunkIndex;
 
-        DocumentChunk chunk = new DocumentChunk(
-                UUID.randomUUID().toString(),
-                content.trim(),
-                fileName,
-                chunkIndex, // 使用块索引作为"页码"
-                title,
-                embedding,
-                sourceType);
-        chunks.add(chunk);
+        chunks.add(newChunk(content.trim(), fileName, chunkIndex, title, sourceType)); // 使用块索引作为"页码"
     }
 
     /**
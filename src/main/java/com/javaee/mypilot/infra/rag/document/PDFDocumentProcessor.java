@@ -9,21 +9,19 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
 
 /**
  * 使用 Apache PDFBox 解析 PDF 文件的 DocumentProcessor 实现
  */
-public class PDFDocumentProcessor implements DocumentProcessor {
-    private final EmbeddingService embeddingService;
+public class PDFDocumentProcessor extends AbstractDocumentProcessor {
     private static final int CHUNK_SIZE = 1000; // 每个chunk的字符数
 
     public PDFDocumentProcessor(EmbeddingService embeddingService) {
-        this.embeddingService = embeddingService;
+        super(embeddingService);
     }
 
     @Override
-    public List<DocumentChunk> process(File file, DocumentChunk.SourceType sourceType) {
+    protected List<DocumentChunk> parse(File file, DocumentChunk.SourceType sourceType) {
         List<DocumentChunk> chunks = new ArrayList<>();
 
         try (PDDocument document = PDDocument.load(file)) {
@@ -42,22 +40,13 @@ public class PDFDocumentProcessor implements DocumentProcessor {
 
                     for (int i = 0; i < pageChunks.size(); i++) {
                         String chunkContent = pageChunks.get(i);
-                        float[] embedding = embeddingService.embed(chunkContent);
 
                         // 生成标题：如果是单块则用页码，多块则加上块序号
                         String title = pageChunks.size() == 1
                             ? "第" + pageNum + "页"
                             : "第" + pageNum + "页-块" + (i + 1);
 
-                        DocumentChunk chunk = new DocumentChunk(
-                                UUID.randomUUID().toString(),
-                                chunkContent,
-                                file.getName(),
-                                pageNum,
-                                title,
-                                embedding,
-                                sourceType);
-                        chunks.add(chunk);
+                        chunks.add(newChunk(chunkContent, file.getName(), pageNum, title, sourceType));
                     }
                 }
             }
@@ -12,20 +12,17 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
 
 /**
  * 使用 Apache POI 解析 PPTX 文件的 DocumentProcessor 实现
  */
-public class PPTDocumentProcessor implements DocumentProcessor {
-    private final EmbeddingService embeddingService;
-
+public class PPTDocumentProcessor extends AbstractDocumentProcessor {
     public PPTDocumentProcessor(EmbeddingService embeddingService) {
-        this.embeddingService = embeddingService;
+        super(embeddingService);
     }
 
     @Override
-    public List<DocumentChunk> process(File file, DocumentChunk.SourceType sourceType) {
+    protected List<DocumentChunk> parse(File file, DocumentChunk.SourceType sourceType) {
         List<DocumentChunk> chunks = new ArrayList<>();
         try (FileInputStream fis = new FileInputStream(file);
              XMLSlideShow ppt = new XMLSlideShow(fis)) {
@@ -41,16 +38,7 @@ public class PPTDocumentProcessor implements DocumentProcessor {
                 }
                 String content = text.toString().trim();
                 if (!content.isEmpty()) {
-                    float[] embedding = embeddingService.embed(content);
-                    DocumentChunk chunk = new DocumentChunk(
-                            UUID.randomUUID().toString(),
-                            content,
-                            file.getName(),
-                            i + 1, // 页码从1开始
-                            title,
-                            embedding,
-                            sourceType);
-                    chunks.add(chunk);
+                    chunks.add(newChunk(content, file.getName(), i + 1, title, sourceType)); // 页码从1开始
                 }
             }
         } catch (IOException e) {
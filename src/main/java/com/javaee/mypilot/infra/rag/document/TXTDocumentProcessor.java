@@ -8,21 +8,19 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
 
 /**
  * 处理纯文本文件（TXT）的 DocumentProcessor 实现
  */
-public class TXTDocumentProcessor implements DocumentProcessor {
-    private final EmbeddingService embeddingService;
+public class TXTDocumentProcessor extends AbstractDocumentProcessor {
     private static final int CHUNK_SIZE = 1000; // 每个chunk的字符数
 
     public TXTDocumentProcessor(EmbeddingService embeddingService) {
-        this.embeddingService = embeddingService;
+        super(embeddingService);
     }
 
     @Override
-    public List<DocumentChunk> process(File file, DocumentChunk.SourceType sourceType) {
+    protected List<DocumentChunk> parse(File file, DocumentChunk.SourceType sourceType) {
         List<DocumentChunk> chunks = new ArrayList<>();
 
         try {
@@ -43,21 +41,12 @@ public class TXTDocumentProcessor implements DocumentProcessor {
 
             for (int i = 0; i < textChunks.size(); i++) {
                 String chunkContent = textChunks.get(i);
-                float[] embedding = embeddingService.embed(chunkContent);
 
                 // 估算页码（假设每1000字符为一页）
                 int pageEstimate = i + 1;
                 String title = "块" + (i + 1);
 
-                DocumentChunk chunk = new DocumentChunk(
-                        UUID.randomUUID().toString(),
-                        chunkContent,
-                        file.getName(),
-                        pageEstimate,
-                        title,
-                        embedding,
-                        sourceType);
-                chunks.add(chunk);
+                chunks.add(newChunk(chunkContent, file.getName(), pageEstimate, title, sourceType));
             }
 
         } catch (IOException e) {
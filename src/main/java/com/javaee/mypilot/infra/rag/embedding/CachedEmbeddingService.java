@@ -0,0 +1,69 @@
+package com.javaee.mypilot.infra.rag.embedding;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 带磁盘缓存的 Embedding 服务装饰器
+ *
+ * <p>先按 (模型 ID, 规范化文本摘要) 查询 {@link EmbeddingCache}，只把未命中的文本交给被装饰的服务，
+ * 结果写回缓存。内容未变的知识库重建不再产生远程调用。
+ */
+public class CachedEmbeddingService implements EmbeddingService {
+    private final EmbeddingService delegate;
+    private final EmbeddingCache cache;
+
+    public CachedEmbeddingService(EmbeddingService delegate, EmbeddingCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public float[] embed(String text) {
+        EmbeddingCache.Key key = EmbeddingCache.key(getModelId(), text);
+        float[] embedding = cache.get(key);
+        if (embedding == null) {
+            embedding = delegate.embed(text);
+            cache.put(key, embedding);
+        }
+        return embedding;
+    }
+
+    @Override
+    public List<float[]> embedBatch(List<String> texts) {
+        String modelId = getModelId();
+        List<float[]> embeddings = new ArrayList<>(texts.size());
+        List<EmbeddingCache.Key> missKeys = new ArrayList<>();
+        List<String> missTexts = new ArrayList<>();
+        List<Integer> missPositions = new ArrayList<>();
+        for (String text : texts) {
+            EmbeddingCache.Key key = EmbeddingCache.key(modelId, text);
+            float[] embedding = cache.get(key);
+            if (embedding == null) {
+                missKeys.add(key);
+                missTexts.add(text);
+                missPositions.add(embeddings.size());
+            }
+            embeddings.add(embedding);
+        }
+
+        if (!missTexts.isEmpty()) {
+            List<float[]> computed = delegate.embedBatch(missTexts);
+            for (int i = 0; i < computed.size(); i++) {
+                cache.put(missKeys.get(i), computed.get(i));
+                embeddings.set(missPositions.get(i), computed.get(i));
+            }
+        }
+        return embeddings;
+    }
+
+    @Override
+    public String getModelId() {
+        return delegate.getModelId();
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        return delegate.getMaxBatchSize();
+    }
+}
@@ -6,6 +6,9 @@ import com.google.gson.JsonObject;
 import okhttp3.*;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -17,6 +20,10 @@ import java.util.concurrent.TimeUnit;
 public class DashScopeEmbeddingService implements EmbeddingService {
     private static final String API_URL = "https://dashscope.aliyuncs.com/api/v1/services/embeddings/text-embedding/text-embedding";
     private static final String MODEL = "text-embedding-v2";
+    // text-embedding-v2 每次请求最多 25 条文本（单条最多 2048 tokens，由分块大小保证）
+    private static final int MAX_BATCH_SIZE = 25;
+    // 调度器使用的默认请求速率（次/秒），低于服务商的默认 QPS 配额
+    public static final double REQUESTS_PER_SECOND = 20;
     private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
 
     private final String apiKey;
@@ -26,19 +33,51 @@ public class DashScopeEmbeddingService implements EmbeddingService {
     public DashScopeEmbeddingService(String apiKey) {
         this.apiKey = apiKey;
         this.client = new OkHttpClient.Builder()
+                .dispatcher(InterruptibleCall.newDispatcher())
                 .connectTimeout(30, TimeUnit.SECONDS)
                 .readTimeout(30, TimeUnit.SECONDS)
                 .build();
         this.gson = new Gson();
     }
 
+    @Override
+    public String getModelId() {
+        return "dashscope/" + MODEL;
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        return MAX_BATCH_SIZE;
+    }
+
     @Override
     public float[] embed(String text) {
+        return requestEmbeddings(List.of(text)).get(0);
+    }
+
+    /**
+     * 批量生成嵌入向量：每次请求最多 MAX_BATCH_SIZE 条文本
+     */
+    @Override
+    public List<float[]> embedBatch(List<String> texts) {
+        List<float[]> embeddings = new ArrayList<>(texts.size());
+        for (List<String> batch : EmbeddingBatches.partition(texts, MAX_BATCH_SIZE, Integer.MAX_VALUE)) {
+            embeddings.addAll(requestEmbeddings(batch));
+        }
+        return embeddings;
+    }
+
+    /**
+     * 一次请求生成多条文本的嵌入向量，结果按 text_index 还原为输入顺序
+     */
+    private List<float[]> requestEmbeddings(List<String> batch) {
         try {
             // 构建请求体
             JsonObject input = new JsonObject();
             JsonArray texts = new JsonArray();
-            texts.add(text);
+            for (String text : batch) {
+                texts.add(text);
+            }
             input.add("texts", texts);
 
             JsonObject parameters = new JsonObject();
@@ -56,9 +95,10 @@ public class DashScopeEmbeddingService implements EmbeddingService {
                     .post(RequestBody.create(gson.toJson(requestBody), JSON))
                     .build();
 
-            try (Response response = client.newCall(request).execute()) {
+            try (Response response = InterruptibleCall.execute(client.newCall(request))) {
                 if (!response.isSuccessful()) {
-                    throw new IOException("DashScope API 调用失败: " + response.code() + " - " + response.message());
+                    throw new EmbeddingException("DashScope API 调用失败: " + response.code() + " - " + response.message(),
+                        response.code(), EmbeddingException.parseRetryAfter(response.header("Retry-After")));
                 }
 
                 String responseBody = response.body().string();
@@ -67,18 +107,28 @@ public class DashScopeEmbeddingService implements EmbeddingService {
                 // 提取嵌入向量
                 JsonObject output = jsonResponse.getAsJsonObject("output");
                 JsonArray embeddings = output.getAsJsonArray("embeddings");
-                JsonObject firstEmbedding = embeddings.get(0).getAsJsonObject();
-                JsonArray embeddingArray = firstEmbedding.getAsJsonArray("embedding");
-
-                float[] embedding = new float[embeddingArray.size()];
-                for (int i = 0; i < embeddingArray.size(); i++) {
-                    embedding[i] = embeddingArray.get(i).getAsFloat();
+                if (embeddings.size() != batch.size()) {
+                    throw new IOException("DashScope 返回的向量数量与输入不一致: " + embeddings.size() + " / " + batch.size());
                 }
 
-                return embedding;
+                float[][] results = new float[batch.size()][];
+                for (int i = 0; i < embeddings.size(); i++) {
+                    JsonObject item = embeddings.get(i).getAsJsonObject();
+                    int index = item.has("text_index") ? item.get("text_index").getAsInt() : i;
+                    results[index] = toFloatArray(item.getAsJsonArray("embedding"));
+                }
+                return Arrays.asList(results);
             }
         } catch (IOException e) {
-            throw new RuntimeException("生成 DashScope 嵌入向量失败: " + e.getMessage(), e);
+            throw new EmbeddingException("生成 DashScope 嵌入向量失败: " + e.getMessage(), e);
+        }
+    }
+
+    private static float[] toFloatArray(JsonArray embeddingArray) {
+        float[] embedding = new float[embeddingArray.size()];
+        for (int i = 0; i < embeddingArray.size(); i++) {
+            embedding[i] = embeddingArray.get(i).getAsFloat();
         }
+        return embedding;
     }
 }
@@ -0,0 +1,275 @@
+package com.javaee.mypilot.infra.rag.embedding;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+
+/**
+ * 语料级文档频率（DF）表，为本地嵌入提供 IDF 权重
+ *
+ * <p>特征哈希按低位落入固定数量的桶，每个桶记录包含该桶特征的分块数：内存和文件大小与语料规模无关，
+ * 百万级分块也只占两张 1 MB 的计数表（桶冲突只会略微高估少见特征的 DF）。
+ * 分块索引或删除时增量更新计数。
+ *
+ * <p>嵌入时使用的是“版本快照”而不是实时计数：实时计数每次变化都改权重会让新旧向量不可比。
+ * 自上次快照以来增删的分块超过一定比例时生成新版本，版本号写进本地模型 ID，
+ * 清单中模型 ID 不同的文件即为权重过期的旧向量，由同步流程在后台重新嵌入。
+ */
+public class DocumentFrequencyTable {
+    private static final int MAGIC = 0x4d504446; // "MPDF"
+    private static final int FORMAT_VERSION = 1;
+    private static final int BUCKETS = 1 << 18;
+    // 分块数不足时 IDF 不可靠，继续只用词频
+    private static final int MIN_DOCUMENTS = 32;
+    // 自上次快照以来增删的分块占快照分块数的比例超过此值时生成新版本
+    private static final double RESTAMP_RATIO = 0.25;
+
+    private final Path file;
+    private int[] counts = new int[BUCKETS];
+    private long documents;
+    private long changesSinceStamp;
+    private volatile Weights weights; // null 表示尚未生成快照
+    private boolean dirty;
+
+    /**
+     * IDF 权重快照，生成后不再修改，可在嵌入线程间共享
+     */
+    public static final class Weights {
+        private final int version;
+        private final long documents;
+        private final int[] counts;
+
+        private Weights(int version, long documents, int[] counts) {
+            this.version = version;
+            this.documents = documents;
+            this.counts = counts;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        /**
+         * 平滑 IDF：ln((1 + N) / (1 + df)) + 1，出现在所有分块中的特征权重为 1
+         */
+        float idf(int featureHash) {
+            return (float) (Math.log((1.0 + documents) / (1.0 + counts[featureHash & (BUCKETS - 1)])) + 1.0);
+        }
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param tablePath DF 表文件路径
+     */
+    public DocumentFrequencyTable(String tablePath) {
+        this.file = Paths.get(tablePath);
+        load();
+    }
+
+    /**
+     * 当前 IDF 快照，尚未生成时返回 null
+     */
+    public Weights getWeights() {
+        return weights;
+    }
+
+    public synchronized long getDocumentCount() {
+        return documents;
+    }
+
+    /**
+     * 记录新索引的分块
+     */
+    public void addDocuments(Collection<String> texts) {
+        update(texts, 1);
+    }
+
+    /**
+     * 记录被删除的分块（须与索引时的文本一致）
+     */
+    public void removeDocuments(Collection<String> texts) {
+        update(texts, -1);
+    }
+
+    /**
+     * 清空实时计数（知识库被整体清空），快照保持不变
+     */
+    public synchronized void clear() {
+        changesSinceStamp += documents;
+        counts = new int[BUCKETS];
+        documents = 0;
+        dirty = true;
+    }
+
+    /**
+     * 用预构建索引附带的 DF 表初始化：只在本表还没有任何计数和快照时采用对方的计数和快照，
+     * 这样预构建向量的模型 ID 与本地一致
+     *
+     * @return 是否已采用；未采用时调用方需要自行统计挂载的分块
+     */
+    public synchronized boolean adopt(DocumentFrequencyTable prebuilt) {
+        if (documents > 0 || weights != null) {
+            return false;
+        }
+        synchronized (prebuilt) {
+            if (prebuilt.documents == 0) {
+                return false;
+            }
+            counts = prebuilt.counts.clone();
+            documents = prebuilt.documents;
+            changesSinceStamp = prebuilt.changesSinceStamp;
+            weights = prebuilt.weights;
+        }
+        dirty = true;
+        return true;
+    }
+
+    /**
+     * 是否需要生成新的 IDF 快照
+     */
+    public synchronized boolean needsRestamp() {
+        if (documents < MIN_DOCUMENTS) {
+            return false;
+        }
+        Weights current = weights;
+        return current == null || changesSinceStamp > current.documents * RESTAMP_RATIO;
+    }
+
+    /**
+     * 以当前计数生成新的 IDF 快照
+     *
+     * @return 新版本号；不需要更新时返回 -1
+     */
+    public synchronized int restamp() {
+        if (!needsRestamp()) {
+            return -1;
+        }
+        Weights current = weights;
+        int version = current == null ? 1 : current.version + 1;
+        weights = new Weights(version, documents, counts.clone());
+        changesSinceStamp = 0;
+        dirty = true;
+        return version;
+    }
+
+    /**
+     * 原子写入 DF 表文件（先写临时文件再替换），只记录非零的桶
+     */
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(BUCKETS);
+                out.writeLong(documents);
+                out.writeLong(changesSinceStamp);
+                writeCounts(out, counts);
+                Weights current = weights;
+                out.writeInt(current == null ? 0 : current.version);
+                if (current != null) {
+                    out.writeLong(current.documents);
+                    writeCounts(out, current.counts);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            System.err.println("保存文档频率表失败: " + e.getMessage());
+        }
+    }
+
+    private void update(Collection<String> texts, int delta) {
+        if (texts.isEmpty()) {
+            return;
+        }
+        // 特征提取在锁外进行，只有计数更新需要加锁
+        int[][] features = new int[texts.size()][];
+        int i = 0;
+        for (String text : texts) {
+            features[i++] = LocalEmbeddingService.documentFeatures(text);
+        }
+        synchronized (this) {
+            for (int[] document : features) {
+                for (int feature : document) {
+                    int bucket = feature & (BUCKETS - 1);
+                    counts[bucket] = Math.max(0, counts[bucket] + delta);
+                }
+            }
+            documents = Math.max(0, documents + (long) delta * features.length);
+            changesSinceStamp += features.length;
+            dirty = true;
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || in.readInt() != BUCKETS) {
+                throw new IOException("文件格式不兼容");
+            }
+            long loadedDocuments = in.readLong();
+            long loadedChanges = in.readLong();
+            int[] loadedCounts = readCounts(in);
+            int version = in.readInt();
+            Weights loadedWeights = null;
+            if (version > 0) {
+                long stampDocuments = in.readLong();
+                loadedWeights = new Weights(version, stampDocuments, readCounts(in));
+            }
+            counts = loadedCounts;
+            documents = loadedDocuments;
+            changesSinceStamp = loadedChanges;
+            weights = loadedWeights;
+        } catch (IOException e) {
+            // 文件损坏时从空表开始，嵌入退化为只用词频
+            System.err.println("读取文档频率表失败，将重新统计: " + e.getMessage());
+        }
+    }
+
+    private static void writeCounts(DataOutputStream out, int[] values) throws IOException {
+        int nonZero = 0;
+        for (int value : values) {
+            if (value != 0) {
+                nonZero++;
+            }
+        }
+        out.writeInt(nonZero);
+        for (int bucket = 0; bucket < values.length; bucket++) {
+            if (values[bucket] != 0) {
+                out.writeInt(bucket);
+                out.writeInt(values[bucket]);
+            }
+        }
+    }
+
+    private static int[] readCounts(DataInputStream in) throws IOException {
+        int[] values = new int[BUCKETS];
+        int nonZero = in.readInt();
+        for (int i = 0; i < nonZero; i++) {
+            int bucket = in.readInt();
+            if (bucket < 0 || bucket >= BUCKETS) {
+                throw new IOException("桶编号越界: " + bucket);
+            }
+            values[bucket] = in.readInt();
+        }
+        return values;
+    }
+}
@@ -0,0 +1,44 @@
+package com.javaee.mypilot.infra.rag.embedding;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按条数和估算 token 数把输入切分为批次
+ *
+ * <p>token 数按字符数估算：中文约一字一 token，英文按字符计会高估，切分结果偏保守
+ */
+final class EmbeddingBatches {
+
+    private EmbeddingBatches() {
+    }
+
+    /**
+     * 切分批次，保持输入顺序
+     *
+     * @param texts          输入文本
+     * @param maxBatchSize   每批最多条数
+     * @param maxBatchTokens 每批最多 token 数（单条超出时独占一批）
+     * @return 各批次
+     */
+    static List<List<String>> partition(List<String> texts, int maxBatchSize, int maxBatchTokens) {
+        List<List<String>> batches = new ArrayList<>();
+        List<String> current = new ArrayList<>();
+        int currentTokens = 0;
+        for (String text : texts) {
+            String input = text != null ? text : "";
+            int tokens = Math.max(1, input.length());
+            if (!current.isEmpty() && (current.size() >= maxBatchSize || currentTokens + tokens > maxBatchTokens)) {
+                batches.add(current);
+                current = new ArrayList<>();
+                currentTokens = 0;
+            }
+            current.add(input);
+            currentTokens += tokens;
+        }
+        if (!current.isEmpty()) {
+            batches.add(current);
+        }
+        return batches;
+    }
+}
@@ -0,0 +1,439 @@
+package com.javaee.mypilot.infra.rag.embedding;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 磁盘上的嵌入向量缓存，按内容寻址
+ *
+ * <p>键为 SHA-256(模型 ID + '\0' + 规范化文本) 的前 128 位：同一模型下内容相同的文本只嵌入一次，
+ * 切换索引路径、重新上传文件或清空后重建都不再调用 Embedding 服务。
+ *
+ * <p>文件只追加写入，每条记录为 [键 16 字节][维度 int][float × 维度]；内存中只保留开放寻址的
+ * 键 → 文件偏移表（每条约 64 字节）。文件超过上限时按最近访问时间保留较新的记录并重写文件。
+ * 重写在后台线程上进行，不持有缓存锁：先按快照复制选中的记录到临时文件，
+ * 最后在锁内补上期间追加的尾部记录、替换文件和索引表（写时复制），读写只在最后的替换时短暂等待。
+ * 进程异常退出留下的不完整尾部记录在下次打开时截断。
+ */
+public class EmbeddingCache implements AutoCloseable {
+    private static final int KEY_BYTES = 16;
+    private static final int HEADER_BYTES = KEY_BYTES + Integer.BYTES;
+    private static final int MAX_DIMENSIONS = 8192;
+    private static final int INITIAL_CAPACITY = 1024;
+    // 淘汰后文件大小降到上限的这一比例，避免每次追加都触发重写
+    private static final double COMPACT_TARGET_RATIO = 0.75;
+
+    private final Path file;
+    private final long maxBytes;
+    private final Executor compactor;
+    private final ExecutorService ownedCompactor;
+    private FileChannel channel;
+    private long fileSize;
+    private boolean compacting;
+
+    // 开放寻址表：offsets[i] == -1 表示空槽
+    private long[] keysHi;
+    private long[] keysLo;
+    private long[] offsets;
+    private long[] lastAccess;
+    private int count;
+    private long clock;
+
+    /**
+     * 缓存键
+     */
+    public record Key(long hi, long lo) {
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param cachePath 缓存文件路径
+     * @param maxBytes  缓存文件大小上限
+     */
+    public EmbeddingCache(String cachePath, long maxBytes) {
+        this(cachePath, maxBytes, null);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param cachePath 缓存文件路径
+     * @param maxBytes  缓存文件大小上限
+     * @param compactor 执行压缩的线程池（null 表示使用缓存自己的后台线程）
+     */
+    EmbeddingCache(String cachePath, long maxBytes, Executor compactor) {
+        this.file = Paths.get(cachePath);
+        this.maxBytes = maxBytes;
+        this.ownedCompactor = compactor == null ? Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "embedding-cache-compact");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        this.compactor = compactor != null ? compactor : ownedCompactor;
+        allocateTable(INITIAL_CAPACITY);
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            load();
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // 截断加载时发现的不完整尾部记录
+            if (channel.size() > fileSize) {
+                channel.truncate(fileSize);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("打开嵌入缓存失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 计算缓存键：文本先做 Unicode NFC 规范化、去掉首尾空白并合并连续空白
+     */
+    public static Key key(String modelId, String text) {
+        String normalized = text == null ? "" :
+            Normalizer.normalize(text, Normalizer.Form.NFC).trim().replaceAll("\\s+", " ");
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(modelId.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            ByteBuffer hash = ByteBuffer.wrap(digest.digest(normalized.getBytes(StandardCharsets.UTF_8)));
+            return new Key(hash.getLong(), hash.getLong());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("计算缓存键失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 读取缓存的向量，未命中或读取失败时返回 null
+     */
+    public synchronized float[] get(Key key) {
+        int slot = slot(key.hi(), key.lo());
+        if (offsets[slot] < 0 || channel == null) {
+            return null;
+        }
+        try {
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+            readFully(header, offsets[slot] + KEY_BYTES);
+            int dimension = header.flip().getInt();
+            ByteBuffer data = ByteBuffer.allocate(dimension * Float.BYTES);
+            readFully(data, offsets[slot] + HEADER_BYTES);
+            float[] vector = new float[dimension];
+            data.flip().asFloatBuffer().get(vector);
+            lastAccess[slot] = ++clock;
+            return vector;
+        } catch (IOException e) {
+            System.err.println("读取嵌入缓存失败: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 追加写入向量；写入失败只记录日志，不影响嵌入结果
+     */
+    public synchronized void put(Key key, float[] vector) {
+        if (vector == null || vector.length == 0 || vector.length > MAX_DIMENSIONS || channel == null) {
+            return;
+        }
+        int slot = slot(key.hi(), key.lo());
+        if (offsets[slot] >= 0) {
+            return;
+        }
+        try {
+            ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + vector.length * Float.BYTES);
+            record.putLong(key.hi()).putLong(key.lo()).putInt(vector.length);
+            for (float value : vector) {
+                record.putFloat(value);
+            }
+            record.flip();
+            long offset = fileSize;
+            while (record.hasRemaining()) {
+                channel.write(record, offset + record.position());
+            }
+            fileSize += record.limit();
+            insert(slot, key.hi(), key.lo(), offset, ++clock);
+
+            if (fileSize > maxBytes && !compacting) {
+                compacting = true;
+                Snapshot snapshot = snapshot();
+                compactor.execute(() -> compact(snapshot));
+            }
+        } catch (IOException e) {
+            System.err.println("写入嵌入缓存失败: " + e.getMessage());
+        }
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (ownedCompactor != null) {
+            // 不中断正在进行的压缩：它在替换前发现缓存已关闭会自行放弃
+            ownedCompactor.shutdown();
+        }
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("关闭嵌入缓存失败: " + e.getMessage());
+        } finally {
+            channel = null;
+        }
+    }
+
+    /**
+     * 顺序扫描缓存文件重建内存索引，遇到不完整或异常的记录即停止
+     */
+    private void load() throws IOException {
+        fileSize = 0;
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            long offset = 0;
+            while (true) {
+                long hi;
+                long lo;
+                int dimension;
+                try {
+                    hi = in.readLong();
+                    lo = in.readLong();
+                    dimension = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (dimension <= 0 || dimension > MAX_DIMENSIONS) {
+                    break;
+                }
+                int dataBytes = dimension * Float.BYTES;
+                in.skipNBytes(dataBytes);
+                int slot = slot(hi, lo);
+                if (offsets[slot] < 0) {
+                    insert(slot, hi, lo, offset, ++clock);
+                } else {
+                    offsets[slot] = offset;
+                }
+                offset += HEADER_BYTES + dataBytes;
+                fileSize = offset;
+            }
+        } catch (EOFException e) {
+            // 最后一条记录不完整，fileSize 停在上一条记录末尾
+        }
+        if (count > 0) {
+            System.out.println("已加载嵌入缓存: " + count + " 条记录");
+        }
+    }
+
+    /**
+     * 压缩开始时的记录快照：按最近访问时间从新到旧排列的键和偏移
+     */
+    private record Snapshot(FileChannel source, long end, long[] hi, long[] lo, long[] offsets) {
+    }
+
+    private Snapshot snapshot() {
+        List<Integer> live = new ArrayList<>(count);
+        for (int i = 0; i < offsets.length; i++) {
+            if (offsets[i] >= 0) {
+                live.add(i);
+            }
+        }
+        live.sort((a, b) -> Long.compare(lastAccess[b], lastAccess[a]));
+        long[] hi = new long[live.size()];
+        long[] lo = new long[live.size()];
+        long[] recordOffsets = new long[live.size()];
+        for (int i = 0; i < live.size(); i++) {
+            int slot = live.get(i);
+            hi[i] = keysHi[slot];
+            lo[i] = keysLo[slot];
+            recordOffsets[i] = offsets[slot];
+        }
+        return new Snapshot(channel, fileSize, hi, lo, recordOffsets);
+    }
+
+    /**
+     * 在后台线程上压缩：不持有锁，按快照保留较新的记录直到降到目标大小，写入临时文件后再替换
+     */
+    private void compact(Snapshot snapshot) {
+        long target = (long) (maxBytes * COMPACT_TARGET_RATIO);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long written = 0;
+                int kept = 0;
+                long[] newOffsets = new long[snapshot.offsets().length];
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                for (; kept < snapshot.offsets().length; kept++) {
+                    header.clear();
+                    readFully(snapshot.source(), header, snapshot.offsets()[kept]);
+                    int recordBytes = HEADER_BYTES + header.getInt(KEY_BYTES) * Float.BYTES;
+                    if (written + recordBytes > target) {
+                        break;
+                    }
+                    ByteBuffer record = ByteBuffer.allocate(recordBytes);
+                    readFully(snapshot.source(), record, snapshot.offsets()[kept]);
+                    record.flip();
+                    while (record.hasRemaining()) {
+                        out.write(record, written + record.position());
+                    }
+                    newOffsets[kept] = written;
+                    written += recordBytes;
+                }
+                if (!swap(snapshot, out, written, kept, newOffsets, tmp)) {
+                    Files.deleteIfExists(tmp);
+                }
+            }
+        } catch (IOException e) {
+            // 重写失败：继续使用旧文件，下次追加时再尝试；缓存已关闭时无需记录
+            if (snapshot.source().isOpen()) {
+                System.err.println("压缩嵌入缓存失败: " + e.getMessage());
+            }
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+                // 临时文件下次压缩时覆盖
+            }
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    /**
+     * 在锁内补上快照之后追加的记录，替换缓存文件并重建索引表；缓存已关闭时放弃并返回 false
+     */
+    private synchronized boolean swap(Snapshot snapshot, FileChannel out, long written, int kept,
+                                      long[] newOffsets, Path tmp) throws IOException {
+        if (channel == null || channel != snapshot.source()) {
+            return false;
+        }
+        long tail = fileSize - snapshot.end();
+        long copied = 0;
+        while (copied < tail) {
+            copied += channel.transferTo(snapshot.end() + copied, tail - copied, out.position(written + copied));
+        }
+        out.force(false);
+
+        long[] oldHi = keysHi;
+        long[] oldLo = keysLo;
+        long[] oldOffsets = offsets;
+        long[] oldAccess = lastAccess;
+        allocateTable(Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, count)) * 4));
+        for (int i = 0; i < kept; i++) {
+            // 访问时间取替换时的最新值，压缩期间的命中不丢失
+            int oldSlot = slot(oldHi, oldLo, oldOffsets, snapshot.hi()[i], snapshot.lo()[i]);
+            insert(slot(snapshot.hi()[i], snapshot.lo()[i]), snapshot.hi()[i], snapshot.lo()[i], newOffsets[i],
+                oldAccess[oldSlot]);
+        }
+        // 压缩期间追加的记录整体平移到新文件末尾
+        for (int i = 0; i < oldOffsets.length; i++) {
+            if (oldOffsets[i] >= snapshot.end()) {
+                insert(slot(oldHi[i], oldLo[i]), oldHi[i], oldLo[i], written + oldOffsets[i] - snapshot.end(),
+                    oldAccess[i]);
+            }
+        }
+
+        channel.close();
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        fileSize = written + tail;
+        System.out.println("嵌入缓存已压缩: 保留 " + count + " 条记录，" + fileSize / 1024 + " KB");
+        return true;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        readFully(channel, buffer, position);
+    }
+
+    private static void readFully(FileChannel source, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (source.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("缓存记录不完整");
+            }
+        }
+    }
+
+    private void allocateTable(int capacity) {
+        keysHi = new long[capacity];
+        keysLo = new long[capacity];
+        offsets = new long[capacity];
+        lastAccess = new long[capacity];
+        Arrays.fill(offsets, -1L);
+        count = 0;
+    }
+
+    /**
+     * 线性探测：返回键所在的槽，或键应插入的空槽
+     */
+    private int slot(long hi, long lo) {
+        return slot(keysHi, keysLo, offsets, hi, lo);
+    }
+
+    private static int slot(long[] keysHi, long[] keysLo, long[] offsets, long hi, long lo) {
+        int mask = offsets.length - 1;
+        int i = (int) (hi ^ (hi >>> 32)) & mask;
+        while (offsets[i] >= 0 && (keysHi[i] != hi || keysLo[i] != lo)) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void insert(int slot, long hi, long lo, long offset, long access) {
+        keysHi[slot] = hi;
+        keysLo[slot] = lo;
+        offsets[slot] = offset;
+        lastAccess[slot] = access;
+        count++;
+        // 负载因子不超过 0.5
+        if (count * 2 > offsets.length) {
+            rehash(offsets.length * 2);
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldHi = keysHi;
+        long[] oldLo = keysLo;
+        long[] oldOffsets = offsets;
+        long[] oldAccess = lastAccess;
+        keysHi = new long[capacity];
+        keysLo = new long[capacity];
+        offsets = new long[capacity];
+        lastAccess = new long[capacity];
+        Arrays.fill(offsets, -1L);
+        for (int i = 0; i < oldOffsets.length; i++) {
+            if (oldOffsets[i] >= 0) {
+                int slot = slot(oldHi[i], oldLo[i]);
+                keysHi[slot] = oldHi[i];
+                keysLo[slot] = oldLo[i];
+                offsets[slot] = oldOffsets[i];
+                lastAccess[slot] = oldAccess[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.javaee.mypilot.infra.rag.embedding;
+
+/**
+ * Embedding 服务调用失败
+ * 携带 HTTP 状态码（网络错误、超时等没有响应时为 {@link #NO_STATUS}），供调度器判断是否重试
+ */
+public class EmbeddingException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public static final int NO_STATUS = -1;
+    // 调用线程被中断（如检索超时后被取消），不重试
+    public static final int INTERRUPTED = -2;
+
+    private final int statusCode;
+    private final long retryAfterMs; // 服务端 Retry-After 建议的等待时间，未提供时为 0
+
+    public EmbeddingException(String message, int statusCode, long retryAfterMs) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    public EmbeddingException(String message, Throwable cause) {
+        this(message, cause, NO_STATUS);
+    }
+
+    private EmbeddingException(String message, Throwable cause, int statusCode) {
+        super(message, cause);
+        this.statusCode = statusCode;
+        this.retryAfterMs = 0;
+    }
+
+    /**
+     * 调用线程被中断，调用方应放弃本次请求
+     */
+    public static EmbeddingException interrupted(String message, Throwable cause) {
+        return new EmbeddingException(message, cause, INTERRUPTED);
+    }
+
+    public boolean isInterrupted() {
+        return statusCode == INTERRUPTED;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+
+    /**
+     * 被限流（429 或 503）
+     */
+    public boolean isThrottled() {
+        return statusCode == 429 || statusCode == 503;
+    }
+
+    /**
+     * 是否值得重试：限流、服务端错误和网络错误；其余 4xx（如鉴权失败）重试也不会成功，被中断的调用也不重试
+     */
+    public boolean isRetryable() {
+        return statusCode == NO_STATUS || statusCode == 429 || statusCode >= 500;
+    }
+
+    /**
+     * 解析 Retry-After 响应头（秒数），无法解析时返回 0
+     */
+    static long parseRetryAfter(String header) {
+        if (header == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(header.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
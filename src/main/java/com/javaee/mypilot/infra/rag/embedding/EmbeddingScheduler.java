@@ -0,0 +1,241 @@
+package com.javaee.mypilot.infra.rag.embedding;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * 远程 Embedding 调用调度器（装饰器）
+ *
+ * <ul>
+ *   <li>批量嵌入按服务的单次请求上限切片，在 IO 线程池上最多 parallelism 个请求并行</li>
+ *   <li>令牌桶限速：每个请求消耗一个令牌，速率不超过服务商配额</li>
+ *   <li>AIMD：被限流（429/503）时速率减半，每次成功后线性回升到上限</li>
+ *   <li>限流、5xx 和网络错误按指数退避重试；嵌入请求没有副作用，重试是幂等的</li>
+ *   <li>批量嵌入的任一切片最终失败时取消整批：其余切片在下一次尝试或退避等待时立即放弃，不再消耗配额</li>
+ * </ul>
+ */
+public class EmbeddingScheduler implements EmbeddingService {
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long BASE_BACKOFF_MS = 500;
+    private static final long MAX_BACKOFF_MS = 10_000;
+    // 被限流后速率下限占配额的比例，以及每次成功回升的比例
+    private static final double MIN_RATE_RATIO = 0.05;
+    private static final double INCREASE_RATIO = 0.05;
+
+    private final EmbeddingService delegate;
+    private final Executor executor;
+    private final int parallelism;
+    private final double maxRate;
+
+    // 令牌桶状态，由 this 保护
+    private double rate;
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * 构造函数
+     *
+     * @param delegate          被调度的 Embedding 服务
+     * @param executor          执行并行请求的 IO 线程池
+     * @param parallelism       最多同时进行的请求数
+     * @param requestsPerSecond 请求速率上限（次/秒）
+     */
+    public EmbeddingScheduler(EmbeddingService delegate, Executor executor, int parallelism, double requestsPerSecond) {
+        this.delegate = delegate;
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+        this.maxRate = requestsPerSecond;
+        this.rate = requestsPerSecond;
+        this.tokens = 1;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    @Override
+    public float[] embed(String text) {
+        return callWithRetry(() -> delegate.embed(text), new Cancellation());
+    }
+
+    @Override
+    public List<float[]> embedBatch(List<String> texts) {
+        int sliceSize = Math.max(1, delegate.getMaxBatchSize());
+        if (texts.size() <= sliceSize || parallelism == 1) {
+            List<float[]> embeddings = new ArrayList<>(texts.size());
+            for (int from = 0; from < texts.size(); from += sliceSize) {
+                List<String> slice = texts.subList(from, Math.min(texts.size(), from + sliceSize));
+                embeddings.addAll(callWithRetry(() -> delegate.embedBatch(slice), new Cancellation()));
+            }
+            return embeddings;
+        }
+
+        // 信号量在提交前获取：并行数已满时调用线程等待，不会在线程池里堆积请求
+        Semaphore permits = new Semaphore(parallelism);
+        // CompletableFuture.cancel 不会中断正在执行的切片，取消通过共享的标志传递
+        Cancellation cancellation = new Cancellation();
+        List<CompletableFuture<List<float[]>>> futures = new ArrayList<>();
+        try {
+            for (int from = 0; from < texts.size() && !cancellation.isCancelled(); from += sliceSize) {
+                List<String> slice = texts.subList(from, Math.min(texts.size(), from + sliceSize));
+                permits.acquire();
+                try {
+                    futures.add(CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return callWithRetry(() -> delegate.embedBatch(slice), cancellation);
+                        } catch (RuntimeException e) {
+                            cancellation.cancel(e);
+                            throw e;
+                        } finally {
+                            permits.release();
+                        }
+                    }, executor));
+                } catch (RuntimeException e) {
+                    permits.release();
+                    throw e;
+                }
+            }
+
+            List<float[]> embeddings = new ArrayList<>(texts.size());
+            for (CompletableFuture<List<float[]>> future : futures) {
+                embeddings.addAll(future.join());
+            }
+            return embeddings;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            EmbeddingException interrupted = EmbeddingException.interrupted("嵌入请求被中断", e);
+            cancellation.cancel(interrupted);
+            throw interrupted;
+        } catch (CompletionException e) {
+            cancellation.cancel(e.getCause() instanceof RuntimeException cause ? cause : e);
+            // 抛出最先失败的切片的异常，而不是被它取消的其他切片的异常
+            throw cancellation.cause();
+        }
+    }
+
+    @Override
+    public String getModelId() {
+        return delegate.getModelId();
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        return delegate.getMaxBatchSize();
+    }
+
+    /**
+     * 当前请求速率（次/秒）
+     */
+    public synchronized double getCurrentRate() {
+        return rate;
+    }
+
+    /**
+     * 限速后执行请求，可重试的失败按指数退避（或服务端 Retry-After）重试；
+     * 每次尝试前检查取消，退避和限速等待在取消时立即结束
+     */
+    private <T> T callWithRetry(Supplier<T> request, Cancellation cancellation) {
+        for (int attempt = 1; ; attempt++) {
+            cancellation.check();
+            acquireToken(cancellation);
+            try {
+                T result = request.get();
+                onSuccess();
+                return result;
+            } catch (EmbeddingException e) {
+                if (!e.isRetryable() || attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                if (e.isThrottled()) {
+                    onThrottled();
+                }
+                long backoff = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << (attempt - 1));
+                long delay = Math.max(e.getRetryAfterMs(), ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1));
+                System.err.println("Embedding 请求失败，" + delay + "ms 后第 " + (attempt + 1) + " 次尝试: " + e.getMessage());
+                cancellation.sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * 从令牌桶取一个令牌，桶容量为一秒的请求量
+     */
+    private void acquireToken(Cancellation cancellation) {
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                tokens = Math.min(Math.max(1, rate), tokens + (now - lastRefillNanos) / 1e9 * rate);
+                lastRefillNanos = now;
+                if (tokens >= 1) {
+                    tokens -= 1;
+                    return;
+                }
+                waitNanos = (long) ((1 - tokens) / rate * 1e9);
+            }
+            cancellation.sleep(Math.max(1, waitNanos / 1_000_000));
+        }
+    }
+
+    private synchronized void onSuccess() {
+        rate = Math.min(maxRate, rate + maxRate * INCREASE_RATIO);
+    }
+
+    private synchronized void onThrottled() {
+        rate = Math.max(maxRate * MIN_RATE_RATIO, rate / 2);
+        tokens = Math.min(tokens, 0);
+    }
+
+    /**
+     * 一次调用（或一批切片）共享的取消状态，记录导致取消的第一个异常
+     */
+    private static final class Cancellation {
+        private final CountDownLatch cancelled = new CountDownLatch(1);
+        private final AtomicReference<RuntimeException> cause = new AtomicReference<>();
+
+        void cancel(RuntimeException e) {
+            cause.compareAndSet(null, e);
+            cancelled.countDown();
+        }
+
+        boolean isCancelled() {
+            return cancelled.getCount() == 0;
+        }
+
+        RuntimeException cause() {
+            return cause.get();
+        }
+
+        /**
+         * 已取消或线程已被中断时放弃本次调用
+         */
+        void check() {
+            if (isCancelled()) {
+                throw EmbeddingException.interrupted("嵌入请求已取消", cause.get());
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw EmbeddingException.interrupted("嵌入请求被中断", null);
+            }
+        }
+
+        /**
+         * 等待指定时间，期间被取消或中断时立即放弃
+         */
+        void sleep(long millis) {
+            try {
+                if (cancelled.await(millis, TimeUnit.MILLISECONDS)) {
+                    check();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw EmbeddingException.interrupted("嵌入请求被中断", e);
+            }
+        }
+    }
+}
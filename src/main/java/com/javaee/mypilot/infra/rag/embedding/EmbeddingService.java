@@ -1,5 +1,10 @@
 package com.javaee.mypilot.infra.rag.embedding;
 
+import com.javaee.mypilot.core.model.rag.SparseVector;
+
+import java.util.ArrayList;
+import java.util.List;
+
 public interface EmbeddingService {
     /**
      * 生成文本的嵌入向量
@@ -8,4 +13,63 @@ public interface EmbeddingService {
      * @return 向量表示
      */
     float[] embed(String text);
+
+    /**
+     * 模型标识：服务商 + 模型名，用于嵌入缓存的键和知识库清单，模型变化后旧向量不再复用
+     */
+    default String getModelId() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * 单次请求最多能嵌入的文本条数，调度器按此切分并行任务
+     */
+    default int getMaxBatchSize() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * 批量生成嵌入向量，默认逐条调用 {@link #embed}；
+     * 支持多条输入的服务应覆盖此方法，按服务端的批大小和 token 限制分批请求
+     *
+     * @param texts 输入文本
+     * @return 与输入顺序一一对应的向量
+     */
+    default List<float[]> embedBatch(List<String> texts) {
+        List<float[]> embeddings = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            embeddings.add(embed(text));
+        }
+        return embeddings;
+    }
+
+    /**
+     * 生成文本的稀疏表示（特征哈希 -> 权重），用于倒排索引上的稀疏检索
+     *
+     * @param text 输入文本
+     * @return 稀疏向量；不支持或未启用稀疏模式的服务返回 null
+     */
+    default SparseVector embedSparse(String text) {
+        return null;
+    }
+
+    /**
+     * 是否以稀疏表示检索：为 true 时检索只使用稀疏表示，索引时只生成 {@link #embedSparseBatch}，
+     * 不再生成稠密向量（也不写入 HNSW 图）
+     */
+    default boolean isSparse() {
+        return false;
+    }
+
+    /**
+     * 批量生成稀疏表示，结果保持输入顺序
+     * 默认实现逐个调用 embedSparse
+     */
+    default List<SparseVector> embedSparseBatch(List<String> texts) {
+        List<SparseVector> vectors = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            vectors.add(embedSparse(text));
+        }
+        return vectors;
+    }
 }
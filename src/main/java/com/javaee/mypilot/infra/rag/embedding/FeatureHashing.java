@@ -0,0 +1,81 @@
+package com.javaee.mypilot.infra.rag.embedding;
+
+/**
+ * 特征哈希工具：MurmurHash3（x86_32）直接作用于文本的字符区间
+ *
+ * <p>不构造子串、不分配对象；每个 UTF-16 字符按 2 字节参与哈希，两个字符拼成一个 32 位块。
+ * 不同种类的特征（n-gram、词、统计量）用不同的种子区分，不再需要拼接前缀字符串。
+ */
+final class FeatureHashing {
+    private static final int C1 = 0xcc9e2d51;
+    private static final int C2 = 0x1b873593;
+    // 从特征哈希派生步长时使用的种子
+    private static final int STEP_SEED = 0x9e3779b9;
+
+    private FeatureHashing() {
+    }
+
+    /**
+     * 计算 text[from, to) 的 MurmurHash3 值
+     */
+    static int hash(CharSequence text, int from, int to, int seed) {
+        int h = seed;
+        int i = from;
+        for (; i + 1 < to; i += 2) {
+            int k = text.charAt(i) | (text.charAt(i + 1) << 16);
+            h = mixH(h, mixK(k));
+            h = Integer.rotateLeft(h, 13) * 5 + 0xe6546b64;
+        }
+        if (i < to) {
+            h = mixH(h, mixK(text.charAt(i)));
+        }
+        return fmix(h ^ ((to - from) * 2));
+    }
+
+    /**
+     * 计算单个整数的哈希（用于按编号区分的特征）
+     */
+    static int hash(int value, int seed) {
+        int h = mixH(seed, mixK(value));
+        h = Integer.rotateLeft(h, 13) * 5 + 0xe6546b64;
+        return fmix(h ^ Integer.BYTES);
+    }
+
+    /**
+     * 把特征权重累加到向量的 numIndices 个不同位置
+     *
+     * <p>位置为 base + i * step（模维度），step 取奇数：维度含因子 128（如 384）时
+     * numIndices 不超过 4 的位置两两不同。
+     */
+    static void accumulate(float[] vector, int featureHash, int numIndices, float weight) {
+        int dim = vector.length;
+        int index = Integer.remainderUnsigned(featureHash, dim);
+        int step = 1 + 2 * Integer.remainderUnsigned(fmix(featureHash ^ STEP_SEED), dim / 2);
+        for (int i = 0; i < numIndices; i++) {
+            vector[index] += weight;
+            index += step;
+            if (index >= dim) {
+                index -= dim;
+            }
+        }
+    }
+
+    private static int mixK(int k) {
+        k *= C1;
+        k = Integer.rotateLeft(k, 15);
+        return k * C2;
+    }
+
+    private static int mixH(int h, int k) {
+        return h ^ k;
+    }
+
+    private static int fmix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,109 @@
+package com.javaee.mypilot.infra.rag.embedding;
+
+import java.util.Arrays;
+
+/**
+ * int 键 → 计数的开放寻址表（线性探测），供特征统计复用，避免装箱和 HashMap 节点分配
+ *
+ * <p>键是特征哈希，本身已经均匀分布，直接取低位作为槽位。计数为 0 表示空槽。
+ */
+final class IntCountMap {
+    private static final int MIN_CAPACITY = 64;
+    // 清空时容量超过此值则缩回，避免一次超长文本让线程本地的表一直占用内存
+    private static final int RETAINED_CAPACITY = 1 << 14;
+
+    private int[] keys;
+    private int[] counts;
+    private int size;
+
+    IntCountMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * 键的计数加一
+     */
+    void increment(int key) {
+        int mask = keys.length - 1;
+        int i = key & mask;
+        while (counts[i] != 0) {
+            if (keys[i] == key) {
+                counts[i]++;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        counts[i] = 1;
+        size++;
+        // 负载因子不超过 0.5
+        if (size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    /**
+     * 键的计数，不存在时为 0
+     */
+    int get(int key) {
+        int mask = keys.length - 1;
+        int i = key & mask;
+        while (counts[i] != 0) {
+            if (keys[i] == key) {
+                return counts[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 槽位数，配合 {@link #keyAt}/{@link #countAt} 遍历；countAt 为 0 的槽位是空的
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    int keyAt(int slot) {
+        return keys[slot];
+    }
+
+    int countAt(int slot) {
+        return counts[slot];
+    }
+
+    void clear() {
+        if (keys.length > RETAINED_CAPACITY) {
+            allocate(MIN_CAPACITY);
+        } else if (size > 0) {
+            Arrays.fill(counts, 0);
+        }
+        size = 0;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        counts = new int[capacity];
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldCounts = counts;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldCounts[slot] != 0) {
+                int i = oldKeys[slot] & mask;
+                while (counts[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[slot];
+                counts[i] = oldCounts[slot];
+            }
+        }
+    }
+}
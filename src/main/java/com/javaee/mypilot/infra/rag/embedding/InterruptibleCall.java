@@ -0,0 +1,63 @@
+package com.javaee.mypilot.infra.rag.embedding;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * 可被中断的 OkHttp 同步调用
+ *
+ * <p>{@code Call.execute()} 阻塞在套接字读写上时不响应线程中断。这里改为异步发起请求、在调用线程上等待结果，
+ * 等待期间线程被中断（如检索超时后被取消）就取消请求并抛出不重试的 {@link EmbeddingException}。
+ */
+final class InterruptibleCall {
+
+    private InterruptibleCall() {
+    }
+
+    /**
+     * 异步请求由 Dispatcher 的线程执行；并行数已由 {@link EmbeddingScheduler} 限制，
+     * 这里放开 OkHttp 默认的每主机 5 个并发上限
+     */
+    static Dispatcher newDispatcher() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(dispatcher.getMaxRequests());
+        return dispatcher;
+    }
+
+    /**
+     * 执行请求并等待响应，调用方负责关闭响应
+     */
+    static Response execute(Call call) throws IOException {
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                // 等待方已放弃时由这里关闭响应
+                if (!result.complete(response)) {
+                    response.close();
+                }
+            }
+        });
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(false);
+            call.cancel();
+            Thread.currentThread().interrupt();
+            throw EmbeddingException.interrupted("嵌入请求被中断", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException cause ? cause : new IOException(e.getCause());
+        }
+    }
+}
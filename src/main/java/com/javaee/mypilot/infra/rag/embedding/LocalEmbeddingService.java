@@ -1,30 +1,39 @@
 package com.javaee.mypilot.infra.rag.embedding;
 
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import com.javaee.mypilot.core.model.rag.SparseVector;
+
 import java.util.*;
-import java.util.regex.Pattern;
 
 /**
  * 本地嵌入服务（无需 API，适用于测试和轻量级场景）
  *
  * <p>实现策略：
  * <ul>
- *   <li>基于字符 n-gram 特征提取</li>
- *   <li>TF-IDF 权重计算</li>
+ *   <li>基于字符 n-gram 特征提取（单次线性扫描，按字符类别表分词）</li>
+ *   <li>TF-IDF 权重计算：IDF 来自语料级文档频率表（{@link DocumentFrequencyTable}）的版本快照，
+ *       没有文档频率表或尚未生成快照时只用词频</li>
  *   <li>结合文本统计特征（长度、词频等）</li>
  *   <li>使用确定性哈希保证相同文本生成相同向量</li>
+ *   <li>稀疏模式：输出未投影的特征权重（{@link #embedSparse}），在倒排索引上只访问查询特征的倒排表；
+ *       索引只需要稀疏表示，每个分块只提取一次特征，不再生成稠密向量</li>
  * </ul>
  *
  * <p>注意：此实现适合中小规模知识库（< 10000 文档），
  * 对于大规模生产环境建议使用专业的 Embedding 服务（如 DashScope、Zhipu）。
  */
 public class LocalEmbeddingService implements EmbeddingService {
+    // 模型标识：特征提取或投影方式变化时需要更新，预构建索引按此区分
+    public static final String MODEL_ID = "local-ngram-384-v3";
     private static final int EMBEDDING_DIM = 384;
     private static final int NGRAM_MIN = 2;
     private static final int NGRAM_MAX = 4;
     private static final int TOP_NGRAMS = 200; // 保留前 N 个最常见的 n-gram
+    private static final int PARALLEL_BATCH_THRESHOLD = 8; // 批量不足时并行的调度开销大于收益
+
+    // 各类特征的哈希种子，取代原来的 "ngram_" / "word_" / "stat_" 前缀
+    private static final int NGRAM_SEED = 0x6e677261;
+    private static final int WORD_SEED = 0x776f7264;
+    private static final int STAT_SEED = 0x73746174;
 
     // 中文和英文停用词
     private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
@@ -37,8 +46,111 @@ public class LocalEmbeddingService implements EmbeddingService {
         "has", "have", "had", "do", "does", "did", "will", "would", "should", "could", "may", "might", "can", "must", "shall"
     ));
 
-    private static final Pattern WORD_PATTERN = Pattern.compile("[\\u4e00-\\u9fa5a-zA-Z0-9]+");
-    private static final Pattern CHINESE_PATTERN = Pattern.compile("[\\u4e00-\\u9fa5]");
+    // 常见的中文虚词字符（用于过滤无意义的 n-gram）
+    private static final String COMMON_CHARS = "的了在是我有和就不人都一上也很到说要去你会着看好自己这那里为子大来对生能而还与地中或等但及之所个用他她它们最于把从给由则比更";
+
+    // 字符类别表：按 char 取值一次查表，取代逐个 n-gram 的正则匹配
+    private static final byte WORD = 1;      // [一-龥a-zA-Z0-9]
+    private static final byte CHINESE = 2;   // [一-龥]
+    private static final byte DIGIT = 4;     // Character.isDigit
+    private static final byte NEUTRAL = 8;   // 空白或虚词字符
+    private static final byte[] CHAR_CLASS = new byte[Character.MAX_VALUE + 1];
+
+    // 停用词的词哈希（与词特征使用同一种子）
+    private static final IntCountMap STOP_WORD_HASHES = new IntCountMap();
+
+    // 每个线程复用的特征统计表
+    private static final ThreadLocal<Features> FEATURES = ThreadLocal.withInitial(Features::new);
+
+    static {
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            byte cls = 0;
+            if (c >= 0x4e00 && c <= 0x9fa5) {
+                cls |= CHINESE | WORD;
+            } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+                cls |= WORD;
+            }
+            if (Character.isDigit(c)) {
+                cls |= DIGIT;
+            }
+            if (Character.isWhitespace(c)) {
+                cls |= NEUTRAL;
+            }
+            CHAR_CLASS[c] = cls;
+        }
+        for (int i = 0; i < COMMON_CHARS.length(); i++) {
+            CHAR_CLASS[COMMON_CHARS.charAt(i)] |= NEUTRAL;
+        }
+        for (String word : STOP_WORDS) {
+            STOP_WORD_HASHES.increment(FeatureHashing.hash(word, 0, word.length(), WORD_SEED));
+        }
+    }
+
+    /**
+     * 一次扫描得到的特征统计
+     */
+    private static final class Features {
+        final IntCountMap ngrams = new IntCountMap();      // n-gram 哈希 -> 出现次数
+        final IntCountMap words = new IntCountMap();       // 非停用词的词哈希 -> 出现次数
+        final IntCountMap distinctWords = new IntCountMap(); // 全部词（含停用词、单字词）
+        long[] ranking = new long[256];
+        int ngramTotal;
+        int wordTotal;
+        int wordCount;
+        int wordChars;
+        int chineseCount;
+        int digitCount;
+
+        void reset() {
+            ngrams.clear();
+            words.clear();
+            distinctWords.clear();
+            ngramTotal = 0;
+            wordTotal = 0;
+            wordCount = 0;
+            wordChars = 0;
+            chineseCount = 0;
+            digitCount = 0;
+        }
+    }
+
+    private final DocumentFrequencyTable documentFrequencies;
+    private final boolean sparse;
+
+    public LocalEmbeddingService() {
+        this(null);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param documentFrequencies 语料文档频率表（null 表示不使用 IDF）
+     */
+    public LocalEmbeddingService(DocumentFrequencyTable documentFrequencies) {
+        this(documentFrequencies, false);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param documentFrequencies 语料文档频率表（null 表示不使用 IDF）
+     * @param sparse              是否同时生成稀疏表示（{@link #embedSparse}），供倒排索引检索
+     */
+    public LocalEmbeddingService(DocumentFrequencyTable documentFrequencies, boolean sparse) {
+        this.documentFrequencies = documentFrequencies;
+        this.sparse = sparse;
+    }
+
+    /**
+     * 模型 ID 包含 IDF 快照版本：快照更新后，用旧权重生成的向量在清单中表现为模型不一致；
+     * 稀疏模式另加后缀，开启后没有稀疏表示的旧分块会重新索引
+     */
+    @Override
+    public String getModelId() {
+        DocumentFrequencyTable.Weights weights = currentWeights();
+        String modelId = weights == null ? MODEL_ID : MODEL_ID + "+idf." + weights.getVersion();
+        return sparse ? modelId + "+sparse" : modelId;
+    }
 
     @Override
     public float[] embed(String text) {
@@ -48,173 +160,222 @@ public class LocalEmbeddingService implements EmbeddingService {
 
         text = text.toLowerCase().trim();
 
-        // 1. 提取 n-gram 特征
-        Map<String, Double> ngramFeatures = extractNgramFeatures(text);
+        // 1. 单次扫描：同时统计 n-gram、词和统计特征
+        Features features = FEATURES.get();
+        features.reset();
+        scan(text, features);
 
-        // 2. 提取词频特征
-        Map<String, Double> wordFeatures = extractWordFeatures(text);
+        // 2. 组合特征并投影到固定维度
+        float[] embedding = projectToEmbedding(text.length(), features, currentWeights());
 
-        // 3. 提取统计特征
-        double[] statisticalFeatures = extractStatisticalFeatures(text);
-
-        // 4. 组合特征并投影到固定维度
-        float[] embedding = projectToEmbedding(text, ngramFeatures, wordFeatures, statisticalFeatures);
-
-        // 5. L2 归一化
+        // 3. L2 归一化
         normalize(embedding);
 
         return embedding;
     }
 
     /**
-     * 提取 n-gram 特征（字符级别）
+     * 稀疏表示：不做维度投影，直接保留 n-gram 和词特征的哈希及权重（与稠密向量相同的 TF-IDF 权重），
+     * L2 归一化后两段文本的点积即为余弦相似度。未启用稀疏模式时返回 null
      */
-    private Map<String, Double> extractNgramFeatures(String text) {
-        Map<String, Integer> ngramCounts = new HashMap<>();
-
-        // 常见的中文虚词字符（用于过滤无意义的 n-gram）
-        String commonChars = "的了在是我有和就不人都一上也很到说要去你会着看好自己这那里为子大来对生能而还与地中或等但及之所个用他她它们最于把从给由则比更";
-
-        // 提取不同长度的 n-gram
-        for (int n = NGRAM_MIN; n <= NGRAM_MAX; n++) {
-            for (int i = 0; i <= text.length() - n; i++) {
-                String ngram = text.substring(i, i + n);
-
-                // 过滤规则：
-                // 1. 必须包含字母或汉字
-                // 2. 如果是纯中文 n-gram，不能全是虚词字符
-                if (!ngram.matches(".*[\\u4e00-\\u9fa5a-zA-Z0-9].*")) {
-                    continue; // 跳过纯标点/空格
-                }
-
-                // 检查是否是纯虚词 n-gram
-                boolean isAllCommon = true;
-                for (char c : ngram.toCharArray()) {
-                    if (commonChars.indexOf(c) == -1 && !Character.isWhitespace(c)) {
-                        isAllCommon = false;
-                        break;
-                    }
-                }
+    @Override
+    public SparseVector embedSparse(String text) {
+        if (!sparse) {
+            return null;
+        }
+        if (text == null || text.trim().isEmpty()) {
+            return new SparseVector(new int[0], new float[0]);
+        }
 
-                if (!isAllCommon) {
-                    ngramCounts.merge(ngram, 1, Integer::sum);
-                }
+        Features features = FEATURES.get();
+        features.reset();
+        scan(text.toLowerCase().trim(), features);
+
+        int capacity = Math.min(features.ngrams.size(), TOP_NGRAMS) + features.words.size();
+        long[] order = new long[capacity];
+        double[] values = new double[capacity];
+        int[] size = {0};
+        forEachWeightedFeature(features, currentWeights(), (hash, numIndices, weight) -> {
+            // 高 32 位为哈希、低 32 位为下标，排序后相同哈希相邻
+            order[size[0]] = ((long) hash << 32) | size[0];
+            values[size[0]++] = weight;
+        });
+        Arrays.sort(order, 0, size[0]);
+
+        // n-gram 与词的哈希偶尔相同：合并为一个特征（倒排索引中同一文档的特征不能重复）
+        int[] hashes = new int[size[0]];
+        double[] merged = new double[size[0]];
+        int distinct = 0;
+        for (int i = 0; i < size[0]; i++) {
+            int hash = (int) (order[i] >> 32);
+            double weight = values[(int) order[i]];
+            if (distinct > 0 && hashes[distinct - 1] == hash) {
+                merged[distinct - 1] += weight;
+            } else {
+                hashes[distinct] = hash;
+                merged[distinct++] = weight;
             }
         }
 
-        // 转换为频率
-        int totalNgrams = ngramCounts.values().stream().mapToInt(Integer::intValue).sum();
-        Map<String, Double> ngramFeatures = new HashMap<>();
-
-        if (totalNgrams > 0) {
-            ngramCounts.entrySet().stream()
-                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
-                .limit(TOP_NGRAMS)
-                .forEach(entry -> ngramFeatures.put(
-                    entry.getKey(),
-                    (double) entry.getValue() / totalNgrams
-                ));
+        double norm = 0;
+        for (int i = 0; i < distinct; i++) {
+            norm += merged[i] * merged[i];
+        }
+        double scale = norm > 0 ? 1.0 / Math.sqrt(norm) : 0;
+        float[] weights = new float[distinct];
+        for (int i = 0; i < distinct; i++) {
+            weights[i] = (float) (merged[i] * scale);
         }
+        return new SparseVector(Arrays.copyOf(hashes, distinct), weights);
+    }
 
-        return ngramFeatures;
+    @Override
+    public boolean isSparse() {
+        return sparse;
     }
 
     /**
-     * 提取词频特征（词级别）
+     * 批量生成嵌入向量：各文本的特征提取互不依赖，按文本并行计算，结果保持输入顺序
      */
-    private Map<String, Double> extractWordFeatures(String text) {
-        Map<String, Integer> wordCounts = new HashMap<>();
-        var matcher = WORD_PATTERN.matcher(text);
-
-        while (matcher.find()) {
-            String word = matcher.group();
-            // 过滤停用词和单字符词
-            if (!STOP_WORDS.contains(word) && word.length() > 1) {
-                wordCounts.merge(word, 1, Integer::sum);
-            }
+    @Override
+    public List<float[]> embedBatch(List<String> texts) {
+        if (texts.size() < PARALLEL_BATCH_THRESHOLD) {
+            return EmbeddingService.super.embedBatch(texts);
         }
+        return texts.parallelStream().map(this::embed).toList();
+    }
 
-        // 计算 TF（词频）
-        int totalWords = wordCounts.values().stream().mapToInt(Integer::intValue).sum();
-        Map<String, Double> wordFeatures = new HashMap<>();
-
-        if (totalWords > 0) {
-            wordCounts.forEach((word, count) ->
-                wordFeatures.put(word, (double) count / totalWords)
-            );
+    /**
+     * 批量生成稀疏表示，与 {@link #embedBatch} 一样按文本并行
+     */
+    @Override
+    public List<SparseVector> embedSparseBatch(List<String> texts) {
+        if (texts.size() < PARALLEL_BATCH_THRESHOLD) {
+            return EmbeddingService.super.embedSparseBatch(texts);
         }
-
-        return wordFeatures;
+        return texts.parallelStream().map(this::embedSparse).toList();
     }
 
     /**
-     * 提取统计特征
+     * 文本中出现的全部 n-gram 和词特征哈希（去重），供文档频率表统计
      */
-    private double[] extractStatisticalFeatures(String text) {
-        double[] features = new double[5]; // 减少到5个关键特征
+    static int[] documentFeatures(String text) {
+        if (text == null || text.trim().isEmpty()) {
+            return new int[0];
+        }
+        Features features = FEATURES.get();
+        features.reset();
+        scan(text.toLowerCase().trim(), features);
+
+        int[] hashes = new int[features.ngrams.size() + features.words.size()];
+        int count = 0;
+        for (IntCountMap map : new IntCountMap[]{features.ngrams, features.words}) {
+            for (int slot = 0; slot < map.capacity(); slot++) {
+                if (map.countAt(slot) != 0) {
+                    hashes[count++] = map.keyAt(slot);
+                }
+            }
+        }
+        return hashes;
+    }
 
-        // 文本长度（归一化）
-        features[0] = Math.min(text.length() / 1000.0, 1.0);
+    private DocumentFrequencyTable.Weights currentWeights() {
+        return documentFrequencies == null ? null : documentFrequencies.getWeights();
+    }
 
-        // 中文字符比例
-        long chineseCount = CHINESE_PATTERN.matcher(text).results().count();
-        features[1] = text.length() > 0 ? (double) chineseCount / text.length() : 0;
+    /**
+     * 线性扫描文本：每个位置查一次字符类别表，统计以该位置结尾的 n-gram，
+     * 在词边界处统计整词，并累计中文、数字字符数
+     */
+    private static void scan(String text, Features features) {
+        int length = text.length();
+        int wordStart = -1;
+        for (int i = 0; i < length; i++) {
+            byte cls = CHAR_CLASS[text.charAt(i)];
+            if ((cls & CHINESE) != 0) {
+                features.chineseCount++;
+            }
+            if ((cls & DIGIT) != 0) {
+                features.digitCount++;
+            }
 
-        // 数字比例
-        long digitCount = text.chars().filter(Character::isDigit).count();
-        features[2] = text.length() > 0 ? (double) digitCount / text.length() : 0;
+            if ((cls & WORD) != 0) {
+                if (wordStart < 0) {
+                    wordStart = i;
+                }
+            } else if (wordStart >= 0) {
+                addWord(text, wordStart, i, features);
+                wordStart = -1;
+            }
 
-        // 平均词长
-        var matcher = WORD_PATTERN.matcher(text);
-        List<String> words = new ArrayList<>();
-        while (matcher.find()) {
-            words.add(matcher.group());
+            for (int n = NGRAM_MIN; n <= NGRAM_MAX && n <= i + 1; n++) {
+                int start = i + 1 - n;
+                if (isUsefulNgram(text, start, i + 1)) {
+                    features.ngrams.increment(FeatureHashing.hash(text, start, i + 1, NGRAM_SEED));
+                    features.ngramTotal++;
+                }
+            }
+        }
+        if (wordStart >= 0) {
+            addWord(text, wordStart, length, features);
         }
-        features[3] = words.isEmpty() ? 0 : words.stream().mapToInt(String::length).average().orElse(0) / 20.0;
+    }
 
-        // 词汇多样性（不同词 / 总词数）
-        features[4] = words.isEmpty() ? 0 : (double) new HashSet<>(words).size() / words.size();
+    /**
+     * n-gram 过滤规则：
+     * 1. 必须包含字母、数字或汉字（跳过纯标点/空格）
+     * 2. 不能全是空白和虚词字符
+     */
+    private static boolean isUsefulNgram(String text, int start, int end) {
+        boolean hasWordChar = false;
+        boolean allNeutral = true;
+        for (int i = start; i < end; i++) {
+            byte cls = CHAR_CLASS[text.charAt(i)];
+            hasWordChar |= (cls & WORD) != 0;
+            allNeutral &= (cls & NEUTRAL) != 0;
+        }
+        return hasWordChar && !allNeutral;
+    }
 
-        return features;
+    /**
+     * 统计一个整词：全部词用于统计特征，过滤停用词和单字符词后用于词频特征
+     */
+    private static void addWord(String text, int start, int end, Features features) {
+        int hash = FeatureHashing.hash(text, start, end, WORD_SEED);
+        features.wordCount++;
+        features.wordChars += end - start;
+        features.distinctWords.increment(hash);
+        if (end - start > 1 && STOP_WORD_HASHES.get(hash) == 0) {
+            features.words.increment(hash);
+            features.wordTotal++;
+        }
     }
 
     /**
      * 将特征投影到固定维度的嵌入向量
      */
-    private float[] projectToEmbedding(String text, Map<String, Double> ngramFeatures,
-                                       Map<String, Double> wordFeatures, double[] statisticalFeatures) {
+    private float[] projectToEmbedding(int textLength, Features features, DocumentFrequencyTable.Weights weights) {
         float[] embedding = new float[EMBEDDING_DIM];
 
         // 稳妥的特征权重策略（平衡版本）
         // 目标：在检索准确性和相似度区分度之间取得平衡
 
-        // 1. n-gram 特征（辅助特征，权重适中）
-        for (Map.Entry<String, Double> entry : ngramFeatures.entrySet()) {
-            int[] indices = getFeatureIndices("ngram_" + entry.getKey(), 3);
-            double weight = entry.getValue() * 1.5;
-            for (int idx : indices) {
-                embedding[idx] += (float) weight;
-            }
-        }
-
-        // 2. 词特征（主要特征，权重最高）
-        // 词汇是最可靠的语义单位，应该占主导地位
-        for (Map.Entry<String, Double> entry : wordFeatures.entrySet()) {
-            int[] indices = getFeatureIndices("word_" + entry.getKey(), 4);
-            double weight = entry.getValue() * 3.5;
-            for (int idx : indices) {
-                embedding[idx] += (float) weight;
-            }
-        }
+        // 1-2. n-gram 和词特征
+        forEachWeightedFeature(features, weights, (hash, numIndices, weight) ->
+            FeatureHashing.accumulate(embedding, hash, numIndices, (float) weight));
 
         // 3. 统计特征（微调特征，权重很低）
         // 添加少量统计特征有助于处理边缘情况，但权重必须很低
+        double[] statisticalFeatures = {
+            Math.min(textLength / 1000.0, 1.0),                                               // 文本长度（归一化）
+            (double) features.chineseCount / textLength,                                      // 中文字符比例
+            (double) features.digitCount / textLength,                                        // 数字比例
+            features.wordCount == 0 ? 0 : (double) features.wordChars / features.wordCount / 20.0, // 平均词长
+            features.wordCount == 0 ? 0 : (double) features.distinctWords.size() / features.wordCount // 词汇多样性
+        };
         for (int i = 0; i < statisticalFeatures.length; i++) {
-            int[] indices = getFeatureIndices("stat_" + i, 2);
-            double weight = statisticalFeatures[i] * 0.2;
-            for (int idx : indices) {
-                embedding[idx] += (float) weight;
-            }
+            FeatureHashing.accumulate(embedding, FeatureHashing.hash(i, STAT_SEED), 2,
+                (float) (statisticalFeatures[i] * 0.2));
         }
 
         // 注意：不再添加随机噪声，完全依靠真实特征
@@ -227,69 +388,56 @@ public class LocalEmbeddingService implements EmbeddingService {
     }
 
     /**
-     * 使用确定性哈希将特征映射到多个索引
-     * 使用更分散的哈希策略，确保不同特征映射到不同位置
+     * 按权重策略逐个给出 n-gram 和词特征：特征哈希、投影到稠密向量时占用的维度数、权重
      */
-    private int[] getFeatureIndices(String feature, int numIndices) {
-        int[] indices = new int[numIndices];
-        Set<Integer> usedIndices = new HashSet<>();
-
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hash = md.digest(feature.getBytes(StandardCharsets.UTF_8));
-
-            int attempt = 0;
-            for (int i = 0; i < numIndices; i++) {
-                int idx;
-                do {
-                    int offset = (i + attempt) * 4;
-                    if (offset + 3 < hash.length) {
-                        int value = ((hash[offset % hash.length] & 0xFF) << 24) |
-                                   ((hash[(offset + 1) % hash.length] & 0xFF) << 16) |
-                                   ((hash[(offset + 2) % hash.length] & 0xFF) << 8) |
-                                   (hash[(offset + 3) % hash.length] & 0xFF);
-                        idx = Math.abs(value) % EMBEDDING_DIM;
-                    } else {
-                        idx = Math.abs((feature.hashCode() + i * 31 + attempt * 97)) % EMBEDDING_DIM;
-                    }
-                    attempt++;
-                } while (usedIndices.contains(idx) && attempt < 100); // 避免重复索引
-
-                indices[i] = idx;
-                usedIndices.add(idx);
+    private static void forEachWeightedFeature(Features features, DocumentFrequencyTable.Weights weights,
+                                               WeightedFeatureConsumer consumer) {
+        // 1. n-gram 特征（辅助特征，权重适中）：只取出现次数最多的 TOP_NGRAMS 个，
+        //    次数相同按哈希排序，保证结果确定；有 IDF 快照时词频再乘以 IDF
+        IntCountMap ngrams = features.ngrams;
+        int ranked = 0;
+        if (features.ranking.length < ngrams.size()) {
+            features.ranking = new long[Integer.highestOneBit(ngrams.size()) * 2];
+        }
+        long[] ranking = features.ranking;
+        for (int slot = 0; slot < ngrams.capacity(); slot++) {
+            int count = ngrams.countAt(slot);
+            if (count != 0) {
+                ranking[ranked++] = ((long) (Integer.MAX_VALUE - count) << 32) | (ngrams.keyAt(slot) & 0xFFFFFFFFL);
             }
-        } catch (NoSuchAlgorithmException e) {
-            // 降级为简单哈希
-            for (int i = 0; i < numIndices; i++) {
-                int idx;
-                do {
-                    idx = Math.abs((feature.hashCode() + i * 31 + usedIndices.size() * 97)) % EMBEDDING_DIM;
-                } while (usedIndices.contains(idx));
-                indices[i] = idx;
-                usedIndices.add(idx);
+        }
+        Arrays.sort(ranking, 0, ranked);
+        for (int i = 0; i < ranked && i < TOP_NGRAMS; i++) {
+            int count = Integer.MAX_VALUE - (int) (ranking[i] >>> 32);
+            int hash = (int) ranking[i];
+            double weight = (double) count / features.ngramTotal * 1.5;
+            if (weights != null) {
+                weight *= weights.idf(hash);
             }
+            consumer.accept(hash, 3, weight);
         }
-        return indices;
-    }
 
-    /**
-     * 从文本生成确定性种子
-     */
-    private long generateSeed(String text) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hash = md.digest(text.getBytes(StandardCharsets.UTF_8));
-
-            long seed = 0;
-            for (int i = 0; i < 8 && i < hash.length; i++) {
-                seed = (seed << 8) | (hash[i] & 0xFF);
+        // 2. 词特征（主要特征，权重最高）
+        // 词汇是最可靠的语义单位，应该占主导地位
+        IntCountMap words = features.words;
+        for (int slot = 0; slot < words.capacity(); slot++) {
+            int count = words.countAt(slot);
+            if (count != 0) {
+                int hash = words.keyAt(slot);
+                double weight = (double) count / features.wordTotal * 3.5;
+                if (weights != null) {
+                    weight *= weights.idf(hash);
+                }
+                consumer.accept(hash, 4, weight);
             }
-            return seed;
-        } catch (NoSuchAlgorithmException e) {
-            return text.hashCode();
         }
     }
 
+    @FunctionalInterface
+    private interface WeightedFeatureConsumer {
+        void accept(int hash, int numIndices, double weight);
+    }
+
     /**
      * L2 归一化向量
      */
@@ -6,6 +6,9 @@ import com.google.gson.JsonObject;
 import okhttp3.*;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -17,6 +20,11 @@ import java.util.concurrent.TimeUnit;
 public class ZhipuEmbeddingService implements EmbeddingService {
     private static final String API_URL = "https://open.bigmodel.cn/api/paas/v4/embeddings";
     private static final String MODEL = "embedding-2";
+    // 数组输入每批的条数和总 token 数按保守值限制
+    private static final int MAX_BATCH_SIZE = 16;
+    private static final int MAX_BATCH_TOKENS = 8192;
+    // 调度器使用的默认请求速率（次/秒），低于服务商的默认 QPS 配额
+    public static final double REQUESTS_PER_SECOND = 10;
     private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
 
     private final String apiKey;
@@ -26,19 +34,59 @@ public class ZhipuEmbeddingService implements EmbeddingService {
     public ZhipuEmbeddingService(String apiKey) {
         this.apiKey = apiKey;
         this.client = new OkHttpClient.Builder()
+                .dispatcher(InterruptibleCall.newDispatcher())
                 .connectTimeout(30, TimeUnit.SECONDS)
                 .readTimeout(30, TimeUnit.SECONDS)
                 .build();
         this.gson = new Gson();
     }
 
+    @Override
+    public String getModelId() {
+        return "zhipu/" + MODEL;
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        return MAX_BATCH_SIZE;
+    }
+
     @Override
     public float[] embed(String text) {
+        return requestEmbeddings(List.of(text), false).get(0);
+    }
+
+    /**
+     * 批量生成嵌入向量：input 传数组，每批不超过 MAX_BATCH_SIZE 条且总 token 数不超过 MAX_BATCH_TOKENS
+     */
+    @Override
+    public List<float[]> embedBatch(List<String> texts) {
+        List<float[]> embeddings = new ArrayList<>(texts.size());
+        for (List<String> batch : EmbeddingBatches.partition(texts, MAX_BATCH_SIZE, MAX_BATCH_TOKENS)) {
+            embeddings.addAll(requestEmbeddings(batch, true));
+        }
+        return embeddings;
+    }
+
+    /**
+     * 一次请求生成多条文本的嵌入向量，结果按 index 还原为输入顺序
+     *
+     * @param asArray 为 true 时 input 以数组发送，否则发送单个字符串
+     */
+    private List<float[]> requestEmbeddings(List<String> batch, boolean asArray) {
         try {
             // 构建请求体
             JsonObject requestBody = new JsonObject();
             requestBody.addProperty("model", MODEL);
-            requestBody.addProperty("input", text);
+            if (asArray) {
+                JsonArray input = new JsonArray();
+                for (String text : batch) {
+                    input.add(text);
+                }
+                requestBody.add("input", input);
+            } else {
+                requestBody.addProperty("input", batch.get(0));
+            }
 
             Request request = new Request.Builder()
                     .url(API_URL)
@@ -47,9 +95,10 @@ public class ZhipuEmbeddingService implements EmbeddingService {
                     .post(RequestBody.create(gson.toJson(requestBody), JSON))
                     .build();
 
-            try (Response response = client.newCall(request).execute()) {
+            try (Response response = InterruptibleCall.execute(client.newCall(request))) {
                 if (!response.isSuccessful()) {
-                    throw new IOException("智谱 AI API 调用失败: " + response.code() + " - " + response.message());
+                    throw new EmbeddingException("智谱 AI API 调用失败: " + response.code() + " - " + response.message(),
+                        response.code(), EmbeddingException.parseRetryAfter(response.header("Retry-After")));
                 }
 
                 String responseBody = response.body().string();
@@ -57,18 +106,28 @@ public class ZhipuEmbeddingService implements EmbeddingService {
 
                 // 提取嵌入向量
                 JsonArray data = jsonResponse.getAsJsonArray("data");
-                JsonObject firstResult = data.get(0).getAsJsonObject();
-                JsonArray embeddingArray = firstResult.getAsJsonArray("embedding");
-
-                float[] embedding = new float[embeddingArray.size()];
-                for (int i = 0; i < embeddingArray.size(); i++) {
-                    embedding[i] = embeddingArray.get(i).getAsFloat();
+                if (data.size() != batch.size()) {
+                    throw new IOException("智谱 AI 返回的向量数量与输入不一致: " + data.size() + " / " + batch.size());
                 }
 
-                return embedding;
+                float[][] results = new float[batch.size()][];
+                for (int i = 0; i < data.size(); i++) {
+                    JsonObject item = data.get(i).getAsJsonObject();
+                    int index = item.has("index") ? item.get("index").getAsInt() : i;
+                    results[index] = toFloatArray(item.getAsJsonArray("embedding"));
+                }
+                return Arrays.asList(results);
             }
         } catch (IOException e) {
-            throw new RuntimeException("生成智谱 AI 嵌入向量失败: " + e.getMessage(), e);
+            throw new EmbeddingException("生成智谱 AI 嵌入向量失败: " + e.getMessage(), e);
+        }
+    }
+
+    private static float[] toFloatArray(JsonArray embeddingArray) {
+        float[] embedding = new float[embeddingArray.size()];
+        for (int i = 0; i < embeddingArray.size(); i++) {
+            embedding[i] = embeddingArray.get(i).getAsFloat();
         }
+        return embedding;
     }
 }
@@ -0,0 +1,209 @@
+package com.javaee.mypilot.infra.rag.vector;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * IVF（倒排文件）粗排索引
+ *
+ * <p>存储的向量已归一化。用球面 k-means 在向量上训练若干质心，每行向量归入最近质心的倒排列表。
+ * 检索时只扫描与查询最相近的 nprobe 个列表，用召回率换取扫描量。
+ *
+ * <p>实例不可变：追加、删除都会返回新实例，便于检索线程无锁读取。
+ */
+final class IvfIndex {
+    // 少于该行数时直接全量扫描，IVF 收益不明显
+    static final int MIN_ROWS = 2048;
+    private static final int MAX_LISTS = 256;
+    private static final int SAMPLES_PER_LIST = 32;
+    private static final int ITERATIONS = 8;
+    private static final long SEED = 42L;
+
+    private final int dimension;
+    private final float[][] centroids; // 已归一化
+    private final int[] assignment; // 行号 -> 列表编号
+    private final int[][] lists; // 列表编号 -> 行号
+    private final int trainedRows;
+
+    private IvfIndex(int dimension, float[][] centroids, int[] assignment, int trainedRows) {
+        this.dimension = dimension;
+        this.centroids = centroids;
+        this.assignment = assignment;
+        this.lists = buildLists(assignment, centroids.length);
+        this.trainedRows = trainedRows;
+    }
+
+    /**
+     * 在全部向量上训练质心并分配倒排列表
+     */
+    static IvfIndex train(FloatBuffer vectors, int rows, int dimension) {
+        int listCount = Math.max(1, Math.min(MAX_LISTS, (int) Math.sqrt(rows)));
+        Random random = new Random(SEED);
+
+        // 抽样训练集
+        int sampleSize = Math.min(rows, listCount * SAMPLES_PER_LIST);
+        int[] sample = sampleRows(rows, sampleSize, random);
+
+        // 用随机样本初始化质心
+        float[][] centroids = new float[listCount][dimension];
+        for (int c = 0; c < listCount; c++) {
+            vectors.get(sample[c % sampleSize] * dimension, centroids[c]);
+        }
+
+        float[] row = new float[dimension];
+        int[] sampleAssignment = new int[sampleSize];
+        for (int iter = 0; iter < ITERATIONS; iter++) {
+            float[][] sums = new float[listCount][dimension];
+            int[] counts = new int[listCount];
+
+            for (int i = 0; i < sampleSize; i++) {
+                vectors.get(sample[i] * dimension, row);
+                int nearest = nearest(centroids, row);
+                sampleAssignment[i] = nearest;
+                counts[nearest]++;
+                float[] sum = sums[nearest];
+                for (int d = 0; d < dimension; d++) {
+                    sum[d] += row[d];
+                }
+            }
+
+            for (int c = 0; c < listCount; c++) {
+                if (counts[c] == 0) {
+                    // 空簇：重新随机选一个样本作为质心
+                    vectors.get(sample[random.nextInt(sampleSize)] * dimension, centroids[c]);
+                } else {
+                    System.arraycopy(sums[c], 0, centroids[c], 0, dimension);
+                    normalize(centroids[c]);
+                }
+            }
+        }
+
+        int[] assignment = new int[rows];
+        for (int r = 0; r < rows; r++) {
+            vectors.get(r * dimension, row);
+            assignment[r] = nearest(centroids, row);
+        }
+        return new IvfIndex(dimension, centroids, assignment, rows);
+    }
+
+    /**
+     * 把新追加的行 [fromRow, toRow) 分配到现有质心
+     */
+    IvfIndex withAppended(FloatBuffer vectors, int fromRow, int toRow) {
+        int[] newAssignment = Arrays.copyOf(assignment, toRow);
+        float[] row = new float[dimension];
+        for (int r = fromRow; r < toRow; r++) {
+            vectors.get(r * dimension, row);
+            newAssignment[r] = nearest(centroids, row);
+        }
+        return new IvfIndex(dimension, centroids, newAssignment, trainedRows);
+    }
+
+    /**
+     * 删除压缩后重映射行号：新行 i 对应旧行 keptRows[i]
+     */
+    IvfIndex remapped(int[] keptRows) {
+        int[] newAssignment = new int[keptRows.length];
+        for (int i = 0; i < keptRows.length; i++) {
+            newAssignment[i] = assignment[keptRows[i]];
+        }
+        return new IvfIndex(dimension, centroids, newAssignment, trainedRows);
+    }
+
+    /**
+     * 行数相对训练时变化过大时，质心分布已经不可靠，需要重新训练
+     */
+    boolean needsRetrain(int rows) {
+        return rows > trainedRows * 3 / 2 || rows < trainedRows * 2 / 3;
+    }
+
+    int listCount() {
+        return centroids.length;
+    }
+
+    int[] list(int listId) {
+        return lists[listId];
+    }
+
+    /**
+     * 返回与查询最相近的 nprobe 个列表编号
+     */
+    int[] probe(float[] query, int nprobe) {
+        int count = Math.min(nprobe, centroids.length);
+        int[] best = new int[count];
+        float[] bestScores = new float[count];
+        Arrays.fill(bestScores, Float.NEGATIVE_INFINITY);
+
+        for (int c = 0; c < centroids.length; c++) {
+            float score = VectorMath.dot(centroids[c], query);
+            if (score <= bestScores[count - 1]) {
+                continue;
+            }
+            // 插入排序维护前 nprobe 个
+            int pos = count - 1;
+            while (pos > 0 && bestScores[pos - 1] < score) {
+                bestScores[pos] = bestScores[pos - 1];
+                best[pos] = best[pos - 1];
+                pos--;
+            }
+            bestScores[pos] = score;
+            best[pos] = c;
+        }
+        return best;
+    }
+
+    private static int nearest(float[][] centroids, float[] vector) {
+        int best = 0;
+        float bestScore = Float.NEGATIVE_INFINITY;
+        for (int c = 0; c < centroids.length; c++) {
+            float score = VectorMath.dot(centroids[c], vector);
+            if (score > bestScore) {
+                bestScore = score;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    private static void normalize(float[] vector) {
+        float norm = (float) Math.sqrt(VectorMath.dot(vector, vector));
+        if (norm > 0) {
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] /= norm;
+            }
+        }
+    }
+
+    private static int[] sampleRows(int rows, int sampleSize, Random random) {
+        int[] all = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            all[i] = i;
+        }
+        // 部分 Fisher-Yates 洗牌
+        for (int i = 0; i < sampleSize; i++) {
+            int j = i + random.nextInt(rows - i);
+            int tmp = all[i];
+            all[i] = all[j];
+            all[j] = tmp;
+        }
+        return Arrays.copyOf(all, sampleSize);
+    }
+
+    private static int[][] buildLists(int[] assignment, int listCount) {
+        int[] sizes = new int[listCount];
+        for (int list : assignment) {
+            sizes[list]++;
+        }
+        int[][] lists = new int[listCount][];
+        for (int c = 0; c < listCount; c++) {
+            lists[c] = new int[sizes[c]];
+        }
+        int[] fill = new int[listCount];
+        for (int row = 0; row < assignment.length; row++) {
+            int list = assignment[row];
+            lists[list][fill[list]++] = row;
+        }
+        return lists;
+    }
+}
@@ -1,26 +1,97 @@
 package com.javaee.mypilot.infra.rag.vector;
 
 import com.javaee.mypilot.core.model.rag.DocumentChunk;
+import com.javaee.mypilot.core.model.rag.SearchFilter;
+import com.javaee.mypilot.core.model.rag.SparseVector;
+import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.codecs.FilterCodec;
+import org.apache.lucene.codecs.KnnVectorsFormat;
+import org.apache.lucene.codecs.KnnVectorsReader;
+import org.apache.lucene.codecs.KnnVectorsWriter;
 import org.apache.lucene.document.*;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.FloatVectorValues;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SegmentReadState;
+import org.apache.lucene.index.SegmentWriteState;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.index.VectorSimilarityFunction;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.KnnFloatVectorQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
 import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * 基于 Lucene 的向量数据库实现
- * 支持向量索引和余弦相似度检索
+ * 嵌入向量以 KnnFloatVectorField 写入 HNSW 图，检索时使用 KnnFloatVectorQuery，
+ * 只为最终的 topK 结果加载存储字段
+ *
+ * <p>向量在索引时归一化，使用 DOT_PRODUCT 相似度；提交数据中的 vectorsNormalized 标记记录这一点，
+ * 缺少该标记的旧索引会在打开时自动重建
+ *
+ * <p>读取器由 SearcherManager 管理：检索时 acquire、结束后 release，写入后刷新为近实时读取器，
+ * 旧读取器在最后一个检索归还后才关闭，检索不会阻塞写入，也不会读到已关闭的读取器
+ *
+ * <p>交互式 index() 写入后只刷新近实时读取器，提交按 COMMIT_INTERVAL_MS 合并（group commit）；
+ * 大批量导入使用 {@link #openBulkSession()}，整批只提交一次
+ *
+ * <p>传入检索线程池时，KnnFloatVectorQuery 在各个段（LeafReaderContext）上并行执行 HNSW 检索，
+ * 各段的 topK 结果再合并
  */
 public class LuceneVectorDatabase implements VectorDatabase {
     private static final String FIELD_ID = "id";
@@ -28,13 +99,44 @@ public class LuceneVectorDatabase implements VectorDatabase {
     private static final String FIELD_SOURCE = "source";
     private static final String FIELD_PAGE = "pageNumber";
     private static final String FIELD_TITLE = "title";
-    private static final String FIELD_EMBEDDING = "embedding";
+    private static final String FIELD_EMBEDDING = "embedding"; // 旧版格式：StoredField 字节序列，仅用于迁移
+    private static final String FIELD_VECTOR = "vector"; // HNSW 向量字段
     private static final String FIELD_SOURCE_TYPE = "sourceType"; // STATIC or USER_UPLOADED
+    private static final String FIELD_SPARSE = "sparse"; // 稀疏表示：特征哈希 -> 权重（FeatureField）
+
+    // 提交数据：标记索引中的向量已归一化
+    private static final String COMMIT_VECTORS_NORMALIZED = "vectorsNormalized";
+
+    // 检索结果需要加载的存储字段
+    private static final Set<String> RESULT_FIELDS = Set.of(
+        FIELD_ID, FIELD_CONTENT, FIELD_SOURCE, FIELD_PAGE, FIELD_TITLE, FIELD_SOURCE_TYPE);
+
+    // 关键词检索：标题命中的权重，以及查询最多展开的词项数（每个词项对应两个子句）
+    private static final float TITLE_BOOST = 2.0f;
+    private static final int MAX_QUERY_TERMS = 256;
+    // 稀疏检索：查询最多展开的特征数（按权重取最大的）
+    private static final int MAX_SPARSE_CLAUSES = 256;
+
+    // Lucene 默认向量格式限制为 1024 维，DashScope text-embedding-v2 输出 1536 维
+    private static final int MAX_VECTOR_DIMENSIONS = 4096;
+
+    // 交互式写入的 group commit 间隔
+    private static final long COMMIT_INTERVAL_MS = 2000;
+    // 批量导入期间的 RAM 缓冲区：缓冲越大，刷新出的段越少越大，后续合并越少
+    private static final double BULK_RAM_BUFFER_MB = 128.0;
+
+    // 所有实例共用一个 group commit 调度线程（分片、旧索引拆分和预构建都会打开多个实例）；
+    // 守护线程，取消的任务立即移出队列
+    private static final ScheduledThreadPoolExecutor COMMIT_SCHEDULER = createCommitScheduler();
 
     private final Directory directory;
     private final StandardAnalyzer analyzer;
+    private final Executor searchExecutor; // 为 null 时单线程检索
+    private final AtomicBoolean commitScheduled = new AtomicBoolean();
+    private volatile ScheduledFuture<?> scheduledCommit; // 本实例尚未执行的 group commit，close() 时取消
+    private final AtomicInteger activeBulkSessions = new AtomicInteger();
     private IndexWriter indexWriter;
-    private DirectoryReader indexReader;
+    private SearcherManager searcherManager; // 管理近实时（NRT）读取器，检索时 acquire/release
 
     /**
      * 构造函数
@@ -42,15 +144,39 @@ public class LuceneVectorDatabase implements VectorDatabase {
      * @param indexPath 索引存储路径
      */
     public LuceneVectorDatabase(String indexPath) {
+        this(indexPath, null);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param indexPath      索引存储路径
+     * @param searchExecutor 按段并行检索的线程池（null 表示单线程检索）
+     */
+    public LuceneVectorDatabase(String indexPath, Executor searchExecutor) {
+        this(indexPath, searchExecutor, false);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param indexPath      索引存储路径
+     * @param searchExecutor 按段并行检索的线程池（null 表示单线程检索）
+     * @param memoryMapped   是否以 MMapDirectory 打开（适合很少写入的课程材料分片）
+     */
+    public LuceneVectorDatabase(String indexPath, Executor searchExecutor, boolean memoryMapped) {
+        this.searchExecutor = searchExecutor;
         try {
             // Use NIOFSDirectory instead of FSDirectory.open() to avoid MMapDirectory
-            // classloader issues with IntelliJ Platform tests
-            this.directory = new NIOFSDirectory(Paths.get(indexPath));
+            // classloader issues with IntelliJ Platform tests; MMapDirectory only when explicitly requested
+            this.directory = memoryMapped ?
+                new MMapDirectory(Paths.get(indexPath)) : new NIOFSDirectory(Paths.get(indexPath));
 
             this.analyzer = new StandardAnalyzer();
 
             IndexWriterConfig config = new IndexWriterConfig(analyzer);
             config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+            config.setCodec(createCodec());
 
             // 尝试创建 IndexWriter，如果锁被占用，等待后重试
             int maxRetries = 3;
@@ -80,6 +206,17 @@ public class LuceneVectorDatabase implements VectorDatabase {
             if (this.indexWriter == null && lastException != null) {
                 throw new RuntimeException("初始化 Lucene 索引失败: 索引锁被占用，请检查是否有其他进程正在使用索引。路径: " + indexPath, lastException);
             }
+
+            // 旧版索引（StoredField 字节向量或未归一化的向量）需要重建
+            migrateIfNeeded();
+
+            // 读取器直接从 IndexWriter 打开，写入后无需等待提交即可刷新可见
+            this.searcherManager = new SearcherManager(indexWriter, new SearcherFactory() {
+                @Override
+                public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) {
+                    return new IndexSearcher(reader, searchExecutor);
+                }
+            });
         } catch (IOException e) {
             throw new RuntimeException("初始化 Lucene 索引失败: " + e.getMessage(), e);
         }
@@ -89,210 +226,587 @@ public class LuceneVectorDatabase implements VectorDatabase {
     public void index(List<DocumentChunk> chunks) {
         try {
             for (DocumentChunk chunk : chunks) {
-                Document doc = new Document();
+                upsert(chunk);
+            }
 
-                // 存储基本字段
-                doc.add(new StringField(FIELD_ID, chunk.getId(), Field.Store.YES));
-                doc.add(new TextField(FIELD_CONTENT, chunk.getContent(), Field.Store.YES));
-                doc.add(new StringField(FIELD_SOURCE, chunk.getSource(), Field.Store.YES));
-                doc.add(new IntPoint(FIELD_PAGE, chunk.getPageNumber()));
-                doc.add(new StoredField(FIELD_PAGE, chunk.getPageNumber()));
+            // 近实时读取器立即可见，提交合并到稍后的一次 group commit
+            refreshSearcher();
+            scheduleCommit();
 
-                if (chunk.getTitle() != null && !chunk.getTitle().isEmpty()) {
-                    doc.add(new TextField(FIELD_TITLE, chunk.getTitle(), Field.Store.YES));
-                }
+        } catch (IOException e) {
+            throw new RuntimeException("索引文档分块失败: " + e.getMessage(), e);
+        }
+    }
 
-                // 存储文档来源类型
-                String sourceTypeStr = chunk.getSourceType() != null ?
-                    chunk.getSourceType().name() : DocumentChunk.SourceType.USER_UPLOADED.name();
-                doc.add(new StringField(FIELD_SOURCE_TYPE, sourceTypeStr, Field.Store.YES));
+    /**
+     * 按分块 ID 覆盖写入：ID 由源文件和内容决定，重复导入同一内容不会产生重复文档
+     */
+    private void upsert(DocumentChunk chunk) throws IOException {
+        indexWriter.updateDocument(new Term(FIELD_ID, chunk.getId()), toDocument(chunk));
+    }
 
-                // 存储嵌入向量（序列化为字节）
-                if (chunk.getEmbedding() != null) {
-                    byte[] embeddingBytes = floatArrayToByteArray(chunk.getEmbedding());
-                    doc.add(new StoredField(FIELD_EMBEDDING, embeddingBytes));
-                }
+    @Override
+    public BulkSession openBulkSession() {
+        return new LuceneBulkSession();
+    }
 
-                indexWriter.addDocument(doc);
+    /**
+     * 在 COMMIT_INTERVAL_MS 后提交；间隔内的多次写入共用一次提交
+     */
+    private void scheduleCommit() {
+        if (commitScheduled.compareAndSet(false, true)) {
+            scheduledCommit = COMMIT_SCHEDULER.schedule(this::groupCommit, COMMIT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor createCommitScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "lucene-group-commit");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    private void groupCommit() {
+        commitScheduled.set(false);
+        try {
+            IndexWriter writer = indexWriter;
+            if (writer != null && writer.isOpen()) {
+                writer.commit();
             }
+        } catch (IOException | org.apache.lucene.store.AlreadyClosedException e) {
+            System.err.println("提交 Lucene 索引失败: " + e.getMessage());
+        }
+    }
 
-            indexWriter.commit();
-            refreshReader();
+    /**
+     * 将文档分块转换为 Lucene 文档
+     */
+    private Document toDocument(DocumentChunk chunk) {
+        Document doc = new Document();
+
+        // 存储基本字段
+        doc.add(new StringField(FIELD_ID, chunk.getId(), Field.Store.YES));
+        doc.add(new TextField(FIELD_CONTENT, chunk.getContent(), Field.Store.YES));
+        doc.add(new StringField(FIELD_SOURCE, chunk.getSource(), Field.Store.YES));
+        doc.add(new IntPoint(FIELD_PAGE, chunk.getPageNumber()));
+        doc.add(new StoredField(FIELD_PAGE, chunk.getPageNumber()));
+
+        if (chunk.getTitle() != null && !chunk.getTitle().isEmpty()) {
+            doc.add(new TextField(FIELD_TITLE, chunk.getTitle(), Field.Store.YES));
+        }
 
-        } catch (IOException e) {
-            throw new RuntimeException("索引文档分块失败: " + e.getMessage(), e);
+        // 存储文档来源类型
+        String sourceTypeStr = chunk.getSourceType() != null ?
+            chunk.getSourceType().name() : DocumentChunk.SourceType.USER_UPLOADED.name();
+        doc.add(new StringField(FIELD_SOURCE_TYPE, sourceTypeStr, Field.Store.YES));
+
+        // 嵌入向量归一化后写入 HNSW 图（不再作为存储字段重复保存）
+        if (chunk.getEmbedding() != null) {
+            doc.add(new KnnFloatVectorField(FIELD_VECTOR, VectorMath.normalize(chunk.getEmbedding()),
+                VectorSimilarityFunction.DOT_PRODUCT));
         }
+
+        // 稀疏表示：每个特征是一个带权词项，权重作为词频编码进倒排表
+        SparseVector sparse = chunk.getSparseEmbedding();
+        if (sparse != null) {
+            for (int i = 0; i < sparse.size(); i++) {
+                if (sparse.weights()[i] >= Float.MIN_NORMAL) {
+                    doc.add(new FeatureField(FIELD_SPARSE, featureName(sparse.features()[i]), sparse.weights()[i]));
+                }
+            }
+        }
+        return doc;
     }
 
     @Override
-    public List<DocumentChunk> search(float[] queryEmbedding, int topK) {
+    public List<DocumentChunk> search(float[] queryEmbedding, int topK, SearchFilter filter, boolean includeEmbedding) {
+        IndexSearcher searcher = null;
         try {
-            if (indexReader == null) {
-                refreshReader();
+            searcher = searcherManager.acquire();
+            IndexReader reader = searcher.getIndexReader();
+            if (reader.numDocs() == 0 || topK <= 0) {
+                return Collections.emptyList();
             }
 
-            if (indexReader.numDocs() == 0) {
+            // 查询向量维度必须与索引一致（例如切换了 Embedding 服务但尚未重建索引）
+            FieldInfo vectorField = FieldInfos.getMergedFieldInfos(reader).fieldInfo(FIELD_VECTOR);
+            if (vectorField == null || vectorField.getVectorDimension() != queryEmbedding.length) {
+                System.err.println("向量维度不匹配，跳过检索: 查询 " + queryEmbedding.length + " 维, 索引 " +
+                    (vectorField != null ? vectorField.getVectorDimension() : 0) + " 维");
                 return Collections.emptyList();
             }
 
-            // 收集所有文档并计算相似度
-            List<ScoredDocument> scoredDocs = new ArrayList<>();
+            // HNSW 近似最近邻检索：每个段一个任务，在线程池上并行执行后合并
+            // 过滤条件作为 KNN 的预过滤器：先求出满足条件的文档集合，图遍历只接受其中的文档，
+            // 满足条件的文档很少时 Lucene 会直接对它们精确打分
+            TopDocs topDocs = searcher.search(
+                new KnnFloatVectorQuery(FIELD_VECTOR, queryEmbedding, topK, toFilterQuery(filter)), topK);
 
-            for (int i = 0; i < indexReader.maxDoc(); i++) {
-                try {
-                    Document doc = indexReader.storedFields().document(i);
-                    BytesRef embeddingBytes = doc.getBinaryValue(FIELD_EMBEDDING);
+            // 只为 topK 结果加载一次存储字段，向量按需读取
+            StoredFields storedFields = searcher.storedFields();
+            List<DocumentChunk> results = new ArrayList<>(topDocs.scoreDocs.length);
 
-                    if (embeddingBytes != null) {
-                        float[] docEmbedding = byteArrayToFloatArray(embeddingBytes.bytes);
-                        float similarity = cosineSimilarity(queryEmbedding, docEmbedding);
-                        scoredDocs.add(new ScoredDocument(doc, similarity));
-                    }
-                } catch (Exception e) {
-                    // 跳过损坏的文档
-                    continue;
+            for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                Document doc = storedFields.document(scoreDoc.doc, RESULT_FIELDS);
+                DocumentChunk chunk = toDocumentChunk(doc, includeEmbedding ? readVector(reader, scoreDoc.doc) : null);
+
+                // DOT_PRODUCT 相似度在 Lucene 中被映射为 (1 + dot) / 2，这里还原为余弦值
+                chunk.setSimilarity(2 * scoreDoc.score - 1);
+
+                results.add(chunk);
+            }
+
+            return results;
+
+        } catch (IOException e) {
+            throw new RuntimeException("向量检索失败: " + e.getMessage(), e);
+        } finally {
+            releaseSearcher(searcher);
+        }
+    }
+
+    @Override
+    public List<DocumentChunk> searchSparse(SparseVector query, int topK, SearchFilter filter) {
+        IndexSearcher searcher = null;
+        try {
+            searcher = searcherManager.acquire();
+            if (searcher.getIndexReader().numDocs() == 0 || topK <= 0 || query == null || query.size() == 0) {
+                return Collections.emptyList();
+            }
+
+            // 每个查询特征一个线性 FeatureQuery：分数 = 查询权重 × 文档权重，各子句求和即点积。
+            // 只访问查询特征的倒排表，BooleanQuery 按各子句的最大分数跳过不可能进入 topK 的文档块
+            Integer[] order = new Integer[query.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Float.compare(query.weights()[b], query.weights()[a]));
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            int clauses = 0;
+            for (int i : order) {
+                float weight = query.weights()[i];
+                if (clauses >= MAX_SPARSE_CLAUSES || weight <= 0) {
+                    break;
                 }
+                builder.add(FeatureField.newLinearQuery(FIELD_SPARSE, featureName(query.features()[i]), weight),
+                    BooleanClause.Occur.SHOULD);
+                clauses++;
+            }
+            if (clauses == 0) {
+                return Collections.emptyList();
+            }
+            builder.setMinimumNumberShouldMatch(1);
+            Query filterQuery = toFilterQuery(filter);
+            if (filterQuery != null) {
+                builder.add(filterQuery, BooleanClause.Occur.FILTER);
             }
 
-            // 按相似度降序排序
-            scoredDocs.sort((a, b) -> Float.compare(b.score, a.score));
+            TopDocs topDocs = searcher.search(builder.build(), topK);
 
-            // 取 topK 个结果
-            List<DocumentChunk> results = new ArrayList<>();
-            int limit = Math.min(topK, scoredDocs.size());
+            StoredFields storedFields = searcher.storedFields();
+            List<DocumentChunk> results = new ArrayList<>(topDocs.scoreDocs.length);
+            for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                DocumentChunk chunk = toDocumentChunk(storedFields.document(scoreDoc.doc, RESULT_FIELDS), null);
+                chunk.setSimilarity(scoreDoc.score); // 归一化稀疏向量的点积，即余弦值
+                results.add(chunk);
+            }
+            return results;
 
-            for (int i = 0; i < limit; i++) {
-                ScoredDocument scoredDoc = scoredDocs.get(i);
-                Document doc = scoredDoc.document;
+        } catch (IOException e) {
+            throw new RuntimeException("稀疏检索失败: " + e.getMessage(), e);
+        } finally {
+            releaseSearcher(searcher);
+        }
+    }
 
-                BytesRef embeddingBytes = doc.getBinaryValue(FIELD_EMBEDDING);
-                float[] embedding = byteArrayToFloatArray(embeddingBytes.bytes);
+    /**
+     * 稀疏特征哈希对应的词项
+     */
+    private static String featureName(int feature) {
+        return Integer.toHexString(feature);
+    }
 
-                // 读取 sourceType
-                String sourceTypeStr = doc.get(FIELD_SOURCE_TYPE);
-                DocumentChunk.SourceType sourceType = sourceTypeStr != null ?
-                    DocumentChunk.SourceType.valueOf(sourceTypeStr) :
-                    DocumentChunk.SourceType.USER_UPLOADED;
+    @Override
+    public List<DocumentChunk> searchText(String queryText, int topK, SearchFilter filter) {
+        IndexSearcher searcher = null;
+        try {
+            searcher = searcherManager.acquire();
+            if (searcher.getIndexReader().numDocs() == 0 || topK <= 0 || queryText == null || queryText.isBlank()) {
+                return Collections.emptyList();
+            }
 
-                DocumentChunk chunk = new DocumentChunk(
-                        doc.get(FIELD_ID),
-                        doc.get(FIELD_CONTENT),
-                        doc.get(FIELD_SOURCE),
-                        doc.getField(FIELD_PAGE).numericValue().intValue(),
-                        doc.get(FIELD_TITLE),
-                        embedding,
-                        sourceType);
+            // 用与索引相同的分析器切词，标识符（ArrayList、@Override 等）按小写词项直接命中
+            Set<String> terms = analyze(queryText);
+            if (terms.isEmpty()) {
+                return Collections.emptyList();
+            }
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            for (String term : terms) {
+                builder.add(new TermQuery(new Term(FIELD_CONTENT, term)), BooleanClause.Occur.SHOULD);
+                builder.add(new BoostQuery(new TermQuery(new Term(FIELD_TITLE, term)), TITLE_BOOST),
+                    BooleanClause.Occur.SHOULD);
+            }
+            builder.setMinimumNumberShouldMatch(1);
+            Query filterQuery = toFilterQuery(filter);
+            if (filterQuery != null) {
+                builder.add(filterQuery, BooleanClause.Occur.FILTER);
+            }
 
-                // 设置相似度分数
-                chunk.setSimilarity(scoredDoc.score);
+            TopDocs topDocs = searcher.search(builder.build(), topK);
 
+            StoredFields storedFields = searcher.storedFields();
+            List<DocumentChunk> results = new ArrayList<>(topDocs.scoreDocs.length);
+            for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                DocumentChunk chunk = toDocumentChunk(storedFields.document(scoreDoc.doc, RESULT_FIELDS), null);
+                chunk.setSimilarity(scoreDoc.score); // BM25 原始分数
                 results.add(chunk);
             }
-
             return results;
 
         } catch (IOException e) {
-            throw new RuntimeException("向量检索失败: " + e.getMessage(), e);
+            throw new RuntimeException("关键词检索失败: " + e.getMessage(), e);
+        } finally {
+            releaseSearcher(searcher);
+        }
+    }
+
+    /**
+     * 将过滤条件转换为只做匹配、不参与打分的查询；没有条件时返回 null
+     */
+    private static Query toFilterQuery(SearchFilter filter) {
+        if (filter == null || filter.isEmpty()) {
+            return null;
+        }
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        if (filter.getSource() != null) {
+            builder.add(new TermQuery(new Term(FIELD_SOURCE, filter.getSource())), BooleanClause.Occur.FILTER);
+        }
+        if (filter.getSourceType() != null) {
+            builder.add(new TermQuery(new Term(FIELD_SOURCE_TYPE, filter.getSourceType().name())),
+                BooleanClause.Occur.FILTER);
+        }
+        if (filter.hasPageRange()) {
+            builder.add(IntPoint.newRangeQuery(FIELD_PAGE, filter.getMinPage(), filter.getMaxPage()),
+                BooleanClause.Occur.FILTER);
+        }
+        return builder.build();
+    }
+
+    /**
+     * 按索引分析器切分查询文本，去重后最多保留 MAX_QUERY_TERMS 个词项
+     */
+    private Set<String> analyze(String text) throws IOException {
+        Set<String> terms = new LinkedHashSet<>();
+        try (TokenStream stream = analyzer.tokenStream(FIELD_CONTENT, text)) {
+            CharTermAttribute termAttribute = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken() && terms.size() < MAX_QUERY_TERMS) {
+                terms.add(termAttribute.toString());
+            }
+            stream.end();
+        }
+        return terms;
+    }
+
+    /**
+     * 将 Lucene 文档转换为文档分块
+     */
+    private DocumentChunk toDocumentChunk(Document doc, float[] embedding) {
+        // 读取 sourceType
+        String sourceTypeStr = doc.get(FIELD_SOURCE_TYPE);
+        DocumentChunk.SourceType sourceType = sourceTypeStr != null ?
+            DocumentChunk.SourceType.valueOf(sourceTypeStr) :
+            DocumentChunk.SourceType.USER_UPLOADED;
+
+        return new DocumentChunk(
+                doc.get(FIELD_ID),
+                doc.get(FIELD_CONTENT),
+                doc.get(FIELD_SOURCE),
+                doc.getField(FIELD_PAGE).numericValue().intValue(),
+                doc.get(FIELD_TITLE),
+                embedding,
+                sourceType);
+    }
+
+    /**
+     * 从 HNSW 向量字段读取指定文档的向量
+     */
+    private float[] readVector(IndexReader reader, int docId) throws IOException {
+        List<LeafReaderContext> leaves = reader.leaves();
+        LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+        FloatVectorValues vectorValues = leaf.reader().getFloatVectorValues(FIELD_VECTOR);
+        if (vectorValues == null) {
+            return null;
+        }
+        int target = docId - leaf.docBase;
+        if (vectorValues.advance(target) != target) {
+            return null;
         }
+        return vectorValues.vectorValue().clone();
     }
 
     /**
-     * 计算余弦相似度
+     * 检测旧版索引并重建为归一化的 HNSW 向量索引：
+     * 1. 嵌入向量以 StoredField 字节保存的索引
+     * 2. 向量未归一化（提交数据中没有 vectorsNormalized 标记）的索引
      */
-    private float cosineSimilarity(float[] vec1, float[] vec2) {
-        if (vec1.length != vec2.length) {
-            throw new IllegalArgumentException("向量维度不匹配");
+    private void migrateIfNeeded() throws IOException {
+        if (!DirectoryReader.indexExists(directory)) {
+            markVectorsNormalized();
+            return;
         }
 
-        float dotProduct = 0.0f;
-        float norm1 = 0.0f;
-        float norm2 = 0.0f;
+        List<DocumentChunk> chunks = new ArrayList<>();
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            boolean legacyBytes = FieldInfos.getMergedFieldInfos(reader).fieldInfo(FIELD_EMBEDDING) != null;
+            boolean normalized = "true".equals(reader.getIndexCommit().getUserData().get(COMMIT_VECTORS_NORMALIZED));
+            if (reader.numDocs() == 0 || (!legacyBytes && normalized)) {
+                markVectorsNormalized();
+                return;
+            }
 
-        for (int i = 0; i < vec1.length; i++) {
-            dotProduct += vec1[i] * vec2[i];
-            norm1 += vec1[i] * vec1[i];
-            norm2 += vec2[i] * vec2[i];
+            System.out.println(legacyBytes ?
+                "检测到旧版向量索引格式，开始重建 HNSW 向量索引..." :
+                "检测到未归一化的向量索引，开始重建为点积索引...");
+            for (LeafReaderContext leaf : reader.leaves()) {
+                Bits liveDocs = leaf.reader().getLiveDocs();
+                StoredFields storedFields = leaf.reader().storedFields();
+                FloatVectorValues vectorValues = leaf.reader().getFloatVectorValues(FIELD_VECTOR);
+                for (int i = 0; i < leaf.reader().maxDoc(); i++) {
+                    if (liveDocs != null && !liveDocs.get(i)) {
+                        continue;
+                    }
+                    try {
+                        Document doc = storedFields.document(i);
+                        float[] embedding = null;
+                        BytesRef embeddingBytes = doc.getBinaryValue(FIELD_EMBEDDING);
+                        if (embeddingBytes != null) {
+                            embedding = byteArrayToFloatArray(embeddingBytes.bytes, embeddingBytes.offset, embeddingBytes.length);
+                        } else if (vectorValues != null) {
+                            if (vectorValues.docID() < i) {
+                                vectorValues.advance(i);
+                            }
+                            if (vectorValues.docID() == i) {
+                                embedding = vectorValues.vectorValue().clone();
+                            }
+                        }
+                        chunks.add(toDocumentChunk(doc, embedding));
+                    } catch (Exception e) {
+                        // 跳过损坏的文档
+                        continue;
+                    }
+                }
+            }
         }
 
-        if (norm1 == 0.0f || norm2 == 0.0f) {
-            return 0.0f;
+        // 用新格式重写全部文档（toDocument 会归一化向量），旧段在提交后由 IndexWriter 删除
+        indexWriter.deleteAll();
+        for (DocumentChunk chunk : chunks) {
+            indexWriter.addDocument(toDocument(chunk));
         }
+        markVectorsNormalized();
+        indexWriter.commit();
+        System.out.println("向量索引迁移完成，共重建 " + chunks.size() + " 个文档块");
+    }
 
-        return (float) (dotProduct / (Math.sqrt(norm1) * Math.sqrt(norm2)));
+    /**
+     * 在后续每次提交中记录“向量已归一化”
+     */
+    private void markVectorsNormalized() {
+        indexWriter.setLiveCommitData(Map.of(COMMIT_VECTORS_NORMALIZED, "true").entrySet());
     }
 
     /**
-     * float[] 转换为 byte[]
+     * 把旧版单一索引按来源类型拆分为课程材料分片和用户上传分片：
+     * 直接复制段后删除另一类文档，不重新嵌入；拆分完成后删除旧索引目录。
+     * 缺少来源类型的旧文档归入用户上传分片
+     *
+     * @return 是否执行了拆分
      */
-    private byte[] floatArrayToByteArray(float[] floats) {
-        byte[] bytes = new byte[floats.length * 4];
-        for (int i = 0; i < floats.length; i++) {
-            int intBits = Float.floatToIntBits(floats[i]);
-            bytes[i * 4] = (byte) (intBits >> 24);
-            bytes[i * 4 + 1] = (byte) (intBits >> 16);
-            bytes[i * 4 + 2] = (byte) (intBits >> 8);
-            bytes[i * 4 + 3] = (byte) intBits;
+    public static boolean splitLegacyIndex(String legacyPath, String staticPath, String userPath) {
+        Path legacyDir = Paths.get(legacyPath);
+        if (Files.exists(Paths.get(staticPath)) || Files.exists(Paths.get(userPath))) {
+            return false;
+        }
+        try {
+            try (Directory legacy = new NIOFSDirectory(legacyDir)) {
+                if (!DirectoryReader.indexExists(legacy)) {
+                    return false;
+                }
+            }
+            System.out.println("检测到旧版单一索引，开始拆分为课程材料分片和用户上传分片...");
+
+            // 先按旧索引打开一次，完成向量格式迁移
+            new LuceneVectorDatabase(legacyPath).close();
+
+            Query staticDocs = new TermQuery(new Term(FIELD_SOURCE_TYPE, DocumentChunk.SourceType.STATIC.name()));
+            Query nonStaticDocs = new BooleanQuery.Builder()
+                .add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST)
+                .add(staticDocs, BooleanClause.Occur.MUST_NOT)
+                .build();
+            try (Directory legacy = new NIOFSDirectory(legacyDir)) {
+                copyFiltered(legacy, Paths.get(staticPath), nonStaticDocs, true);
+                copyFiltered(legacy, Paths.get(userPath), staticDocs, false);
+            }
+
+            try (Stream<Path> paths = Files.walk(legacyDir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+            System.out.println("旧版索引拆分完成");
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException("拆分旧版索引失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 复制索引并删除匹配 excluded 的文档；merge 为 true 时合并为单个段
+     */
+    private static void copyFiltered(Directory source, Path targetPath, Query excluded, boolean merge) throws IOException {
+        try (Directory target = new NIOFSDirectory(targetPath)) {
+            IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+            config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+            config.setCodec(createCodec());
+            try (IndexWriter writer = new IndexWriter(target, config)) {
+                writer.addIndexes(source);
+                writer.deleteDocuments(excluded);
+                if (merge) {
+                    writer.forceMerge(1);
+                }
+                writer.setLiveCommitData(Map.of(COMMIT_VECTORS_NORMALIZED, "true").entrySet());
+                writer.commit();
+            }
         }
-        return bytes;
     }
 
     /**
-     * byte[] 转换为 float[]
+     * byte[] 转换为 float[]（旧版大端序存储格式）
      */
-    private float[] byteArrayToFloatArray(byte[] bytes) {
-        float[] floats = new float[bytes.length / 4];
+    private float[] byteArrayToFloatArray(byte[] bytes, int offset, int length) {
+        float[] floats = new float[length / 4];
         for (int i = 0; i < floats.length; i++) {
-            int intBits = ((bytes[i * 4] & 0xFF) << 24) |
-                    ((bytes[i * 4 + 1] & 0xFF) << 16) |
-                    ((bytes[i * 4 + 2] & 0xFF) << 8) |
-                    (bytes[i * 4 + 3] & 0xFF);
+            int base = offset + i * 4;
+            int intBits = ((bytes[base] & 0xFF) << 24) |
+                    ((bytes[base + 1] & 0xFF) << 16) |
+                    ((bytes[base + 2] & 0xFF) << 8) |
+                    (bytes[base + 3] & 0xFF);
             floats[i] = Float.intBitsToFloat(intBits);
         }
         return floats;
     }
 
     /**
-     * 刷新 IndexReader
+     * 创建放宽向量维度上限的 Codec
+     * 读取时按段内记录的原始格式名称加载，因此索引文件与默认 Codec 完全兼容
      */
-    private void refreshReader() throws IOException {
-        if (indexReader != null) {
-            DirectoryReader newReader = DirectoryReader.openIfChanged(indexReader);
-            if (newReader != null) {
-                indexReader.close();
-                indexReader = newReader;
-            }
-        } else {
-            if (DirectoryReader.indexExists(directory)) {
-                indexReader = DirectoryReader.open(directory);
-            } else {
-                // 如果索引不存在，先提交一次以创建索引
+    private static Codec createCodec() {
+        Codec defaultCodec = Codec.getDefault();
+        KnnVectorsFormat vectorsFormat = new HighDimensionVectorsFormat(defaultCodec.knnVectorsFormat());
+        return new FilterCodec(defaultCodec.getName(), defaultCodec) {
+            @Override
+            public KnnVectorsFormat knnVectorsFormat() {
+                return vectorsFormat;
+            }
+        };
+    }
+
+    /**
+     * Lucene 批量导入会话：期间放大 RAM 缓冲区，只在 close 时提交一次
+     */
+    private final class LuceneBulkSession implements BulkSession {
+        private int addedCount;
+        private boolean closed;
+
+        LuceneBulkSession() {
+            if (activeBulkSessions.getAndIncrement() == 0) {
+                indexWriter.getConfig().setRAMBufferSizeMB(BULK_RAM_BUFFER_MB);
+            }
+        }
+
+        @Override
+        public void add(List<DocumentChunk> chunks) {
+            try {
+                for (DocumentChunk chunk : chunks) {
+                    upsert(chunk);
+                }
+                addedCount += chunks.size();
+            } catch (IOException e) {
+                throw new RuntimeException("索引文档分块失败: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (activeBulkSessions.decrementAndGet() == 0) {
+                    indexWriter.getConfig().setRAMBufferSizeMB(IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB);
+                }
                 indexWriter.commit();
-                indexReader = DirectoryReader.open(directory);
+                refreshSearcher();
+                System.out.println("批量导入完成，共提交 " + addedCount + " 个文档块");
+            } catch (IOException e) {
+                throw new RuntimeException("提交批量导入失败: " + e.getMessage(), e);
             }
         }
     }
 
+    /**
+     * 写入后刷新检索器，使当前线程随后的检索能看到刚写入的内容
+     */
+    private void refreshSearcher() throws IOException {
+        searcherManager.maybeRefreshBlocking();
+    }
+
+    /**
+     * 归还 acquire 得到的检索器；最后一个使用者归还后旧读取器才会真正关闭
+     */
+    private void releaseSearcher(IndexSearcher searcher) {
+        if (searcher == null) {
+            return;
+        }
+        try {
+            searcherManager.release(searcher);
+        } catch (IOException e) {
+            System.err.println("释放 IndexSearcher 失败: " + e.getMessage());
+        }
+    }
+
     /**
      * 关闭资源
      */
+    @Override
     public void close() {
         try {
-            if (indexWriter != null) {
+            // 取消本实例尚未执行的 group commit（调度线程是共用的），未提交的写入由 IndexWriter.close() 提交
+            ScheduledFuture<?> pending = scheduledCommit;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+
+            // 先关闭 SearcherManager：正在进行的检索持有引用，归还后读取器才会关闭
+            if (searcherManager != null) {
                 try {
-                    indexWriter.close();
+                    searcherManager.close();
                 } catch (IOException e) {
-                    System.err.println("关闭 IndexWriter 失败: " + e.getMessage());
+                    System.err.println("关闭 SearcherManager 失败: " + e.getMessage());
                 } finally {
-                    indexWriter = null; // 确保引用被清空
+                    searcherManager = null;
                 }
             }
-            if (indexReader != null) {
+            if (indexWriter != null) {
                 try {
-                    indexReader.close();
+                    indexWriter.close();
                 } catch (IOException e) {
-                    System.err.println("关闭 IndexReader 失败: " + e.getMessage());
+                    System.err.println("关闭 IndexWriter 失败: " + e.getMessage());
                 } finally {
-                    indexReader = null; // 确保引用被清空
+                    indexWriter = null; // 确保引用被清空
                 }
             }
             if (directory != null) {
@@ -321,6 +835,7 @@ public class LuceneVectorDatabase implements VectorDatabase {
      * 根据来源类型清空索引
      * @param sourceType 文档来源类型（null 表示删除所有文档）
      */
+    @Override
     public void clear(DocumentChunk.SourceType sourceType) {
         try {
             if (sourceType == null) {
@@ -328,50 +843,17 @@ public class LuceneVectorDatabase implements VectorDatabase {
                 indexWriter.deleteAll();
                 System.out.println("已删除所有文档");
             } else {
-                // 根据来源类型删除文档
-                if (indexReader == null) {
-                    refreshReader();
-                }
-
-                int deletedCount = 0;
-                List<Integer> docIdsToDelete = new ArrayList<>();
-
-                // 收集需要删除的文档ID
-                for (int i = 0; i < indexReader.maxDoc(); i++) {
-                    try {
-                        Document doc = indexReader.storedFields().document(i);
-                        String docSourceType = doc.get(FIELD_SOURCE_TYPE);
-
-                        if (docSourceType != null && docSourceType.equals(sourceType.name())) {
-                            docIdsToDelete.add(i);
-                        }
-                    } catch (Exception e) {
-                        // 跳过损坏的文档
-                        continue;
-                    }
-                }
-
-                // 使用 Term 删除文档
-                //无法通过 docId 直接删除，因为 docId 会在索引合并后变化
-                for (int docId : docIdsToDelete) {
-                    try {
-                        Document doc = indexReader.storedFields().document(docId);
-                        String id = doc.get(FIELD_ID);
-                        if (id != null) {
-                            indexWriter.deleteDocuments(new org.apache.lucene.index.Term(FIELD_ID, id));
-                            deletedCount++;
-                        }
-                    } catch (Exception e) {
-                        System.err.println("删除文档失败: " + e.getMessage());
-                    }
-                }
+                // sourceType 是 StringField，直接按词项删除
+                Term term = new Term(FIELD_SOURCE_TYPE, sourceType.name());
+                int deletedCount = countLive(new TermQuery(term));
+                indexWriter.deleteDocuments(term);
 
                 System.out.println("已删除 " + deletedCount + " 个 " +
                     (sourceType == DocumentChunk.SourceType.STATIC ? "静态资源" : "用户上传") + " 文档");
             }
 
             indexWriter.commit();
-            refreshReader();
+            refreshSearcher();
         } catch (IOException e) {
             throw new RuntimeException("清空索引失败: " + e.getMessage(), e);
         }
@@ -380,14 +862,16 @@ public class LuceneVectorDatabase implements VectorDatabase {
     /**
      * 获取索引中的文档数量
      */
+    @Override
     public int getDocumentCount() {
+        IndexSearcher searcher = null;
         try {
-            if (indexReader == null) {
-                refreshReader();
-            }
-            return indexReader.numDocs();
+            searcher = searcherManager.acquire();
+            return searcher.getIndexReader().numDocs();
         } catch (IOException e) {
             return 0;
+        } finally {
+            releaseSearcher(searcher);
         }
     }
 
@@ -396,60 +880,67 @@ public class LuceneVectorDatabase implements VectorDatabase {
      *
      * @return 文件信息列表（包含文件名、来源类型、文档块数量）
      */
+    @Override
     public List<FileInfo> getAllFiles() {
+        IndexSearcher searcher = null;
         try {
-            if (indexReader == null) {
-                refreshReader();
-            }
-
+            searcher = searcherManager.acquire();
+            IndexReader indexReader = searcher.getIndexReader();
             if (indexReader.numDocs() == 0) {
                 return Collections.emptyList();
             }
 
-            // 使用 Map 来统计每个文件的信息
-            Map<String, FileInfo> fileMap = new HashMap<>();
-
-            // 遍历所有文档
-            for (int i = 0; i < indexReader.maxDoc(); i++) {
-                try {
-                    Document doc = indexReader.storedFields().document(i);
-                    String source = doc.get(FIELD_SOURCE);
-                    String sourceTypeStr = doc.get(FIELD_SOURCE_TYPE);
-
-                    if (source == null || source.isEmpty()) {
-                        continue;
-                    }
-
-                    // 解析来源类型
-                    DocumentChunk.SourceType sourceType = DocumentChunk.SourceType.USER_UPLOADED;
-                    if (sourceTypeStr != null) {
-                        try {
-                            sourceType = DocumentChunk.SourceType.valueOf(sourceTypeStr);
-                        } catch (IllegalArgumentException e) {
-                            // 如果无法解析，使用默认值
-                            sourceType = DocumentChunk.SourceType.USER_UPLOADED;
+            // 枚举 source 字段的词项，由倒排表统计每个文件的块数，不加载存储字段；
+            // 来源类型跨段合并：任一段中有课程材料文档即为课程材料
+            Map<String, Integer> chunkCounts = new TreeMap<>();
+            Set<String> staticSources = new HashSet<>();
+            BytesRef staticType = new BytesRef(DocumentChunk.SourceType.STATIC.name());
+            for (LeafReaderContext leaf : indexReader.leaves()) {
+                LeafReader reader = leaf.reader();
+                Terms terms = reader.terms(FIELD_SOURCE);
+                if (terms == null) {
+                    continue;
+                }
+                Bits liveDocs = reader.getLiveDocs();
+                FixedBitSet staticDocs = docsWithTerm(reader, FIELD_SOURCE_TYPE, staticType);
+
+                TermsEnum termsEnum = terms.iterator();
+                PostingsEnum postings = null;
+                BytesRef term;
+                while ((term = termsEnum.next()) != null) {
+                    postings = termsEnum.postings(postings, PostingsEnum.NONE);
+                    int count = 0;
+                    boolean isStatic = false;
+                    for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                        if (liveDocs != null && !liveDocs.get(doc)) {
+                            continue;
                         }
+                        count++;
+                        isStatic |= staticDocs.get(doc);
+                    }
+                    String source = term.utf8ToString();
+                    if (count == 0 || source.isEmpty()) {
+                        continue;
                     }
 
-                    // 更新或创建文件信息
-                    FileInfo fileInfo = fileMap.get(source);
-                    if (fileInfo == null) {
-                        fileInfo = new FileInfo(source, sourceType, 0);
-                        fileMap.put(source, fileInfo);
+                    chunkCounts.merge(source, count, Integer::sum);
+                    if (isStatic) {
+                        staticSources.add(source);
                     }
-                    fileInfo.chunkCount++;
-                } catch (Exception e) {
-                    // 跳过损坏的文档
-                    continue;
                 }
             }
 
-            // 转换为列表并返回
-            return new ArrayList<>(fileMap.values());
+            // 缺少来源类型的旧文档按用户上传处理
+            List<FileInfo> files = new ArrayList<>(chunkCounts.size());
+            chunkCounts.forEach((source, count) -> files.add(new FileInfo(source, staticSources.contains(source) ?
+                DocumentChunk.SourceType.STATIC : DocumentChunk.SourceType.USER_UPLOADED, count)));
+            return files;
         } catch (IOException e) {
             System.err.println("获取文件列表失败: " + e.getMessage());
             e.printStackTrace();
             return Collections.emptyList();
+        } finally {
+            releaseSearcher(searcher);
         }
     }
 
@@ -459,93 +950,194 @@ public class LuceneVectorDatabase implements VectorDatabase {
      * @param source 源文件名
      * @return 删除的文档数量
      */
+    @Override
     public int deleteBySource(String source) {
         if (source == null || source.isEmpty()) {
             return 0;
         }
 
         try {
-            if (indexReader == null) {
-                refreshReader();
+            // source 是 StringField，直接按词项删除。删除无条件执行：
+            // 批量会话写入、尚未刷新可见的文档也必须被删掉，计数只统计已可见的文档，用于返回值和日志
+            Term term = new Term(FIELD_SOURCE, source);
+            int deletedCount = countLive(new TermQuery(term));
+            indexWriter.deleteDocuments(term);
+
+            // 与 index() 一致：近实时读取器立即可见，提交合并到稍后的一次 group commit
+            refreshSearcher();
+            scheduleCommit();
+            if (deletedCount > 0) {
+                System.out.println("已删除文件 " + source + " 的 " + deletedCount + " 个文档块");
             }
 
-            int deletedCount = 0;
+            return deletedCount;
+        } catch (IOException e) {
+            System.err.println("删除文件失败: " + e.getMessage());
+            e.printStackTrace();
+            return 0;
+        }
+    }
 
-            // 收集需要删除的文档ID
-            List<String> docIdsToDelete = new ArrayList<>();
+    @Override
+    public Set<String> getChunkIds(String source) {
+        Set<String> ids = new HashSet<>();
+        forEachStoredDocument(source, Set.of(FIELD_ID), doc -> ids.add(doc.get(FIELD_ID)));
+        return ids;
+    }
 
-            // 遍历所有文档，找到匹配的源文件
-            for (int i = 0; i < indexReader.maxDoc(); i++) {
-                try {
-                    Document doc = indexReader.storedFields().document(i);
-                    String docSource = doc.get(FIELD_SOURCE);
+    @Override
+    public Map<String, String> getChunkContents(String source) {
+        Map<String, String> contents = new HashMap<>();
+        forEachStoredDocument(source, Set.of(FIELD_ID, FIELD_CONTENT),
+            doc -> contents.put(doc.get(FIELD_ID), doc.get(FIELD_CONTENT)));
+        return contents;
+    }
 
-                    if (docSource != null && docSource.equals(source)) {
-                        String id = doc.get(FIELD_ID);
-                        if (id != null) {
-                            docIdsToDelete.add(id);
-                        }
-                    }
-                } catch (Exception e) {
-                    // 跳过损坏的文档
+    /**
+     * 读取指定源文件所有存活文档的部分存储字段
+     */
+    private void forEachStoredDocument(String source, Set<String> fields, Consumer<Document> consumer) {
+        if (source == null || source.isEmpty()) {
+            return;
+        }
+        IndexSearcher searcher = null;
+        try {
+            searcher = searcherManager.acquire();
+            BytesRef sourceTerm = new BytesRef(source);
+            for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+                LeafReader reader = leaf.reader();
+                Terms terms = reader.terms(FIELD_SOURCE);
+                if (terms == null) {
+                    continue;
+                }
+                TermsEnum termsEnum = terms.iterator();
+                if (!termsEnum.seekExact(sourceTerm)) {
                     continue;
                 }
+                // 只读取该文件的倒排表和所需的存储字段
+                Bits liveDocs = reader.getLiveDocs();
+                StoredFields storedFields = reader.storedFields();
+                PostingsEnum postings = termsEnum.postings(null, PostingsEnum.NONE);
+                for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                    if (liveDocs == null || liveDocs.get(doc)) {
+                        consumer.accept(storedFields.document(doc, fields));
+                    }
+                }
             }
+        } catch (IOException e) {
+            throw new RuntimeException("读取分块失败: " + e.getMessage(), e);
+        } finally {
+            releaseSearcher(searcher);
+        }
+    }
 
-            // 使用 Term 删除文档
-            for (String docId : docIdsToDelete) {
-                try {
-                    indexWriter.deleteDocuments(new org.apache.lucene.index.Term(FIELD_ID, docId));
-                    deletedCount++;
-                } catch (Exception e) {
-                    System.err.println("删除文档失败: " + e.getMessage());
+    @Override
+    public int retainChunks(String source, Set<String> keepIds) {
+        if (source == null || source.isEmpty()) {
+            return 0;
+        }
+        try {
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            builder.add(new TermQuery(new Term(FIELD_SOURCE, source)), BooleanClause.Occur.FILTER);
+            if (!keepIds.isEmpty()) {
+                List<BytesRef> keepTerms = new ArrayList<>(keepIds.size());
+                for (String id : keepIds) {
+                    keepTerms.add(new BytesRef(id));
                 }
+                builder.add(new TermInSetQuery(FIELD_ID, keepTerms), BooleanClause.Occur.MUST_NOT);
             }
+            Query staleQuery = builder.build();
 
-            // 提交更改并刷新 reader
+            // 与 deleteBySource 相同：删除无条件执行，计数单独统计
+            int deletedCount = countLive(staleQuery);
+            indexWriter.deleteDocuments(staleQuery);
+            refreshSearcher();
+            scheduleCommit();
             if (deletedCount > 0) {
-                indexWriter.commit();
-                refreshReader();
-                System.out.println("已删除文件 " + source + " 的 " + deletedCount + " 个文档块");
+                System.out.println("已清理文件 " + source + " 的 " + deletedCount + " 个过期文档块");
             }
-
             return deletedCount;
         } catch (IOException e) {
-            System.err.println("删除文件失败: " + e.getMessage());
-            e.printStackTrace();
-            return 0;
+            throw new RuntimeException("清理过期文档块失败: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean addIndex(Path indexDir, Collection<String> sources) {
+        try (Directory prebuilt = new NIOFSDirectory(indexDir)) {
+            if (!DirectoryReader.indexExists(prebuilt)) {
+                return false;
+            }
+            for (String source : sources) {
+                indexWriter.deleteDocuments(new Term(FIELD_SOURCE, source));
+            }
+            // 直接复制段文件，倒排表和 HNSW 图无需重建
+            indexWriter.addIndexes(prebuilt);
+            indexWriter.commit();
+            refreshSearcher();
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            // 向量维度或相似度与当前索引不一致时 addIndexes 抛出 IllegalArgumentException
+            System.err.println("挂载预构建索引失败: " + e.getMessage());
+            return false;
         }
     }
 
     /**
-     * 文件信息类
+     * 统计当前读取器中满足条件的未删除文档数
+     * 不刷新读取器，避免每次删除都强制近实时重开；批量会话中尚未刷新可见的文档不计入
      */
-    public static class FileInfo {
-        public final String fileName;
-        public final DocumentChunk.SourceType sourceType;
-        public int chunkCount;
-
-        public FileInfo(String fileName, DocumentChunk.SourceType sourceType, int chunkCount) {
-            this.fileName = fileName;
-            this.sourceType = sourceType;
-            this.chunkCount = chunkCount;
+    private int countLive(Query query) throws IOException {
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            return searcher.count(query);
+        } finally {
+            releaseSearcher(searcher);
         }
+    }
 
-        public String getSourceTypeDisplayName() {
-            return sourceType == DocumentChunk.SourceType.STATIC ? "静态资源" : "用户上传";
+    /**
+     * 收集段内包含指定词项的文档（含已删除文档，调用方自行过滤）
+     */
+    private static FixedBitSet docsWithTerm(LeafReader reader, String field, BytesRef value) throws IOException {
+        FixedBitSet bits = new FixedBitSet(reader.maxDoc());
+        Terms terms = reader.terms(field);
+        if (terms != null) {
+            TermsEnum termsEnum = terms.iterator();
+            if (termsEnum.seekExact(value)) {
+                PostingsEnum postings = termsEnum.postings(null, PostingsEnum.NONE);
+                for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                    bits.set(doc);
+                }
+            }
         }
+        return bits;
     }
 
     /**
-     * 内部类：带分数的文档
+     * 向量格式包装：沿用默认格式的读写实现，仅提高允许的最大维度
      */
-    private static class ScoredDocument {
-        final Document document;
-        final float score;
+    private static final class HighDimensionVectorsFormat extends KnnVectorsFormat {
+        private final KnnVectorsFormat delegate;
+
+        HighDimensionVectorsFormat(KnnVectorsFormat delegate) {
+            super(delegate.getName());
+            this.delegate = delegate;
+        }
+
+        @Override
+        public KnnVectorsWriter fieldsWriter(SegmentWriteState state) throws IOException {
+            return delegate.fieldsWriter(state);
+        }
+
+        @Override
+        public KnnVectorsReader fieldsReader(SegmentReadState state) throws IOException {
+            return delegate.fieldsReader(state);
+        }
 
-        ScoredDocument(Document document, float score) {
-            this.document = document;
-            this.score = score;
+        @Override
+        public int getMaxDimensions(String fieldName) {
+            return MAX_VECTOR_DIMENSIONS;
         }
     }
 }
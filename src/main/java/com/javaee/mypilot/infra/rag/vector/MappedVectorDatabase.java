@@ -0,0 +1,1038 @@
+package com.javaee.mypilot.infra.rag.vector;
+
+import com.google.gson.Gson;
+import com.javaee.mypilot.core.consts.ExecutorPool;
+import com.javaee.mypilot.core.model.rag.DocumentChunk;
+import com.javaee.mypilot.core.model.rag.SearchFilter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+
+/**
+ * 基于内存映射文件的扁平向量数据库实现
+ *
+ * <p>存储布局：
+ * <ul>
+ *   <li>vectors-N.f32：所有分块的嵌入向量，按行连续存放的小端 float32 数组</li>
+ *   <li>codes-N.i8：每行向量的 int8 标量量化编码（见 {@link ScalarQuantizer}），检索时先扫描这份编码</li>
+ *   <li>chunks-N.log：分块元数据日志，每行一条 JSON（第 i 行对应向量文件第 i 行），只追加不改写</li>
+ *   <li>contents-N.txt：分块正文（UTF-8），元数据记录偏移和长度；只读映射，返回结果时才解码，不占堆内存</li>
+ *   <li>table.json：表头，记录向量维度、文件代数 N 和向量是否已归一化</li>
+ * </ul>
+ *
+ * <p>写入时依次追加向量、编码、正文和元数据日志，日志行写完才算提交；中断写入留下的残余数据
+ * 在下次追加时被截掉。删除（以及 ID 冲突的覆盖写入）把剩余数据写成新一代文件，
+ * 新一代的日志即是压缩后的日志，表头切换代数后旧文件被清理。
+ *
+ * <p>向量在写入时归一化，查询向量由调用方（Retriever）归一化，打分即为点积。
+ * 未归一化的旧索引在打开时被重写为新一代文件。
+ *
+ * <p>检索分两阶段：先在映射到堆外的量化编码上顺序扫描，保留过采样的候选集；
+ * 再用原始 float32 向量对候选集精确重排，扫描带宽约为直接扫描 float32 的 1/4。
+ * 重排按近似分数从高到低进行，凭量化误差上界就能排除的候选不再读取 float32 向量。
+ *
+ * <p>行数较多时在后台训练 {@link IvfIndex}，检索只扫描与查询最相近的 nprobe 个倒排列表。
+ * 新增的行立即分配到现有质心；行数变化过大时在后台重新训练。
+ * 带过滤条件的检索先生成行位图，只为命中的行打分。
+ * 扫描量足够大时按行号区间（或倒排列表）切分到 CPU 线程池并行打分，各分片的候选集最后合并。
+ * 删除操作会把剩余向量写入新一代文件后切换，避免在 Windows 上覆盖仍被映射的文件。
+ */
+public class MappedVectorDatabase implements VectorDatabase {
+    private static final String TABLE_FILE = "table.json";
+    // 旧版元数据表：分块元数据和正文都在一个 JSON 里，打开时迁移为日志格式
+    private static final String LEGACY_CHUNKS_FILE = "chunks.json";
+    private static final String LOG_FILE_PREFIX = "chunks-";
+    private static final String LOG_FILE_SUFFIX = ".log";
+    private static final String CONTENTS_FILE_PREFIX = "contents-";
+    private static final String CONTENTS_FILE_SUFFIX = ".txt";
+    private static final String VECTORS_FILE_PREFIX = "vectors-";
+    private static final String VECTORS_FILE_SUFFIX = ".f32";
+    private static final String CODES_FILE_PREFIX = "codes-";
+    private static final String CODES_FILE_SUFFIX = ".i8";
+
+    // 量化粗排的候选集大小：topK 的倍数，且不少于 MIN_SHORTLIST
+    private static final int RESCORE_OVERSAMPLE = 4;
+    private static final int MIN_SHORTLIST = 32;
+
+    // 每个并行扫描任务至少负责的行数，行数太少时线程调度开销超过收益
+    private static final int MIN_ROWS_PER_TASK = 16384;
+
+    public static final int DEFAULT_NPROBE = 8;
+
+    private final Path directory;
+    private final Gson gson;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Executor executor; // 后台训练 IVF、并行扫描使用
+
+    private volatile IvfIndex ivf; // 行数不足 IvfIndex.MIN_ROWS 时为 null
+    private volatile int nprobe;
+    private long modCount; // 每次写入/删除递增，用于丢弃过期的训练结果
+    private boolean retrainScheduled;
+
+    private Table table;
+    private FloatBuffer vectors; // 只读映射的小端向量视图
+    private ByteBuffer codes; // 只读映射的量化编码
+    private ByteBuffer contents; // 只读映射的分块正文
+
+    /**
+     * 构造函数
+     *
+     * @param indexPath 索引存储路径
+     */
+    public MappedVectorDatabase(String indexPath) {
+        this(indexPath, ForkJoinPool.commonPool(), DEFAULT_NPROBE);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param indexPath 索引存储路径
+     * @param executor  后台训练 IVF 质心、并行扫描的线程池
+     * @param nprobe    检索时扫描的倒排列表数量
+     */
+    public MappedVectorDatabase(String indexPath, Executor executor, int nprobe) {
+        this.directory = Paths.get(indexPath);
+        this.gson = new Gson();
+        this.executor = executor;
+        this.nprobe = Math.max(1, nprobe);
+        try {
+            Files.createDirectories(directory);
+            this.table = loadTable();
+            deleteStaleGenerations();
+            mapVectors();
+            upgradeToNormalized();
+        } catch (IOException e) {
+            throw new RuntimeException("初始化映射向量索引失败: " + e.getMessage(), e);
+        }
+        scheduleRetrain();
+    }
+
+    /**
+     * 调整检索时扫描的倒排列表数量：越大召回率越高、延迟越高
+     */
+    public void setNprobe(int nprobe) {
+        this.nprobe = Math.max(1, nprobe);
+    }
+
+    @Override
+    public void index(List<DocumentChunk> chunks) {
+        lock.writeLock().lock();
+        try {
+            // upsert：同一 ID 只保留最后一次写入，先删除表中已有的同 ID 分块
+            Map<String, DocumentChunk> incoming = new LinkedHashMap<>();
+            for (DocumentChunk chunk : chunks) {
+                if (chunk.getEmbedding() != null && chunk.getEmbedding().length > 0) {
+                    incoming.put(chunk.getId(), chunk);
+                }
+            }
+            if (table.chunks.stream().anyMatch(meta -> incoming.containsKey(meta.id))) {
+                removeWhere(meta -> incoming.containsKey(meta.id));
+            }
+
+            List<DocumentChunk> accepted = new ArrayList<>();
+            for (DocumentChunk chunk : incoming.values()) {
+                float[] embedding = chunk.getEmbedding();
+                if (table.dimension == 0) {
+                    table.dimension = embedding.length;
+                }
+                if (embedding.length != table.dimension) {
+                    System.err.println("向量维度不匹配，跳过分块 " + chunk.getId() + ": " +
+                        embedding.length + " != " + table.dimension);
+                    continue;
+                }
+                accepted.add(chunk);
+            }
+
+            if (accepted.isEmpty()) {
+                return;
+            }
+
+            // 依次追加向量、编码、正文和元数据日志（先截断到已提交的长度，丢弃上次中断写入的残留数据），
+            // 日志最后写入，日志行写完即提交
+            int rows = table.chunks.size();
+            int dim = table.dimension;
+            if (rows == 0) {
+                saveTable(); // 记录新表的向量维度
+            }
+            ByteBuffer vectorBuffer = ByteBuffer.allocate(accepted.size() * dim * Float.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer codeBuffer = ByteBuffer.allocate(accepted.size() * ScalarQuantizer.rowBytes(dim))
+                .order(ByteOrder.LITTLE_ENDIAN);
+            ByteArrayOutputStream contentBuffer = new ByteArrayOutputStream();
+            ByteArrayOutputStream logBuffer = new ByteArrayOutputStream();
+            List<ChunkMeta> appended = new ArrayList<>(accepted.size());
+            for (DocumentChunk chunk : accepted) {
+                float[] normalized = VectorMath.normalize(chunk.getEmbedding());
+                for (float v : normalized) {
+                    vectorBuffer.putFloat(v);
+                }
+                ScalarQuantizer.quantize(normalized, codeBuffer);
+
+                byte[] content = chunk.getContent() != null ? chunk.getContent().getBytes(StandardCharsets.UTF_8) : null;
+                ChunkMeta meta = ChunkMeta.from(chunk, table.contentBytes + contentBuffer.size(), content);
+                if (content != null) {
+                    contentBuffer.writeBytes(content);
+                }
+                logBuffer.writeBytes(logLine(meta));
+                appended.add(meta);
+            }
+            vectorBuffer.flip();
+            codeBuffer.flip();
+
+            appendTo(vectorFile(), (long) rows * dim * Float.BYTES, vectorBuffer);
+            appendTo(codesFile(), (long) rows * ScalarQuantizer.rowBytes(dim), codeBuffer);
+            appendTo(contentsFile(), table.contentBytes, ByteBuffer.wrap(contentBuffer.toByteArray()));
+            appendTo(logFile(), table.logBytes, ByteBuffer.wrap(logBuffer.toByteArray()));
+
+            table.chunks.addAll(appended);
+            table.contentBytes += contentBuffer.size();
+            table.logBytes += logBuffer.size();
+            mapVectors();
+            modCount++;
+
+            // 新行先分配到现有质心，分布变化过大时再后台重训
+            int newRows = table.chunks.size();
+            if (ivf != null) {
+                ivf = ivf.withAppended(vectors, rows, newRows);
+            }
+            if (ivf == null ? newRows >= IvfIndex.MIN_ROWS : ivf.needsRetrain(newRows)) {
+                scheduleRetrain();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("索引文档分块失败: " + e.getMessage(), e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<DocumentChunk> search(float[] queryEmbedding, int topK, SearchFilter filter, boolean includeEmbedding) {
+        lock.readLock().lock();
+        try {
+            int rows = table.chunks.size();
+            if (rows == 0 || topK <= 0) {
+                return Collections.emptyList();
+            }
+            if (queryEmbedding.length != table.dimension) {
+                System.err.println("向量维度不匹配，跳过检索: 查询 " + queryEmbedding.length +
+                    " 维, 索引 " + table.dimension + " 维");
+                return Collections.emptyList();
+            }
+
+            // 查询向量已由调用方归一化，打分即点积
+            float querySum = sum(queryEmbedding);
+
+            // 阶段一：在量化编码上顺序扫描，小顶堆保留过采样的候选集
+            int dim = table.dimension;
+            int codeStride = ScalarQuantizer.rowBytes(dim);
+            int shortlistSize = Math.max(topK * RESCORE_OVERSAMPLE, MIN_SHORTLIST);
+            ByteBuffer currentCodes = codes;
+            TopKCollector shortlist;
+            IvfIndex currentIvf = ivf;
+            BitSet allowed = filterRows(filter, rows);
+            if (allowed != null) {
+                // 预过滤：只扫描满足条件的行。不走 IVF，否则条件很严格时探测到的列表里可能没有命中行
+                int matched = allowed.cardinality();
+                if (matched == 0) {
+                    return Collections.emptyList();
+                }
+                int taskCount = taskCount(matched);
+                shortlist = scanInParallel(taskCount, task -> {
+                    TopKCollector partial = new TopKCollector(shortlistSize);
+                    int from = (int) ((long) rows * task / taskCount);
+                    int to = (int) ((long) rows * (task + 1) / taskCount);
+                    for (int row = allowed.nextSetBit(from); row >= 0 && row < to; row = allowed.nextSetBit(row + 1)) {
+                        scoreCodes(partial, currentCodes, row, codeStride, queryEmbedding, querySum);
+                    }
+                    return partial;
+                });
+            } else if (currentIvf != null && nprobe < currentIvf.listCount()) {
+                // 只扫描最相近的 nprobe 个倒排列表，列表轮流分给各个任务
+                int[] probed = currentIvf.probe(queryEmbedding, nprobe);
+                int probedRows = 0;
+                for (int listId : probed) {
+                    probedRows += currentIvf.list(listId).length;
+                }
+                int taskCount = Math.min(taskCount(probedRows), probed.length);
+                shortlist = scanInParallel(taskCount, task -> {
+                    TopKCollector partial = new TopKCollector(shortlistSize);
+                    for (int i = task; i < probed.length; i += taskCount) {
+                        for (int row : currentIvf.list(probed[i])) {
+                            scoreCodes(partial, currentCodes, row, codeStride, queryEmbedding, querySum);
+                        }
+                    }
+                    return partial;
+                });
+            } else {
+                // 全量扫描：按行号区间切分
+                int taskCount = taskCount(rows);
+                shortlist = scanInParallel(taskCount, task -> {
+                    TopKCollector partial = new TopKCollector(shortlistSize);
+                    int from = (int) ((long) rows * task / taskCount);
+                    int to = (int) ((long) rows * (task + 1) / taskCount);
+                    for (int row = from; row < to; row++) {
+                        scoreCodes(partial, currentCodes, row, codeStride, queryEmbedding, querySum);
+                    }
+                    return partial;
+                });
+            }
+
+            // 阶段二：按近似分数从高到低，用原始 float32 向量对候选集精确重排。
+            // 近似分数加上量化误差上界仍不超过当前第 K 名的候选不可能进入结果，跳过其 float32 读取
+            float queryAbsSum = absSum(queryEmbedding);
+            float[] approxScores = new float[shortlist.size()];
+            int[] candidates = shortlist.drainDocs(approxScores);
+            TopKCollector collector = new TopKCollector(topK);
+            for (int i = 0; i < candidates.length; i++) {
+                int row = candidates[i];
+                float bound = ScalarQuantizer.errorBound(currentCodes, row * codeStride, queryAbsSum);
+                if (approxScores[i] + bound < collector.minCompetitiveScore()) {
+                    continue;
+                }
+                int base = row * dim;
+                float dot = 0.0f;
+                for (int d = 0; d < dim; d++) {
+                    dot += queryEmbedding[d] * vectors.get(base + d);
+                }
+                collector.collect(row, dot);
+            }
+
+            // 只为最终结果构建分块，按需附带向量
+            float[] scores = new float[collector.size()];
+            int[] winners = collector.drainDocs(scores);
+            List<DocumentChunk> results = new ArrayList<>(winners.length);
+            for (int i = 0; i < winners.length; i++) {
+                int row = winners[i];
+                DocumentChunk chunk = toDocumentChunk(table.chunks.get(row), includeEmbedding ? readRow(row) : null);
+                chunk.setSimilarity(scores[i]);
+                results.add(chunk);
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 按过滤条件生成允许参与打分的行集合；没有条件时返回 null
+     */
+    private BitSet filterRows(SearchFilter filter, int rows) {
+        if (filter == null || filter.isEmpty()) {
+            return null;
+        }
+        BitSet allowed = new BitSet(rows);
+        for (int row = 0; row < rows; row++) {
+            ChunkMeta meta = table.chunks.get(row);
+            if (filter.matches(meta.source, meta.sourceType(), meta.pageNumber)) {
+                allowed.set(row);
+            }
+        }
+        return allowed;
+    }
+
+    /**
+     * 查询向量各分量之和，量化打分时用于还原偏移量的贡献
+     */
+    private static float sum(float[] vector) {
+        float sum = 0.0f;
+        for (float v : vector) {
+            sum += v;
+        }
+        return sum;
+    }
+
+    /**
+     * 查询向量各分量绝对值之和，用于计算量化误差上界
+     */
+    private static float absSum(float[] vector) {
+        float sum = 0.0f;
+        for (float v : vector) {
+            sum += Math.abs(v);
+        }
+        return sum;
+    }
+
+    /**
+     * 根据扫描行数决定并行任务数
+     */
+    private static int taskCount(int scanRows) {
+        return Math.max(1, Math.min(ExecutorPool.CPU_CORES, scanRows / MIN_ROWS_PER_TASK));
+    }
+
+    /**
+     * 并行执行扫描任务并合并各任务的候选集；第 0 个任务在调用线程上执行
+     */
+    private TopKCollector scanInParallel(int taskCount, IntFunction<TopKCollector> task) {
+        if (taskCount <= 1) {
+            return task.apply(0);
+        }
+        List<CompletableFuture<TopKCollector>> futures = new ArrayList<>(taskCount - 1);
+        for (int i = 1; i < taskCount; i++) {
+            int taskId = i;
+            futures.add(CompletableFuture.supplyAsync(() -> task.apply(taskId), executor));
+        }
+        TopKCollector merged = task.apply(0);
+        for (CompletableFuture<TopKCollector> future : futures) {
+            merged.merge(future.join());
+        }
+        return merged;
+    }
+
+    /**
+     * 在量化编码上为一行打分并加入候选集
+     */
+    private static void scoreCodes(TopKCollector shortlist, ByteBuffer codes, int row, int codeStride,
+                                   float[] queryEmbedding, float querySum) {
+        shortlist.collect(row, ScalarQuantizer.dot(codes, row * codeStride, queryEmbedding, querySum));
+    }
+
+    @Override
+    public int getDocumentCount() {
+        lock.readLock().lock();
+        try {
+            return table.chunks.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<FileInfo> getAllFiles() {
+        lock.readLock().lock();
+        try {
+            Map<String, FileInfo> fileMap = new LinkedHashMap<>();
+            for (ChunkMeta meta : table.chunks) {
+                if (meta.source == null || meta.source.isEmpty()) {
+                    continue;
+                }
+                FileInfo fileInfo = fileMap.computeIfAbsent(meta.source,
+                    source -> new FileInfo(source, meta.sourceType(), 0));
+                fileInfo.chunkCount++;
+            }
+            return new ArrayList<>(fileMap.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<String> getChunkIds(String source) {
+        lock.readLock().lock();
+        try {
+            Set<String> ids = new HashSet<>();
+            for (ChunkMeta meta : table.chunks) {
+                if (meta.source != null && meta.source.equals(source)) {
+                    ids.add(meta.id);
+                }
+            }
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, String> getChunkContents(String source) {
+        lock.readLock().lock();
+        try {
+            Map<String, String> contents = new HashMap<>();
+            for (ChunkMeta meta : table.chunks) {
+                if (meta.source != null && meta.source.equals(source)) {
+                    contents.put(meta.id, content(meta));
+                }
+            }
+            return contents;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int retainChunks(String source, Set<String> keepIds) {
+        if (source == null || source.isEmpty()) {
+            return 0;
+        }
+        int deletedCount = removeWhere(meta -> source.equals(meta.source) && !keepIds.contains(meta.id));
+        if (deletedCount > 0) {
+            System.out.println("已清理文件 " + source + " 的 " + deletedCount + " 个过期文档块");
+        }
+        return deletedCount;
+    }
+
+    @Override
+    public int deleteBySource(String source) {
+        if (source == null || source.isEmpty()) {
+            return 0;
+        }
+        int deletedCount = removeWhere(meta -> source.equals(meta.source));
+        if (deletedCount > 0) {
+            System.out.println("已删除文件 " + source + " 的 " + deletedCount + " 个文档块");
+        }
+        return deletedCount;
+    }
+
+    @Override
+    public void clear(DocumentChunk.SourceType sourceType) {
+        int deletedCount = removeWhere(meta -> sourceType == null || meta.sourceType() == sourceType);
+        if (sourceType == null) {
+            System.out.println("已删除所有文档");
+        } else {
+            System.out.println("已删除 " + deletedCount + " 个 " +
+                (sourceType == DocumentChunk.SourceType.STATIC ? "静态资源" : "用户上传") + " 文档");
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            // 映射缓冲区随 GC 释放，这里只断开引用
+            vectors = null;
+            codes = null;
+            contents = null;
+            ivf = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 删除满足条件的分块：剩余向量写入新一代文件后切换元数据表
+     */
+    private int removeWhere(Predicate<ChunkMeta> predicate) {
+        lock.writeLock().lock();
+        try {
+            int dim = table.dimension;
+            List<ChunkMeta> kept = new ArrayList<>();
+            List<Integer> keptRows = new ArrayList<>();
+            for (int row = 0; row < table.chunks.size(); row++) {
+                ChunkMeta meta = table.chunks.get(row);
+                if (!predicate.test(meta)) {
+                    kept.add(meta);
+                    keptRows.add(row);
+                }
+            }
+
+            int deletedCount = table.chunks.size() - kept.size();
+            if (deletedCount == 0) {
+                return 0;
+            }
+
+            int codeStride = ScalarQuantizer.rowBytes(dim);
+            ByteBuffer vectorBuffer = ByteBuffer.allocate(keptRows.size() * dim * Float.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer codeBuffer = ByteBuffer.allocate(keptRows.size() * codeStride)
+                .order(ByteOrder.LITTLE_ENDIAN);
+            for (int row : keptRows) {
+                int base = row * dim;
+                for (int d = 0; d < dim; d++) {
+                    vectorBuffer.putFloat(vectors.get(base + d));
+                }
+                codeBuffer.put(codeBuffer.position(), codes, row * codeStride, codeStride);
+                codeBuffer.position(codeBuffer.position() + codeStride);
+            }
+            vectorBuffer.flip();
+            codeBuffer.flip();
+
+            table.generation++;
+            appendTo(vectorFile(), 0, vectorBuffer);
+            appendTo(codesFile(), 0, codeBuffer);
+            rewriteMetadata(kept, this::contentBytes);
+
+            if (kept.isEmpty()) {
+                table.dimension = 0;
+            }
+            saveTable();
+            mapVectors();
+            deleteStaleGenerations();
+            modCount++;
+
+            // 删除后行号被压缩，按保留行重映射倒排列表
+            if (kept.size() < IvfIndex.MIN_ROWS) {
+                ivf = null;
+            } else if (ivf != null) {
+                ivf = ivf.remapped(keptRows.stream().mapToInt(Integer::intValue).toArray());
+                if (ivf.needsRetrain(kept.size())) {
+                    scheduleRetrain();
+                }
+            }
+            return deletedCount;
+        } catch (IOException e) {
+            throw new RuntimeException("删除文档分块失败: " + e.getMessage(), e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 在后台重新训练 IVF 质心（同一时间最多一个训练任务）
+     */
+    private void scheduleRetrain() {
+        synchronized (this) {
+            if (retrainScheduled) {
+                return;
+            }
+            retrainScheduled = true;
+        }
+        executor.execute(this::retrain);
+    }
+
+    private void retrain() {
+        boolean reschedule = false;
+        try {
+            // 在读锁内取得当前映射的快照；映射缓冲区在替换后仍然有效，训练本身无需持锁
+            FloatBuffer snapshotVectors;
+            int rows;
+            int dim;
+            long version;
+            lock.readLock().lock();
+            try {
+                rows = table.chunks.size();
+                if (rows < IvfIndex.MIN_ROWS || vectors == null) {
+                    return;
+                }
+                snapshotVectors = vectors.duplicate();
+                dim = table.dimension;
+                version = modCount;
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            long start = System.currentTimeMillis();
+            IvfIndex trained = IvfIndex.train(snapshotVectors, rows, dim);
+
+            lock.writeLock().lock();
+            try {
+                if (modCount == version) {
+                    ivf = trained;
+                    System.out.println("IVF 索引训练完成: " + trained.listCount() + " 个列表, " + rows +
+                        " 行, 耗时 " + (System.currentTimeMillis() - start) + "ms");
+                } else {
+                    // 训练期间索引已变化，结果作废
+                    reschedule = true;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (Exception e) {
+            System.err.println("训练 IVF 索引失败: " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                retrainScheduled = false;
+            }
+        }
+        if (reschedule) {
+            scheduleRetrain();
+        }
+    }
+
+    /**
+     * 读取指定行的向量副本
+     */
+    private float[] readRow(int row) {
+        float[] embedding = new float[table.dimension];
+        vectors.get(row * table.dimension, embedding);
+        return embedding;
+    }
+
+    /**
+     * 把缓冲区内容写到文件的指定位置，并截掉该位置之后的旧数据
+     */
+    private static void appendTo(Path file, long position, ByteBuffer buffer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (channel.size() > position) {
+                channel.truncate(position);
+            }
+            channel.position(position);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * 只读映射文件的前 length 字节
+     */
+    private static ByteBuffer map(Path file, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < length) {
+                throw new IOException("索引文件已损坏: " + file.getFileName() + " 期望 " + length +
+                    " 字节, 实际 " + channel.size() + " 字节");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * 映射当前向量文件和编码文件
+     * 旧版索引缺少编码文件时从 float32 向量重新量化生成
+     */
+    private void mapVectors() throws IOException {
+        int rows = table.chunks.size();
+        int dim = table.dimension;
+        long expectedBytes = (long) rows * dim * Float.BYTES;
+        long expectedCodeBytes = (long) rows * ScalarQuantizer.rowBytes(dim);
+        Path file = vectorFile();
+
+        contents = table.contentBytes == 0 ? ByteBuffer.allocate(0) : map(contentsFile(), table.contentBytes);
+
+        if (expectedBytes == 0 || !Files.exists(file)) {
+            vectors = FloatBuffer.allocate(0);
+            codes = ByteBuffer.allocate(0);
+            return;
+        }
+
+        vectors = map(file, expectedBytes).asFloatBuffer();
+
+        Path codeFile = codesFile();
+        if (!Files.exists(codeFile) || Files.size(codeFile) < expectedCodeBytes) {
+            System.out.println("量化编码缺失，正在从 float32 向量重新生成...");
+            ByteBuffer codeBuffer = ByteBuffer.allocate((int) expectedCodeBytes).order(ByteOrder.LITTLE_ENDIAN);
+            float[] row = new float[dim];
+            for (int r = 0; r < rows; r++) {
+                vectors.get(r * dim, row);
+                ScalarQuantizer.quantize(row, codeBuffer);
+            }
+            codeBuffer.flip();
+            appendTo(codeFile, 0, codeBuffer);
+        }
+        codes = map(codeFile, expectedCodeBytes);
+    }
+
+    /**
+     * 旧索引的向量未归一化：归一化后写入新一代文件，并在元数据表中记录
+     */
+    private void upgradeToNormalized() throws IOException {
+        if (table.normalized) {
+            return;
+        }
+        int rows = table.chunks.size();
+        int dim = table.dimension;
+        if (rows > 0) {
+            System.out.println("检测到未归一化的映射向量索引，正在升级...");
+            ByteBuffer vectorBuffer = ByteBuffer.allocate(rows * dim * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer codeBuffer = ByteBuffer.allocate(rows * ScalarQuantizer.rowBytes(dim)).order(ByteOrder.LITTLE_ENDIAN);
+            float[] row = new float[dim];
+            for (int r = 0; r < rows; r++) {
+                vectors.get(r * dim, row);
+                float[] normalized = VectorMath.normalize(row);
+                for (float v : normalized) {
+                    vectorBuffer.putFloat(v);
+                }
+                ScalarQuantizer.quantize(normalized, codeBuffer);
+            }
+            vectorBuffer.flip();
+            codeBuffer.flip();
+
+            table.generation++;
+            appendTo(vectorFile(), 0, vectorBuffer);
+            appendTo(codesFile(), 0, codeBuffer);
+            rewriteMetadata(table.chunks, this::contentBytes);
+        }
+        table.normalized = true;
+        saveTable();
+        mapVectors();
+        deleteStaleGenerations();
+    }
+
+    private Path vectorFile() {
+        return directory.resolve(VECTORS_FILE_PREFIX + table.generation + VECTORS_FILE_SUFFIX);
+    }
+
+    private Path codesFile() {
+        return directory.resolve(CODES_FILE_PREFIX + table.generation + CODES_FILE_SUFFIX);
+    }
+
+    private Path logFile() {
+        return directory.resolve(LOG_FILE_PREFIX + table.generation + LOG_FILE_SUFFIX);
+    }
+
+    private Path contentsFile() {
+        return directory.resolve(CONTENTS_FILE_PREFIX + table.generation + CONTENTS_FILE_SUFFIX);
+    }
+
+    /**
+     * 清理旧一代的向量、编码、正文和日志文件
+     * Windows 上旧映射尚未被 GC 释放时无法删除，留待下次启动时再清理
+     */
+    private void deleteStaleGenerations() {
+        Set<String> current = Set.of(vectorFile().getFileName().toString(), codesFile().getFileName().toString(),
+            contentsFile().getFileName().toString(), logFile().getFileName().toString());
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                boolean isGenerationFile =
+                    (name.startsWith(VECTORS_FILE_PREFIX) && name.endsWith(VECTORS_FILE_SUFFIX)) ||
+                    (name.startsWith(CODES_FILE_PREFIX) && name.endsWith(CODES_FILE_SUFFIX)) ||
+                    (name.startsWith(CONTENTS_FILE_PREFIX) && name.endsWith(CONTENTS_FILE_SUFFIX)) ||
+                    (name.startsWith(LOG_FILE_PREFIX) && name.endsWith(LOG_FILE_SUFFIX));
+                if (isGenerationFile && !current.contains(name)) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        System.err.println("删除旧索引文件失败: " + e.getMessage());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("清理旧索引文件失败: " + e.getMessage());
+        }
+    }
+
+    private Table loadTable() throws IOException {
+        Path file = directory.resolve(TABLE_FILE);
+        if (!Files.exists(file)) {
+            return migrateLegacyTable();
+        }
+        Table loaded;
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            loaded = gson.fromJson(reader, Table.class);
+        }
+        if (loaded == null) {
+            return new Table();
+        }
+        loaded.chunks = new ArrayList<>();
+        table = loaded;
+        readLog();
+        return loaded;
+    }
+
+    /**
+     * 读取当前代的元数据日志；末尾不完整的行是中断写入的残留，忽略，下次追加时被截掉
+     */
+    private void readLog() throws IOException {
+        Path file = logFile();
+        if (!Files.exists(file)) {
+            return;
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        int end = bytes.length;
+        while (end > 0 && bytes[end - 1] != '\n') {
+            end--;
+        }
+        // 同一文件的分块共享 source 字符串
+        Map<String, String> sources = new HashMap<>();
+        int lineStart = 0;
+        for (int i = 0; i < end; i++) {
+            if (bytes[i] == '\n') {
+                ChunkMeta meta = gson.fromJson(new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8),
+                    ChunkMeta.class);
+                if (meta.source != null) {
+                    meta.source = sources.computeIfAbsent(meta.source, source -> source);
+                }
+                table.chunks.add(meta);
+                table.contentBytes = Math.max(table.contentBytes, meta.contentOffset + Math.max(0, meta.contentLength));
+                lineStart = i + 1;
+            }
+        }
+        table.logBytes = end;
+        if (table.chunks.isEmpty()) {
+            table.dimension = 0;
+        }
+    }
+
+    /**
+     * 旧版 chunks.json 迁移为当前代的正文文件和元数据日志，向量文件保持不变
+     */
+    private Table migrateLegacyTable() throws IOException {
+        Path legacyFile = directory.resolve(LEGACY_CHUNKS_FILE);
+        if (!Files.exists(legacyFile)) {
+            return new Table();
+        }
+        LegacyTable legacy;
+        try (Reader reader = Files.newBufferedReader(legacyFile, StandardCharsets.UTF_8)) {
+            legacy = gson.fromJson(reader, LegacyTable.class);
+        }
+        Table migrated = new Table();
+        if (legacy != null) {
+            migrated.dimension = legacy.dimension;
+            migrated.generation = legacy.generation;
+            migrated.normalized = legacy.normalized;
+        }
+        table = migrated;
+        if (legacy != null && legacy.chunks != null && !legacy.chunks.isEmpty()) {
+            System.out.println("检测到旧版映射索引元数据，正在迁移为日志格式...");
+            rewriteMetadata(new ArrayList<>(legacy.chunks), meta -> {
+                String content = ((LegacyChunk) meta).content;
+                return content != null ? content.getBytes(StandardCharsets.UTF_8) : null;
+            });
+        }
+        saveTable();
+        Files.deleteIfExists(legacyFile);
+        return migrated;
+    }
+
+    /**
+     * 把分块元数据整体写成当前代的正文文件和元数据日志（代数切换时即压缩日志），并更新内存中的表
+     *
+     * @param metas   按行号排列的分块元数据
+     * @param content 读取分块正文的 UTF-8 字节，正文为 null 时返回 null
+     */
+    private void rewriteMetadata(List<ChunkMeta> metas, Function<ChunkMeta, byte[]> content) throws IOException {
+        ByteArrayOutputStream contentBuffer = new ByteArrayOutputStream();
+        ByteArrayOutputStream logBuffer = new ByteArrayOutputStream();
+        List<ChunkMeta> relocated = new ArrayList<>(metas.size());
+        for (ChunkMeta meta : metas) {
+            byte[] bytes = content.apply(meta);
+            ChunkMeta moved = meta.relocated(contentBuffer.size(), bytes);
+            if (bytes != null) {
+                contentBuffer.writeBytes(bytes);
+            }
+            logBuffer.writeBytes(logLine(moved));
+            relocated.add(moved);
+        }
+        appendTo(contentsFile(), 0, ByteBuffer.wrap(contentBuffer.toByteArray()));
+        appendTo(logFile(), 0, ByteBuffer.wrap(logBuffer.toByteArray()));
+        table.chunks = relocated;
+        table.contentBytes = contentBuffer.size();
+        table.logBytes = logBuffer.size();
+    }
+
+    private byte[] logLine(ChunkMeta meta) {
+        return (gson.toJson(meta) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 从映射的正文文件中读取分块正文的 UTF-8 字节
+     */
+    private byte[] contentBytes(ChunkMeta meta) {
+        if (meta.contentLength < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[meta.contentLength];
+        contents.get((int) meta.contentOffset, bytes);
+        return bytes;
+    }
+
+    /**
+     * 解码分块正文（只在返回结果时调用）
+     */
+    private String content(ChunkMeta meta) {
+        if (meta.contentLength < 0) {
+            return null;
+        }
+        return StandardCharsets.UTF_8.decode(contents.slice((int) meta.contentOffset, meta.contentLength)).toString();
+    }
+
+    private DocumentChunk toDocumentChunk(ChunkMeta meta, float[] embedding) {
+        return new DocumentChunk(meta.id, content(meta), meta.source, meta.pageNumber, meta.title, embedding,
+            meta.sourceType());
+    }
+
+    /**
+     * 原子写入表头（先写临时文件再替换）
+     */
+    private void saveTable() throws IOException {
+        Path file = directory.resolve(TABLE_FILE);
+        Path tmp = directory.resolve(TABLE_FILE + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            gson.toJson(table, writer);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 表头（持久化为 table.json）和内存中的元数据
+     */
+    private static class Table {
+        int dimension;
+        int generation;
+        boolean normalized; // 旧版索引没有该字段，读出为 false
+        transient List<ChunkMeta> chunks = new ArrayList<>();
+        transient long logBytes; // 元数据日志已提交的长度
+        transient long contentBytes; // 正文文件已提交的长度
+    }
+
+    /**
+     * 分块元数据（不含向量和正文），元数据日志中的一行
+     */
+    private static class ChunkMeta {
+        String id;
+        String source;
+        int pageNumber;
+        String title;
+        String sourceType;
+        long contentOffset; // 正文在正文文件中的字节偏移
+        int contentLength; // 正文的 UTF-8 字节数，-1 表示正文为 null
+
+        static ChunkMeta from(DocumentChunk chunk, long contentOffset, byte[] content) {
+            ChunkMeta meta = new ChunkMeta();
+            meta.id = chunk.getId();
+            meta.source = chunk.getSource();
+            meta.pageNumber = chunk.getPageNumber();
+            meta.title = chunk.getTitle();
+            meta.sourceType = chunk.getSourceType() != null ?
+                chunk.getSourceType().name() : DocumentChunk.SourceType.USER_UPLOADED.name();
+            meta.contentOffset = contentOffset;
+            meta.contentLength = content != null ? content.length : -1;
+            return meta;
+        }
+
+        /**
+         * 正文搬到新位置后的副本
+         */
+        ChunkMeta relocated(long contentOffset, byte[] content) {
+            ChunkMeta meta = new ChunkMeta();
+            meta.id = id;
+            meta.source = source;
+            meta.pageNumber = pageNumber;
+            meta.title = title;
+            meta.sourceType = sourceType;
+            meta.contentOffset = contentOffset;
+            meta.contentLength = content != null ? content.length : -1;
+            return meta;
+        }
+
+        DocumentChunk.SourceType sourceType() {
+            try {
+                return sourceType != null ?
+                    DocumentChunk.SourceType.valueOf(sourceType) : DocumentChunk.SourceType.USER_UPLOADED;
+            } catch (IllegalArgumentException e) {
+                return DocumentChunk.SourceType.USER_UPLOADED;
+            }
+        }
+    }
+
+    /**
+     * 旧版 chunks.json 的格式（元数据和正文都在一个 JSON 里）
+     */
+    private static class LegacyTable {
+        int dimension;
+        int generation;
+        boolean normalized;
+        List<LegacyChunk> chunks;
+    }
+
+    private static class LegacyChunk extends ChunkMeta {
+        String content;
+    }
+}
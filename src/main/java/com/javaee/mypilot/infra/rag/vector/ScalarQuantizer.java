@@ -0,0 +1,80 @@
+package com.javaee.mypilot.infra.rag.vector;
+
+import java.nio.ByteBuffer;
+
+/**
+ * int8 标量量化工具
+ *
+ * <p>每个向量独立计算偏移量 min 和步长 scale = (max - min) / 255，
+ * 分量编码为 round((v - min) / scale) - 128 存为有符号字节。
+ * 单行编码布局：[offset: float32][scale: float32][dim 个 int8 码]，约为原始 float32 的 1/4。
+ *
+ * <p>对查询向量 q 的近似点积可以直接在编码上计算：
+ * q·v ≈ offset * Σq + scale * Σ q[d] * (code[d] + 128)
+ */
+final class ScalarQuantizer {
+    static final int HEADER_BYTES = 2 * Float.BYTES;
+
+    private ScalarQuantizer() {
+    }
+
+    /**
+     * 单行编码占用的字节数
+     */
+    static int rowBytes(int dimension) {
+        return HEADER_BYTES + dimension;
+    }
+
+    /**
+     * 量化向量并写入缓冲区当前位置
+     */
+    static void quantize(float[] vector, ByteBuffer out) {
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (float v : vector) {
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        float scale = (max - min) / 255.0f;
+
+        out.putFloat(min);
+        out.putFloat(scale);
+        for (float v : vector) {
+            int code = scale == 0.0f ? 0 : Math.round((v - min) / scale);
+            out.put((byte) (Math.max(0, Math.min(255, code)) - 128));
+        }
+    }
+
+    /**
+     * 在量化编码上计算与查询向量的近似点积
+     *
+     * @param codes     编码缓冲区
+     * @param base      该行编码的起始字节位置
+     * @param query     查询向量
+     * @param querySum  查询向量各分量之和
+     */
+    static float dot(ByteBuffer codes, int base, float[] query, float querySum) {
+        float offset = codes.getFloat(base);
+        float scale = codes.getFloat(base + Float.BYTES);
+        int codeBase = base + HEADER_BYTES;
+
+        float acc = 0.0f;
+        for (int d = 0; d < query.length; d++) {
+            acc += query[d] * (codes.get(codeBase + d) + 128);
+        }
+        return offset * querySum + scale * acc;
+    }
+
+    /**
+     * 近似点积的误差上界：每个分量的量化误差不超过 scale / 2，
+     * 因此 |q·v - 近似值| ≤ scale / 2 · Σ|q|（再放宽一点以容纳浮点舍入）
+     *
+     * @param codes         编码缓冲区
+     * @param base          该行编码的起始字节位置
+     * @param queryAbsSum   查询向量各分量绝对值之和
+     */
+    static float errorBound(ByteBuffer codes, int base, float queryAbsSum) {
+        float scale = codes.getFloat(base + Float.BYTES);
+        return scale * 0.5f * queryAbsSum * 1.001f + 1e-6f;
+    }
+}
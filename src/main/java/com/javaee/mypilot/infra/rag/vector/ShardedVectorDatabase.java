@@ -0,0 +1,349 @@
+package com.javaee.mypilot.infra.rag.vector;
+
+import com.javaee.mypilot.core.model.rag.DocumentChunk;
+import com.javaee.mypilot.core.model.rag.SearchFilter;
+import com.javaee.mypilot.core.model.rag.SparseVector;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * 按来源类型分片的向量数据库
+ *
+ * <p>课程材料（STATIC）只在同步课程材料时写入，放在单独的分片中，可以以内存映射方式打开，
+ * 不受用户上传引起的合并、删除和写锁影响；用户上传（USER_UPLOADED）放在另一个较小的可写分片。
+ * 写入按分块的来源类型路由，检索同时查询两个分片再按相似度合并 topK，
+ * 按来源类型清空时直接删除整个分片目录并重新打开空分片。
+ *
+ * <p>批量导入会话记录自己写入的分片实例，每次写入时与当前分片核对；
+ * 会话期间分片被清空时，旧分片已经关闭，会话随之失效，之后的写入直接拒绝。
+ */
+public class ShardedVectorDatabase implements VectorDatabase {
+    private final Function<DocumentChunk.SourceType, VectorDatabase> opener;
+    private final Function<DocumentChunk.SourceType, Path> locator;
+    private final Map<DocumentChunk.SourceType, VectorDatabase> shards = new EnumMap<>(DocumentChunk.SourceType.class);
+    // 读锁：访问分片；写锁：删除并重新打开分片
+    private final ReadWriteLock shardLock = new ReentrantReadWriteLock();
+
+    /**
+     * 构造函数
+     *
+     * @param opener  按来源类型打开分片
+     * @param locator 分片的存储目录，清空分片时整体删除
+     */
+    public ShardedVectorDatabase(Function<DocumentChunk.SourceType, VectorDatabase> opener,
+                                 Function<DocumentChunk.SourceType, Path> locator) {
+        this.opener = opener;
+        this.locator = locator;
+        for (DocumentChunk.SourceType type : DocumentChunk.SourceType.values()) {
+            shards.put(type, opener.apply(type));
+        }
+    }
+
+    @Override
+    public void index(List<DocumentChunk> chunks) {
+        shardLock.readLock().lock();
+        try {
+            for (Map.Entry<DocumentChunk.SourceType, List<DocumentChunk>> part : partition(chunks).entrySet()) {
+                shards.get(part.getKey()).index(part.getValue());
+            }
+        } finally {
+            shardLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public BulkSession openBulkSession() {
+        return new ShardedBulkSession();
+    }
+
+    @Override
+    public List<DocumentChunk> search(float[] embedding, int topK, SearchFilter filter, boolean includeEmbedding) {
+        shardLock.readLock().lock();
+        try {
+            // 用户上传分片通常很小，两个分片顺序查询；各分片内部已按段并行
+            List<DocumentChunk> results = new ArrayList<>();
+            for (VectorDatabase shard : targetShards(filter)) {
+                results.addAll(shard.search(embedding, topK, filter, includeEmbedding));
+            }
+            return mergeTopK(results, topK);
+        } finally {
+            shardLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<DocumentChunk> searchSparse(SparseVector query, int topK, SearchFilter filter) {
+        shardLock.readLock().lock();
+        try {
+            // 稀疏向量已归一化，各分片的点积分数可以直接比较
+            List<DocumentChunk> results = new ArrayList<>();
+            for (VectorDatabase shard : targetShards(filter)) {
+                results.addAll(shard.searchSparse(query, topK, filter));
+            }
+            return mergeTopK(results, topK);
+        } finally {
+            shardLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<DocumentChunk> searchText(String queryText, int topK, SearchFilter filter) {
+        shardLock.readLock().lock();
+        try {
+            // 各分片的 BM25 统计量独立计算，分数只近似可比，融合时仅用于排名
+            List<DocumentChunk> results = new ArrayList<>();
+            for (VectorDatabase shard : targetShards(filter)) {
+                results.addAll(shard.searchText(queryText, topK, filter));
+            }
+            return mergeTopK(results, topK);
+        } finally {
+            shardLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int getDocumentCount() {
+        shardLock.readLock().lock();
+        try {
+            int count = 0;
+            for (VectorDatabase shard : shards.values()) {
+                count += shard.getDocumentCount();
+            }
+            return count;
+        } finally {
+            shardLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<FileInfo> getAllFiles() {
+        shardLock.readLock().lock();
+        try {
+            List<FileInfo> files = new ArrayList<>();
+            for (VectorDatabase shard : shards.values()) {
+                files.addAll(shard.getAllFiles());
+            }
+            files.sort(Comparator.comparing(file -> file.fileName));
+            return files;
+        } finally {
+            shardLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int deleteBySource(String source) {
+        shardLock.readLock().lock();
+        try {
+            int deleted = 0;
+            for (VectorDatabase shard : shards.values()) {
+                deleted += shard.deleteBySource(source);
+            }
+            return deleted;
+        } finally {
+            shardLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<String> getChunkIds(String source) {
+        shardLock.readLock().lock();
+        try {
+            Set<String> ids = new HashSet<>();
+            for (VectorDatabase shard : shards.values()) {
+                ids.addAll(shard.getChunkIds(source));
+            }
+            return ids;
+        } finally {
+            shardLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, String> getChunkContents(String source) {
+        shardLock.readLock().lock();
+        try {
+            Map<String, String> contents = new HashMap<>();
+            for (VectorDatabase shard : shards.values()) {
+                contents.putAll(shard.getChunkContents(source));
+            }
+            return contents;
+        } finally {
+            shardLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int retainChunks(String source, Set<String> keepIds) {
+        shardLock.readLock().lock();
+        try {
+            int deleted = 0;
+            for (VectorDatabase shard : shards.values()) {
+                deleted += shard.retainChunks(source, keepIds);
+            }
+            return deleted;
+        } finally {
+            shardLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 预构建索引只包含课程材料，挂载到课程材料分片
+     */
+    @Override
+    public boolean addIndex(Path indexDir, Collection<String> sources) {
+        shardLock.readLock().lock();
+        try {
+            return shards.get(DocumentChunk.SourceType.STATIC).addIndex(indexDir, sources);
+        } finally {
+            shardLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 清空分片：关闭后删除整个分片目录，再打开一个空分片，不逐条删除文档
+     * @param sourceType 文档来源类型（null 表示清空所有分片）
+     */
+    @Override
+    public void clear(DocumentChunk.SourceType sourceType) {
+        shardLock.writeLock().lock();
+        try {
+            for (DocumentChunk.SourceType type : DocumentChunk.SourceType.values()) {
+                if (sourceType == null || sourceType == type) {
+                    dropShard(type);
+                }
+            }
+        } finally {
+            shardLock.writeLock().unlock();
+        }
+    }
+
+    private void dropShard(DocumentChunk.SourceType type) {
+        shards.get(type).close();
+        Path dir = locator.apply(type);
+        if (dir != null && Files.exists(dir)) {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            } catch (IOException e) {
+                throw new RuntimeException("删除索引分片失败: " + e.getMessage(), e);
+            }
+        }
+        shards.put(type, opener.apply(type));
+        System.out.println("已清空" + (type == DocumentChunk.SourceType.STATIC ? "静态资源" : "用户上传") + "分片");
+    }
+
+    @Override
+    public void close() {
+        shardLock.writeLock().lock();
+        try {
+            for (VectorDatabase shard : shards.values()) {
+                shard.close();
+            }
+        } finally {
+            shardLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 过滤条件限定了来源类型时只查询对应分片
+     */
+    private Collection<VectorDatabase> targetShards(SearchFilter filter) {
+        if (filter != null && filter.getSourceType() != null) {
+            return List.of(shards.get(filter.getSourceType()));
+        }
+        return shards.values();
+    }
+
+    /**
+     * 按来源类型拆分分块，缺少来源类型的分块按用户上传处理
+     */
+    private static Map<DocumentChunk.SourceType, List<DocumentChunk>> partition(List<DocumentChunk> chunks) {
+        Map<DocumentChunk.SourceType, List<DocumentChunk>> parts = new EnumMap<>(DocumentChunk.SourceType.class);
+        for (DocumentChunk chunk : chunks) {
+            DocumentChunk.SourceType type = chunk.getSourceType() != null ?
+                chunk.getSourceType() : DocumentChunk.SourceType.USER_UPLOADED;
+            parts.computeIfAbsent(type, t -> new ArrayList<>()).add(chunk);
+        }
+        return parts;
+    }
+
+    /**
+     * 合并各分片结果：按相似度降序取前 topK
+     */
+    private static List<DocumentChunk> mergeTopK(List<DocumentChunk> results, int topK) {
+        results.sort((a, b) -> Float.compare(b.getSimilarity(), a.getSimilarity()));
+        return results.size() > topK ? new ArrayList<>(results.subList(0, topK)) : results;
+    }
+
+    /**
+     * 分片批量导入会话：按需为涉及的分片各打开一个会话，close 时依次提交
+     */
+    private final class ShardedBulkSession implements BulkSession {
+        private final Map<DocumentChunk.SourceType, ShardSession> sessions = new EnumMap<>(DocumentChunk.SourceType.class);
+
+        @Override
+        public void add(List<DocumentChunk> chunks) {
+            shardLock.readLock().lock();
+            try {
+                // 先整体核对再写入，避免一批分块只写入了一部分分片
+                for (Map.Entry<DocumentChunk.SourceType, ShardSession> entry : sessions.entrySet()) {
+                    if (entry.getValue().shard != shards.get(entry.getKey())) {
+                        throw new IllegalStateException("批量导入期间索引分片已被清空，会话已失效");
+                    }
+                }
+                for (Map.Entry<DocumentChunk.SourceType, List<DocumentChunk>> part : partition(chunks).entrySet()) {
+                    sessions.computeIfAbsent(part.getKey(), type -> new ShardSession(shards.get(type)))
+                        .session.add(part.getValue());
+                }
+            } finally {
+                shardLock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            shardLock.readLock().lock();
+            try {
+                for (Map.Entry<DocumentChunk.SourceType, ShardSession> entry : sessions.entrySet()) {
+                    ShardSession shardSession = entry.getValue();
+                    if (shardSession.shard == shards.get(entry.getKey())) {
+                        shardSession.session.close();
+                    } else {
+                        // 旧分片已关闭并删除，会话内的写入随清空一起丢弃
+                        System.err.println("索引分片已被清空，跳过提交失效的批量导入会话");
+                    }
+                }
+                sessions.clear();
+            } finally {
+                shardLock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * 单个分片上的批量导入会话及其所属的分片实例
+     */
+    private static final class ShardSession {
+        private final VectorDatabase shard;
+        private final BulkSession session;
+
+        ShardSession(VectorDatabase shard) {
+            this.shard = shard;
+            this.session = shard.openBulkSession();
+        }
+    }
+}
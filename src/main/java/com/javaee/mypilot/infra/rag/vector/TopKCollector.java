@@ -0,0 +1,115 @@
+package com.javaee.mypilot.infra.rag.vector;
+
+/**
+ * 容量为 K 的 (docId, score) 小顶堆收集器
+ *
+ * <p>使用两个原始类型数组存放堆，不为每个候选分配对象；
+ * 流式收集 N 个候选的代价为 O(N log K)。非线程安全，并行场景下每个分片各用一个再 {@link #merge}。
+ */
+public final class TopKCollector {
+    private final int capacity;
+    private final int[] docs;
+    private final float[] scores;
+    private int size;
+
+    public TopKCollector(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        this.docs = new int[this.capacity];
+        this.scores = new float[this.capacity];
+    }
+
+    /**
+     * 收集一个候选；堆满时只有分数高于当前最小值才会替换堆顶
+     */
+    public void collect(int doc, float score) {
+        if (size < capacity) {
+            docs[size] = doc;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (capacity > 0 && score > scores[0]) {
+            docs[0] = doc;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * 堆满后新候选需要超过的分数；未满时为负无穷
+     */
+    public float minCompetitiveScore() {
+        return size < capacity ? Float.NEGATIVE_INFINITY : scores[0];
+    }
+
+    /**
+     * 合并另一个收集器的结果
+     */
+    public void merge(TopKCollector other) {
+        for (int i = 0; i < other.size; i++) {
+            collect(other.docs[i], other.scores[i]);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 按分数降序返回收集到的 docId；调用后收集器被清空
+     */
+    public int[] drainDocs(float[] scoresOut) {
+        int count = size;
+        int[] result = new int[count];
+        // 反复弹出堆顶（最小值），从后往前填充即为降序
+        for (int i = count - 1; i >= 0; i--) {
+            result[i] = docs[0];
+            if (scoresOut != null) {
+                scoresOut[i] = scores[0];
+            }
+            size--;
+            docs[0] = docs[size];
+            scores[0] = scores[size];
+            siftDown(0);
+        }
+        return result;
+    }
+
+    private void siftUp(int i) {
+        int doc = docs[i];
+        float score = scores[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (scores[parent] <= score) {
+                break;
+            }
+            docs[i] = docs[parent];
+            scores[i] = scores[parent];
+            i = parent;
+        }
+        docs[i] = doc;
+        scores[i] = score;
+    }
+
+    private void siftDown(int i) {
+        if (size == 0) {
+            return;
+        }
+        int doc = docs[i];
+        float score = scores[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && scores[right] < scores[child]) {
+                child = right;
+            }
+            if (score <= scores[child]) {
+                break;
+            }
+            docs[i] = docs[child];
+            scores[i] = scores[child];
+            i = child;
+        }
+        docs[i] = doc;
+        scores[i] = score;
+    }
+}
@@ -1,20 +1,222 @@
 package com.javaee.mypilot.infra.rag.vector;
 
 import com.javaee.mypilot.core.model.rag.DocumentChunk;
+import com.javaee.mypilot.core.model.rag.SearchFilter;
+import com.javaee.mypilot.core.model.rag.SparseVector;
 
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 public interface VectorDatabase {
     /**
-     * 索引知识分块
+     * 索引知识分块；ID 已存在的分块被覆盖（upsert）
      */
     void index(List<DocumentChunk> chunks);
 
     /**
-     * 相似度检索
-     * 
+     * 打开批量导入会话：会话内多次 add 的分块在 close 时一次性提交
+     * 默认实现每次 add 直接调用 {@link #index}
+     */
+    default BulkSession openBulkSession() {
+        return new BulkSession() {
+            @Override
+            public void add(List<DocumentChunk> chunks) {
+                index(chunks);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * 相似度检索（结果不附带向量）
+     *
      * @param embedding 查询向量
      * @param topK      返回数量
      * @return 最相关的分块
      */
-    List<DocumentChunk> search(float[] embedding, int topK);
+    default List<DocumentChunk> search(float[] embedding, int topK) {
+        return search(embedding, topK, null, false);
+    }
+
+    /**
+     * 在过滤条件限定的范围内做相似度检索（结果不附带向量）
+     *
+     * @param embedding 查询向量
+     * @param topK      返回数量
+     * @param filter    过滤条件（null 表示不过滤）
+     * @return 最相关的分块
+     */
+    default List<DocumentChunk> search(float[] embedding, int topK, SearchFilter filter) {
+        return search(embedding, topK, filter, false);
+    }
+
+    /**
+     * 相似度检索
+     *
+     * @param embedding        查询向量
+     * @param topK             返回数量
+     * @param includeEmbedding 是否在结果分块中附带向量（检索问答不需要，省去一次解码）
+     * @return 最相关的分块
+     */
+    default List<DocumentChunk> search(float[] embedding, int topK, boolean includeEmbedding) {
+        return search(embedding, topK, null, includeEmbedding);
+    }
+
+    /**
+     * 相似度检索；过滤条件在打分前生效（预过滤），不会因为先取 topK 再过滤而丢失结果
+     *
+     * @param embedding        查询向量
+     * @param topK             返回数量
+     * @param filter           过滤条件（null 表示不过滤）
+     * @param includeEmbedding 是否在结果分块中附带向量
+     * @return 最相关的分块
+     */
+    List<DocumentChunk> search(float[] embedding, int topK, SearchFilter filter, boolean includeEmbedding);
+
+    /**
+     * 稀疏向量检索：分块的稀疏表示作为带权词项写入倒排索引，查询只访问自身特征的倒排表，
+     * 相似度为两个稀疏向量的点积
+     *
+     * @param query  查询的稀疏表示
+     * @param topK   返回数量
+     * @param filter 过滤条件（null 表示不过滤）
+     * @return 最相关的分块；不支持稀疏检索的实现返回空列表
+     */
+    default List<DocumentChunk> searchSparse(SparseVector query, int topK, SearchFilter filter) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * 关键词（BM25）检索，结果分块的相似度为 BM25 原始分数
+     *
+     * @param queryText 查询文本
+     * @param topK      返回数量
+     * @return 最相关的分块；不支持全文检索的实现返回空列表
+     */
+    default List<DocumentChunk> searchText(String queryText, int topK) {
+        return searchText(queryText, topK, null);
+    }
+
+    /**
+     * 在过滤条件限定的范围内做关键词（BM25）检索
+     *
+     * @param queryText 查询文本
+     * @param topK      返回数量
+     * @param filter    过滤条件（null 表示不过滤）
+     * @return 最相关的分块；不支持全文检索的实现返回空列表
+     */
+    default List<DocumentChunk> searchText(String queryText, int topK, SearchFilter filter) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * 获取索引中的文档数量
+     */
+    int getDocumentCount();
+
+    /**
+     * 获取知识库中的所有唯一文件列表
+     *
+     * @return 文件信息列表（包含文件名、来源类型、文档块数量）
+     */
+    List<FileInfo> getAllFiles();
+
+    /**
+     * 删除指定源文件的所有文档块
+     *
+     * @param source 源文件名
+     * @return 删除的文档数量
+     */
+    int deleteBySource(String source);
+
+    /**
+     * 获取指定源文件已索引的分块 ID
+     *
+     * @param source 源文件名
+     * @return 分块 ID 集合
+     */
+    Set<String> getChunkIds(String source);
+
+    /**
+     * 获取指定源文件已索引分块的文本（删除分块前用于更新语料统计）
+     *
+     * @param source 源文件名
+     * @return 分块 ID -> 分块文本；不保存文本的实现返回空表
+     */
+    default Map<String, String> getChunkContents(String source) {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * 删除指定源文件中 ID 不在给定集合内的分块（文件内容变化后清理旧分块）
+     *
+     * @param source   源文件名
+     * @param keepIds  需要保留的分块 ID
+     * @return 删除的文档数量
+     */
+    int retainChunks(String source, Set<String> keepIds);
+
+    /**
+     * 挂载预构建索引：先删除这些源文件已有的分块，再把预构建索引的段直接加入当前索引，
+     * 不重新解析和嵌入
+     *
+     * @param indexDir 预构建索引目录（须由同一 Embedding 模型生成）
+     * @param sources  预构建索引包含的源文件名
+     * @return 是否挂载成功；不支持挂载的实现返回 false，由调用方正常导入
+     */
+    default boolean addIndex(Path indexDir, Collection<String> sources) {
+        return false;
+    }
+
+    /**
+     * 根据来源类型清空索引
+     * @param sourceType 文档来源类型（null 表示删除所有文档）
+     */
+    void clear(DocumentChunk.SourceType sourceType);
+
+    /**
+     * 关闭资源
+     */
+    void close();
+
+    /**
+     * 批量导入会话，建议配合 try-with-resources 使用
+     */
+    interface BulkSession extends AutoCloseable {
+        /**
+         * 添加一批分块（不立即提交）
+         */
+        void add(List<DocumentChunk> chunks);
+
+        /**
+         * 提交会话内添加的全部分块
+         */
+        @Override
+        void close();
+    }
+
+    /**
+     * 文件信息类
+     */
+    class FileInfo {
+        public final String fileName;
+        public final DocumentChunk.SourceType sourceType;
+        public int chunkCount;
+
+        public FileInfo(String fileName, DocumentChunk.SourceType sourceType, int chunkCount) {
+            this.fileName = fileName;
+            this.sourceType = sourceType;
+            this.chunkCount = chunkCount;
+        }
+
+        public String getSourceTypeDisplayName() {
+            return sourceType == DocumentChunk.SourceType.STATIC ? "静态资源" : "用户上传";
+        }
+    }
 }
@@ -0,0 +1,37 @@
+package com.javaee.mypilot.infra.rag.vector;
+
+/**
+ * 向量运算工具
+ *
+ * <p>检索链路约定：向量在索引时归一化一次，查询在 Retriever 中归一化一次，
+ * 之后的相似度一律是单位向量的点积（即余弦相似度）。
+ */
+public final class VectorMath {
+    private VectorMath() {
+    }
+
+    /**
+     * 返回 L2 归一化后的副本；零向量原样复制
+     */
+    public static float[] normalize(float[] vector) {
+        float[] result = vector.clone();
+        float norm = (float) Math.sqrt(dot(vector, vector));
+        if (norm > 0) {
+            for (int i = 0; i < result.length; i++) {
+                result[i] /= norm;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 点积
+     */
+    public static float dot(float[] a, float[] b) {
+        float sum = 0.0f;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
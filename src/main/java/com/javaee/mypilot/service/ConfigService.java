@@ -48,11 +48,19 @@ public final class ConfigService implements PersistentStateComponent<ConfigServi
         // RAG Embedding 配置
         public String embeddingServiceType = ""; // DashScope, Zhipu, Local
         public String embeddingApiKey = ""; // 用户需要自行配置
+        public int embeddingParallelism = 4; // 远程 Embedding 最多同时进行的请求数
+
+        // 向量存储配置
+        public String vectorStoreType = "Lucene"; // Lucene, Mapped
+        public int ivfNprobe = 8; // Mapped 存储的 IVF 探测列表数：越大召回越高、延迟越高
+        public boolean memoryMappedStaticShard = false; // 课程材料分片以 MMapDirectory 打开（Lucene 存储）
+        public boolean sparseLocalRetrieval = false; // 本地嵌入改用稀疏特征倒排检索（Lucene 存储）
 
 
         // RAG 检索配置
         public int retrievalTopK = 5;
         public double relevanceThreshold = 0.3;
+        public String retrievalMode = "Vector"; // Vector, Hybrid（向量 + 关键词融合）
 
         // LLM API 配置
         public String llmApiType = ""; // DeepSeek, OpenAI, QianWen, ZhiPu, etc.
@@ -91,6 +99,15 @@ public final class ConfigService implements PersistentStateComponent<ConfigServi
         if (config.embeddingApiKey == null) {
             config.embeddingApiKey = "";
         }
+        if (config.embeddingParallelism <= 0) {
+            config.embeddingParallelism = 4;
+        }
+        if (config.vectorStoreType == null || config.vectorStoreType.isEmpty()) {
+            config.vectorStoreType = "Lucene";
+        }
+        if (config.ivfNprobe <= 0) {
+            config.ivfNprobe = 8;
+        }
         // LLM API 配置空值处理
         if (config.llmApiType == null || config.llmApiType.isEmpty()) {
             config.llmApiType = "";
@@ -108,6 +125,9 @@ public final class ConfigService implements PersistentStateComponent<ConfigServi
         if (config.retrievalTopK <= 0) {
             config.retrievalTopK = 5;
         }
+        if (config.retrievalMode == null || config.retrievalMode.isEmpty()) {
+            config.retrievalMode = "Vector";
+        }
         // 如果阈值 <=0，重置为默认值 0.3
         // 注意：>0.5 的值也允许，实际使用时会在 RagService 中被限制为 0.5
         if (config.relevanceThreshold <= 0) {
@@ -149,6 +169,54 @@ public final class ConfigService implements PersistentStateComponent<ConfigServi
         return myConfig.embeddingApiKey;
     }
 
+    public void setEmbeddingParallelism(int parallelism) {
+        myConfig.embeddingParallelism = parallelism;
+    }
+
+    public int getEmbeddingParallelism() {
+        return myConfig.embeddingParallelism;
+    }
+
+    public void setVectorStoreType(String type) {
+        myConfig.vectorStoreType = type;
+    }
+
+    public String getVectorStoreType() {
+        return myConfig.vectorStoreType;
+    }
+
+    public void setIvfNprobe(int nprobe) {
+        myConfig.ivfNprobe = nprobe;
+    }
+
+    public int getIvfNprobe() {
+        return myConfig.ivfNprobe;
+    }
+
+    public void setMemoryMappedStaticShard(boolean memoryMapped) {
+        myConfig.memoryMappedStaticShard = memoryMapped;
+    }
+
+    public boolean isMemoryMappedStaticShard() {
+        return myConfig.memoryMappedStaticShard;
+    }
+
+    public void setSparseLocalRetrieval(boolean sparse) {
+        myConfig.sparseLocalRetrieval = sparse;
+    }
+
+    public boolean isSparseLocalRetrieval() {
+        return myConfig.sparseLocalRetrieval;
+    }
+
+    public void setRetrievalMode(String mode) {
+        myConfig.retrievalMode = mode;
+    }
+
+    public String getRetrievalMode() {
+        return myConfig.retrievalMode;
+    }
+
     public void setRetrievalTopK(int topK) {
         myConfig.retrievalTopK = topK;
     }
@@ -1,5 +1,6 @@
 package com.javaee.mypilot.service;
 
+import com.intellij.openapi.Disposable;
 import com.intellij.openapi.components.Service;
 import com.intellij.openapi.project.Project;
 import com.javaee.mypilot.core.consts.Chat;
@@ -7,31 +8,50 @@ import com.javaee.mypilot.core.model.chat.ChatMessage;
 import com.javaee.mypilot.core.model.chat.ChatSession;
 import com.javaee.mypilot.core.model.chat.CodeContext;
 import com.javaee.mypilot.core.model.rag.DocumentChunk;
+import com.javaee.mypilot.infra.AppExecutors;
 import com.javaee.mypilot.infra.api.LlmClient;
 import com.javaee.mypilot.infra.api.RagPrompt;
+import com.javaee.mypilot.infra.rag.KnowledgeBaseManifest;
+import com.javaee.mypilot.infra.rag.KnowledgeBaseRegistry;
+import com.javaee.mypilot.infra.rag.PrebuiltIndex;
 import com.javaee.mypilot.infra.rag.Retriever;
 import com.javaee.mypilot.infra.rag.document.*;
+import com.javaee.mypilot.infra.rag.embedding.CachedEmbeddingService;
 import com.javaee.mypilot.infra.rag.embedding.DashScopeEmbeddingService;
+import com.javaee.mypilot.infra.rag.embedding.DocumentFrequencyTable;
+import com.javaee.mypilot.infra.rag.embedding.EmbeddingScheduler;
 import com.javaee.mypilot.infra.rag.embedding.EmbeddingService;
 import com.javaee.mypilot.infra.rag.embedding.LocalEmbeddingService;
 import com.javaee.mypilot.infra.rag.embedding.ZhipuEmbeddingService;
 import com.javaee.mypilot.infra.rag.vector.LuceneVectorDatabase;
+import com.javaee.mypilot.infra.rag.vector.MappedVectorDatabase;
+import com.javaee.mypilot.infra.rag.vector.ShardedVectorDatabase;
 import com.javaee.mypilot.infra.rag.vector.VectorDatabase;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * RAG (Retrieval-Augmented Generation) 服务
  * RAG Service for knowledge retrieval and answer generation
  */
 @Service(Service.Level.PROJECT)
-public final class RagService {
+public final class RagService implements Disposable {
 
     private final Project project;
     private final ConfigService configService;
@@ -40,6 +60,10 @@ public final class RagService {
     private EmbeddingService embeddingService;
     private VectorDatabase vectorDatabase;
     private Retriever retriever;
+    private KnowledgeBaseManifest manifest;
+    private DocumentFrequencyTable documentFrequencies;
+    private String documentFrequencyPath;
+    private final AtomicBoolean reweighting = new AtomicBoolean();
     private DocumentProcessor pptDocumentProcessor;
     private DocumentProcessor pdfDocumentProcessor;
     private DocumentProcessor docDocumentProcessor;
@@ -65,18 +89,31 @@ public final class RagService {
         }
 
         try {
-            // 1. 初始化 Embedding 服务
-            this.embeddingService = createEmbeddingService();
-
-            // 2. 初始化向量数据库
             String indexPath = configService.getKnowledgeBasePath();
             if (indexPath == null || indexPath.isEmpty()) {
                 indexPath = System.getProperty("user.home") + File.separator + ".mypilot" + File.separator + "vector_index";
             }
-            this.vectorDatabase = new LuceneVectorDatabase(indexPath);
+
+            // 1. 初始化 Embedding 服务（本地嵌入的 IDF 来自与索引共享的文档频率表）
+            KnowledgeBaseRegistry registry = KnowledgeBaseRegistry.getInstance();
+            this.documentFrequencyPath = storePath(indexPath) + "_df.bin";
+            // 远程嵌入不使用 IDF，不持有也不维护文档频率表；表由注册表在没有本地嵌入的项目使用时清空
+            boolean localEmbedding = "Local".equals(configService.getEmbeddingServiceType());
+            this.documentFrequencies = localEmbedding ? registry.trackDocumentFrequencies(documentFrequencyPath) : null;
+            this.embeddingService = createEmbeddingService();
+            if (!localEmbedding) {
+                registry.invalidateDocumentFrequencies(documentFrequencyPath);
+            }
+
+            // 2. 初始化向量数据库
+            // 同一存储在应用内只打开一次，各项目共享索引、清单和文档频率表
+            this.vectorDatabase = createVectorDatabase(indexPath);
+            this.manifest = registry.manifest(storePath(indexPath) + "_manifest.json");
+            rebuildDocumentFrequenciesIfMissing();
 
             // 3. 初始化检索器
-            this.retriever = new Retriever(embeddingService, vectorDatabase);
+            this.retriever = new Retriever(embeddingService, vectorDatabase,
+                AppExecutors.getInstance(project).getIoExecutor(), "Hybrid".equals(configService.getRetrievalMode()));
 
             // 4. 初始化文档处理器
             this.pptDocumentProcessor = new PPTDocumentProcessor(embeddingService);
@@ -94,7 +131,7 @@ public final class RagService {
             this.initialized = true;
             System.out.println("RagService components initialized successfully");
 
-            // 7. 自动从PPT文件夹加载知识库（如果知识库为空）
+            // 7. 按清单增量同步课程材料和用户上传目录
             autoLoadKnowledgeBase();
         } catch (Exception e) {
             System.err.println("Failed to initialize RAG components: " + e.getMessage());
@@ -136,18 +173,36 @@ public final class RagService {
         }
     }
 
+    /**
+     * 项目关闭时释放共享索引的引用
+     */
+    @Override
+    public void dispose() {
+        closeResources();
+        this.initialized = false;
+    }
+
     /**
      * 关闭所有资源
      */
     private void closeResources() {
         try {
-            // 关闭向量数据库（这会释放 Lucene 索引锁）
-            if (vectorDatabase instanceof LuceneVectorDatabase) {
-                ((LuceneVectorDatabase) vectorDatabase).close();
+            // 释放对共享索引的引用，最后一个使用该索引的项目释放时才真正关闭（释放 Lucene 索引锁）
+            if (vectorDatabase != null) {
+                vectorDatabase.close();
             }
             
             // 清空引用
+            if (manifest != null) {
+                manifest.save();
+            }
+            if (documentFrequencies != null) {
+                documentFrequencies.save();
+                KnowledgeBaseRegistry.getInstance().untrackDocumentFrequencies(documentFrequencyPath);
+            }
             this.vectorDatabase = null;
+            this.manifest = null;
+            this.documentFrequencies = null;
             this.embeddingService = null;
             this.retriever = null;
             this.pptDocumentProcessor = null;
@@ -165,52 +220,263 @@ public final class RagService {
     }
 
     /**
-     * 自动从资源中提取并加载知识库
+     * 自动从资源中提取课程材料，并按清单增量同步知识库
      */
     private void autoLoadKnowledgeBase() {
         try {
-            // 检查知识库是否已有内容
-            if (isKnowledgeBaseInitialized()) {
-                System.out.println("知识库已存在，跳过自动加载");
-                return;
-            }
-
             // 从 JAR 资源中提取课程材料到用户目录
             File materialDir = extractCourseMaterialsFromResources();
             if (materialDir == null || !materialDir.exists()) {
-                System.out.println("无法提取课程材料，跳过自动加载");
+                System.out.println("无法提取课程材料，只同步用户上传目录");
+            } else {
+                mountPrebuiltIndex(materialDir);
+            }
+
+            syncKnowledgeBase(materialDir);
+        } catch (Exception e) {
+            System.err.println("自动加载知识库时出错: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 课程材料尚未索引时，挂载插件内与当前 Embedding 模型对应的预构建索引，
+     * 并导入其清单，随后的同步只需确认文件内容一致，不再解析和嵌入课程材料
+     */
+    private void mountPrebuiltIndex(File materialDir) {
+        if (manifest.containsType(DocumentChunk.SourceType.STATIC)) {
+            return;
+        }
+
+        Path workDir = null;
+        try {
+            long startTime = System.currentTimeMillis();
+            workDir = Files.createTempDirectory("mypilot-prebuilt");
+            // 按模型 ID 查找预构建索引，目前只打包了 Local 模型
+            KnowledgeBaseManifest prebuilt = PrebuiltIndex.extract(
+                getClass().getClassLoader(), embeddingService.getModelId(), workDir);
+            if (prebuilt == null) {
+                System.out.println("插件中没有 " + embeddingService.getModelId() + " 的预构建索引，课程材料将正常导入");
                 return;
             }
 
-            // 收集所有课程材料文件
-            List<File> materialFiles = new ArrayList<>();
-            File[] files = materialDir.listFiles();
-            if (files != null) {
-                for (File file : files) {
-                    String fileName = file.getName().toLowerCase();
-                    if (fileName.endsWith(".pdf") || fileName.endsWith(".ppt") || fileName.endsWith(".pptx") ||
-                        fileName.endsWith(".doc") || fileName.endsWith(".docx") ||
-                        fileName.endsWith(".txt") || fileName.endsWith(".md")) {
-                        materialFiles.add(file);
+            List<String> sources = prebuilt.sources();
+            if (vectorDatabase.addIndex(workDir.resolve(PrebuiltIndex.INDEX_DIR), sources)) {
+                manifest.importFrom(prebuilt, materialDir);
+                manifest.save();
+                // 采用包内的文档频率和 IDF 快照，预构建向量的模型 ID 才与本地一致；
+                // 本地已有统计时改为把挂载的分块计入，模型 ID 不一致的文件随后由同步重新嵌入
+                if (tracksDocumentFrequencies()) {
+                    DocumentFrequencyTable prebuiltFrequencies = new DocumentFrequencyTable(
+                        workDir.resolve(PrebuiltIndex.DOCUMENT_FREQUENCY_ENTRY).toString());
+                    if (!documentFrequencies.adopt(prebuiltFrequencies)) {
+                        for (String source : sources) {
+                            documentFrequencies.addDocuments(vectorDatabase.getChunkContents(source).values());
+                        }
                     }
+                    documentFrequencies.save();
                 }
+                System.out.println("已挂载预构建索引: " + sources.size() + " 个课程材料文件，耗时 " +
+                    (System.currentTimeMillis() - startTime) + "ms");
             }
+        } catch (IOException e) {
+            System.err.println("挂载预构建索引失败，课程材料将正常导入: " + e.getMessage());
+        } finally {
+            PrebuiltIndex.deleteQuietly(workDir);
+        }
+    }
 
-            if (materialFiles.isEmpty()) {
-                System.out.println("未找到课程材料文件");
-                return;
+    /**
+     * 增量同步知识库：对比课程材料目录、用户上传目录与清单，
+     * 只解析、索引新增或内容变化的文件，并删除已不存在的文件的分块
+     *
+     * @return 是否有文件被索引或删除
+     */
+    public boolean syncKnowledgeBase() {
+        if (!initialized) {
+            initialize();
+        }
+        return syncKnowledgeBase(courseMaterialDir());
+    }
+
+    private boolean syncKnowledgeBase(File materialDir) {
+        KnowledgeBaseManifest manifest = this.manifest;
+        if (!initialized || vectorDatabase == null || manifest == null) {
+            return false;
+        }
+
+        // 共享同一索引的项目依次同步，后到的项目只会看到文件均未变化
+        boolean modified;
+        synchronized (manifest) {
+            // 同步前更新过期的 IDF 快照，旧快照生成的文件在本次同步中重新嵌入
+            restampDocumentFrequencies();
+            modified = syncKnowledgeBase(materialDir, manifest);
+        }
+        scheduleReweight();
+        return modified;
+    }
+
+    private boolean syncKnowledgeBase(File materialDir, KnowledgeBaseManifest manifest) {
+        long startTime = System.currentTimeMillis();
+        Map<DocumentChunk.SourceType, File> folders = new LinkedHashMap<>();
+        if (materialDir != null && materialDir.isDirectory()) {
+            folders.put(DocumentChunk.SourceType.STATIC, materialDir);
+        }
+        File uploadDir = new File(configService.getUserUploadPath());
+        if (uploadDir.isDirectory()) {
+            folders.put(DocumentChunk.SourceType.USER_UPLOADED, uploadDir);
+        }
+
+        Set<String> present = new HashSet<>();
+        int unchanged = 0;
+        boolean modified = false;
+        for (Map.Entry<DocumentChunk.SourceType, File> folder : folders.entrySet()) {
+            List<File> files = new ArrayList<>();
+            collectSupportedFiles(folder.getValue(), files);
+
+            List<File> changedFiles = new ArrayList<>();
+            for (File file : files) {
+                present.add(file.getName());
+                KnowledgeBaseManifest.Entry entry = manifest.get(file.getName());
+                // Embedding 模型变化后需要重新嵌入
+                if (entry != null && !entry.excluded && !entry.matchesModel(embeddingService.getModelId())) {
+                    changedFiles.add(file);
+                    continue;
+                }
+                if (entry != null && entry.matchesStat(file)) {
+                    unchanged++;
+                    continue;
+                }
+                // 大小或修改时间变了：内容摘要相同则只更新清单
+                if (entry != null && !entry.excluded && entry.contentHash != null) {
+                    try {
+                        if (entry.contentHash.equals(KnowledgeBaseManifest.hashFile(file))) {
+                            manifest.touch(file.getName(), file);
+                            unchanged++;
+                            continue;
+                        }
+                    } catch (IOException e) {
+                        System.err.println("读取文件失败 " + file.getName() + ": " + e.getMessage());
+                    }
+                }
+                changedFiles.add(file);
             }
 
-            System.out.println("发现 " + materialFiles.size() + " 个课程材料文件，开始自动索引...");
-            // 显式指定静态资源类型
-            boolean success = initializeKnowledgeBase(materialFiles, DocumentChunk.SourceType.STATIC);
-            if (success) {
-                System.out.println("知识库自动加载完成！");
+            if (!changedFiles.isEmpty()) {
+                System.out.println("同步: " + folder.getValue().getPath() + " 中有 " + changedFiles.size() + " 个新增或变化的文件");
+                initializeKnowledgeBase(changedFiles, folder.getKey());
+                modified = true;
             }
-        } catch (Exception e) {
-            System.err.println("自动加载知识库时出错: " + e.getMessage());
-            e.printStackTrace();
         }
+
+        // 清单中有、目录中已不存在的文件：删除其分块（只处理本次扫描过的目录对应的来源类型）
+        for (String source : manifest.sources()) {
+            KnowledgeBaseManifest.Entry entry = manifest.get(source);
+            if (present.contains(source) || !folders.containsKey(entry.sourceType())) {
+                continue;
+            }
+            if (!entry.excluded) {
+                forgetChunks(source);
+                vectorDatabase.deleteBySource(source);
+                modified = true;
+            }
+            manifest.remove(source);
+        }
+
+        manifest.save();
+        saveDocumentFrequencies();
+        System.out.println("知识库同步完成: " + unchanged + " 个文件未变化，耗时 " +
+            (System.currentTimeMillis() - startTime) + "ms");
+        return modified;
+    }
+
+    /**
+     * 只有本地嵌入使用 IDF：文档频率表的统计、保存和快照都只在本地嵌入时进行，
+     * 远程嵌入时不读取分块文本，也不写 DF 表
+     */
+    private boolean tracksDocumentFrequencies() {
+        return embeddingService instanceof LocalEmbeddingService;
+    }
+
+    private void saveDocumentFrequencies() {
+        if (tracksDocumentFrequencies()) {
+            documentFrequencies.save();
+        }
+    }
+
+    /**
+     * 从文档频率中减去源文件已索引的分块（须在删除分块之前调用）
+     */
+    private void forgetChunks(String source) {
+        if (!tracksDocumentFrequencies()) {
+            return;
+        }
+        documentFrequencies.removeDocuments(vectorDatabase.getChunkContents(source).values());
+    }
+
+    /**
+     * 文档频率表为空而索引中已有分块（升级前建立的索引、DF 表文件丢失，或从远程嵌入切换回来）时，
+     * 从索引中的分块文本重建
+     */
+    private void rebuildDocumentFrequenciesIfMissing() {
+        if (!tracksDocumentFrequencies()) {
+            return;
+        }
+        synchronized (manifest) {
+            if (documentFrequencies.getDocumentCount() > 0 || vectorDatabase.getDocumentCount() == 0) {
+                return;
+            }
+            long startTime = System.currentTimeMillis();
+            for (VectorDatabase.FileInfo file : vectorDatabase.getAllFiles()) {
+                documentFrequencies.addDocuments(vectorDatabase.getChunkContents(file.fileName).values());
+            }
+            documentFrequencies.save();
+            System.out.println("已从索引重建文档频率表: " + documentFrequencies.getDocumentCount() + " 个文档块，耗时 " +
+                (System.currentTimeMillis() - startTime) + "ms");
+        }
+    }
+
+    /**
+     * 本地嵌入的 IDF 快照过期时生成新版本。快照版本是本地模型 ID 的一部分，
+     * 旧版本生成的向量在清单中表现为模型不一致，由同步重新嵌入
+     */
+    private void restampDocumentFrequencies() {
+        if (!tracksDocumentFrequencies()) {
+            return;
+        }
+        int version = documentFrequencies.restamp();
+        if (version > 0) {
+            documentFrequencies.save();
+            System.out.println("文档频率已更新到第 " + version + " 版，旧向量将按新的 IDF 权重重新嵌入");
+        }
+    }
+
+    /**
+     * 增删的分块使 IDF 快照过期时，在后台同步一次：生成新快照并重新嵌入旧向量
+     */
+    private void scheduleReweight() {
+        if (!tracksDocumentFrequencies() || !documentFrequencies.needsRestamp()) {
+            return;
+        }
+        if (!reweighting.compareAndSet(false, true)) {
+            return;
+        }
+        AppExecutors.getInstance(project).getIoExecutor().execute(() -> {
+            try {
+                syncKnowledgeBase();
+            } catch (Exception e) {
+                System.err.println("后台重新计算 IDF 权重失败: " + e.getMessage());
+            } finally {
+                reweighting.set(false);
+            }
+        });
+    }
+
+    /**
+     * 课程材料的提取目录
+     */
+    private File courseMaterialDir() {
+        return new File(System.getProperty("user.home") + File.separator + ".mypilot" + File.separator + "courseMaterials");
     }
 
     /**
@@ -220,8 +486,7 @@ public final class RagService {
     private File extractCourseMaterialsFromResources() {
         try {
             // 用户目录下的课程材料文件夹
-            String userHome = System.getProperty("user.home");
-            File materialDir = new File(userHome + File.separator + ".mypilot" + File.separator + "courseMaterials");
+            File materialDir = courseMaterialDir();
 
             // 如果已经提取过，直接返回
             if (materialDir.exists() && materialDir.list() != null && materialDir.list().length > 0) {
@@ -484,12 +749,66 @@ public final class RagService {
             throw new IllegalStateException("Embedding API Key 未配置，请在设置中配置");
         }
 
-        return switch (serviceType) {
+        EmbeddingService service = switch (serviceType) {
             case "DashScope" -> new DashScopeEmbeddingService(apiKey);
             case "Zhipu" -> new ZhipuEmbeddingService(apiKey);
-            case "Local" -> new LocalEmbeddingService();
+            // 稀疏检索依赖 Lucene 的 FeatureField，Mapped 存储仍用稠密向量
+            case "Local" -> new LocalEmbeddingService(documentFrequencies,
+                configService.isSparseLocalRetrieval() && !"Mapped".equals(configService.getVectorStoreType()));
             default -> new DashScopeEmbeddingService(apiKey);
         };
+
+        // 本地嵌入直接计算比读缓存更快，不需要调度和缓存
+        if (service instanceof LocalEmbeddingService) {
+            return service;
+        }
+
+        // 远程服务：调度器负责并行、限速和重试；外层磁盘缓存命中的文本不再进入调度
+        double requestsPerSecond = service instanceof ZhipuEmbeddingService ?
+            ZhipuEmbeddingService.REQUESTS_PER_SECOND : DashScopeEmbeddingService.REQUESTS_PER_SECOND;
+        EmbeddingService scheduled = new EmbeddingScheduler(service, AppExecutors.getInstance(project).getIoExecutor(),
+            configService.getEmbeddingParallelism(), requestsPerSecond);
+        return new CachedEmbeddingService(scheduled, KnowledgeBaseRegistry.getInstance().embeddingCache());
+    }
+
+    /**
+     * 所用向量存储的路径前缀：知识库清单和文档频率表与存储放在一起
+     */
+    private String storePath(String indexPath) {
+        return "Mapped".equals(configService.getVectorStoreType()) ? indexPath + "_flat" : indexPath;
+    }
+
+    /**
+     * 根据配置创建向量数据库
+     * Lucene：HNSW 近似检索，课程材料和用户上传分为两个分片；Mapped：内存映射扁平文件上的精确扫描
+     */
+    private VectorDatabase createVectorDatabase(String indexPath) {
+        KnowledgeBaseRegistry registry = KnowledgeBaseRegistry.getInstance();
+        String storeType = "Mapped".equals(configService.getVectorStoreType()) ? "Mapped" : "Lucene";
+        return registry.acquire(storeType + ":" + new File(indexPath).getAbsolutePath(),
+            () -> openVectorDatabase(indexPath, storeType, registry.getSearchExecutor()));
+    }
+
+    /**
+     * 打开向量数据库；检索线程池由应用级注册表提供，不随项目关闭
+     */
+    private VectorDatabase openVectorDatabase(String indexPath, String storeType, Executor cpuExecutor) {
+        if ("Mapped".equals(storeType)) {
+            // 与 Lucene 索引目录分开存放，切换存储类型时互不干扰
+            return new MappedVectorDatabase(indexPath + "_flat", cpuExecutor, configService.getIvfNprobe());
+        }
+
+        String staticPath = indexPath + "_static";
+        String userPath = indexPath + "_user";
+        // 旧版单一索引拆分到两个分片，清单文件不变
+        LuceneVectorDatabase.splitLegacyIndex(indexPath, staticPath, userPath);
+
+        boolean memoryMapped = configService.isMemoryMappedStaticShard();
+        return new ShardedVectorDatabase(
+            type -> type == DocumentChunk.SourceType.STATIC ?
+                new LuceneVectorDatabase(staticPath, cpuExecutor, memoryMapped) :
+                new LuceneVectorDatabase(userPath, cpuExecutor),
+            type -> Paths.get(type == DocumentChunk.SourceType.STATIC ? staticPath : userPath));
     }
 
     public static RagService getInstance(@NotNull Project project) {
@@ -515,50 +834,84 @@ public final class RagService {
         try {
             String sourceTypeName = sourceType == DocumentChunk.SourceType.STATIC ? "静态资源" : "用户上传";
             System.out.println("开始索引" + sourceTypeName + "文档...");
-            List<DocumentChunk> allChunks = new ArrayList<>();
+            int totalChunks = 0;
+            int reusedChunks = 0;
 
-            for (File file : courseMaterialFiles) {
-                try {
-                    String fileName = file.getName().toLowerCase();
+            // 批量导入会话：逐个文件写入，整批只提交一次
+            try (VectorDatabase.BulkSession session = vectorDatabase.openBulkSession()) {
+                for (File file : courseMaterialFiles) {
+                    try {
+                        DocumentProcessor processor = processorFor(file.getName());
+                        if (processor == null) {
+                            System.out.println("跳过不支持的文件格式: " + file.getName());
+                            continue;
+                        }
 
-                    if (fileName.endsWith(".pdf")) {
-                        System.out.println("处理文件: " + file.getName());
-                        List<DocumentChunk> chunks = pdfDocumentProcessor.process(file, sourceType);
-                        allChunks.addAll(chunks);
-                        System.out.println("  - 提取 " + chunks.size() + " 个文档块");
-                    } else if (fileName.endsWith(".ppt") || fileName.endsWith(".pptx")) {
                         System.out.println("处理文件: " + file.getName());
-                        List<DocumentChunk> chunks = pptDocumentProcessor.process(file, sourceType);
-                        allChunks.addAll(chunks);
-                        System.out.println("  - 提取 " + chunks.size() + " 个文档块");
-                    } else if (fileName.endsWith(".doc") || fileName.endsWith(".docx")) {
-                        System.out.println("处理文件: " + file.getName());
-                        List<DocumentChunk> chunks = docDocumentProcessor.process(file, sourceType);
-                        allChunks.addAll(chunks);
-                        System.out.println("  - 提取 " + chunks.size() + " 个文档块");
-                    } else if (fileName.endsWith(".txt")) {
-                        System.out.println("处理文件: " + file.getName());
-                        List<DocumentChunk> chunks = txtDocumentProcessor.process(file, sourceType);
-                        allChunks.addAll(chunks);
-                        System.out.println("  - 提取 " + chunks.size() + " 个文档块");
-                    } else if (fileName.endsWith(".md")) {
-                        System.out.println("处理文件: " + file.getName());
-                        List<DocumentChunk> chunks = markdownDocumentProcessor.process(file, sourceType);
-                        allChunks.addAll(chunks);
-                        System.out.println("  - 提取 " + chunks.size() + " 个文档块");
-                    } else {
-                        System.out.println("跳过不支持的文件格式: " + file.getName());
+                        // 分块 ID 由文件名和内容决定，已索引的分块不再生成嵌入；
+                        // 换了 Embedding 模型的文件全部重新嵌入，按 ID 覆盖旧向量
+                        // 模型 ID 在处理前取得：处理期间 IDF 快照更新时，记录的是旧 ID，下次同步会再嵌入一次
+                        String modelId = embeddingService.getModelId();
+                        Set<String> indexedIds = vectorDatabase.getChunkIds(file.getName());
+                        KnowledgeBaseManifest.Entry entry = manifest != null ? manifest.get(file.getName()) : null;
+                        Set<String> reusableIds = entry == null || entry.matchesModel(modelId) ?
+                            indexedIds : Set.of();
+                        List<DocumentChunk> chunks = processor.process(file, sourceType, reusableIds::contains);
+
+                        List<DocumentChunk> newChunks = new ArrayList<>();
+                        List<String> addedContents = new ArrayList<>();
+                        Set<String> currentIds = new HashSet<>();
+                        for (DocumentChunk chunk : chunks) {
+                            currentIds.add(chunk.getId());
+                            // 稀疏检索的分块只有稀疏表示
+                            if (chunk.getEmbedding() != null || chunk.getSparseEmbedding() != null) {
+                                newChunks.add(chunk);
+                            }
+                            // 重新嵌入的旧分块已经计入文档频率
+                            if (!indexedIds.contains(chunk.getId())) {
+                                addedContents.add(chunk.getContent());
+                            }
+                        }
+                        session.add(newChunks);
+                        if (tracksDocumentFrequencies()) {
+                            documentFrequencies.addDocuments(addedContents);
+                        }
+                        if (!currentIds.containsAll(indexedIds)) {
+                            // 文件内容有变化时删除不再出现的旧分块
+                            if (tracksDocumentFrequencies()) {
+                                List<String> staleContents = new ArrayList<>();
+                                vectorDatabase.getChunkContents(file.getName()).forEach((id, content) -> {
+                                    if (!currentIds.contains(id)) {
+                                        staleContents.add(content);
+                                    }
+                                });
+                                documentFrequencies.removeDocuments(staleContents);
+                            }
+                            vectorDatabase.retainChunks(file.getName(), currentIds);
+                        }
+                        if (manifest != null) {
+                            manifest.record(file, sourceType, KnowledgeBaseManifest.hashFile(file),
+                                new ArrayList<>(currentIds), modelId);
+                        }
+                        totalChunks += chunks.size();
+                        reusedChunks += chunks.size() - newChunks.size();
+                        System.out.println("  - 提取 " + chunks.size() + " 个文档块，其中 " +
+                            (chunks.size() - newChunks.size()) + " 个已在知识库中");
+                    } catch (Exception e) {
+                        System.err.println("处理文件失败 " + file.getName() + ": " + e.getMessage());
+                        e.printStackTrace();
                     }
-                } catch (Exception e) {
-                    System.err.println("处理文件失败 " + file.getName() + ": " + e.getMessage());
-                    e.printStackTrace();
                 }
             }
+            if (manifest != null) {
+                manifest.save();
+            }
+            saveDocumentFrequencies();
+            scheduleReweight();
 
-            if (!allChunks.isEmpty()) {
-                System.out.println("索引 " + allChunks.size() + " 个" + sourceTypeName + "文档块到向量数据库...");
-                vectorDatabase.index(allChunks);
-                System.out.println(sourceTypeName + "知识库索引完成！");
+            if (totalChunks > 0) {
+                System.out.println(sourceTypeName + "知识库索引完成！共 " + totalChunks + " 个文档块，" +
+                    reusedChunks + " 个未变化");
                 return true;
             } else {
                 System.out.println("没有找到可索引的文档");
@@ -571,6 +924,25 @@ public final class RagService {
         }
     }
 
+    /**
+     * 根据文件扩展名选择文档处理器，不支持的格式返回 null
+     */
+    private DocumentProcessor processorFor(String fileName) {
+        String lowerName = fileName.toLowerCase();
+        if (lowerName.endsWith(".pdf")) {
+            return pdfDocumentProcessor;
+        } else if (lowerName.endsWith(".ppt") || lowerName.endsWith(".pptx")) {
+            return pptDocumentProcessor;
+        } else if (lowerName.endsWith(".doc") || lowerName.endsWith(".docx")) {
+            return docDocumentProcessor;
+        } else if (lowerName.endsWith(".txt")) {
+            return txtDocumentProcessor;
+        } else if (lowerName.endsWith(".md")) {
+            return markdownDocumentProcessor;
+        }
+        return null;
+    }
+
     /**
      * 用户上传文件到知识库
      * @param files 用户上传的文件列表
@@ -678,11 +1050,7 @@ public final class RagService {
             return false;
         }
 
-        if (vectorDatabase instanceof LuceneVectorDatabase) {
-            return ((LuceneVectorDatabase) vectorDatabase).getDocumentCount() > 0;
-        }
-
-        return false;
+        return vectorDatabase.getDocumentCount() > 0;
     }
 
     /**
@@ -702,15 +1070,31 @@ public final class RagService {
         }
 
         try {
-            if (vectorDatabase instanceof LuceneVectorDatabase) {
-                ((LuceneVectorDatabase) vectorDatabase).clear(sourceType);
-                if (sourceType == null) {
-                    System.out.println("知识库已完全清空");
-                } else {
-                    String typeName = sourceType == DocumentChunk.SourceType.STATIC ? "静态资源" : "用户上传";
-                    System.out.println("已清空知识库中的" + typeName + "文档");
+            if (sourceType == null) {
+                if (tracksDocumentFrequencies()) {
+                    documentFrequencies.clear();
+                }
+            } else if (manifest != null) {
+                for (String source : manifest.sources()) {
+                    KnowledgeBaseManifest.Entry entry = manifest.get(source);
+                    if (entry != null && !entry.excluded && entry.sourceType() == sourceType) {
+                        forgetChunks(source);
+                    }
                 }
             }
+            saveDocumentFrequencies();
+            vectorDatabase.clear(sourceType);
+            // 清空后的文件在下次同步时会重新索引
+            if (manifest != null) {
+                manifest.removeAll(sourceType);
+                manifest.save();
+            }
+            if (sourceType == null) {
+                System.out.println("知识库已完全清空");
+            } else {
+                String typeName = sourceType == DocumentChunk.SourceType.STATIC ? "静态资源" : "用户上传";
+                System.out.println("已清空知识库中的" + typeName + "文档");
+            }
         } catch (Exception e) {
             System.err.println("清空知识库失败: " + e.getMessage());
             e.printStackTrace();
@@ -726,11 +1110,8 @@ public final class RagService {
         }
 
         try {
-            if (vectorDatabase instanceof LuceneVectorDatabase) {
-                int docCount = ((LuceneVectorDatabase) vectorDatabase).getDocumentCount();
-                return "知识库文档数量: " + docCount;
-            }
-            return "无法获取统计信息";
+            int docCount = vectorDatabase.getDocumentCount();
+            return "知识库文档数量: " + docCount;
         } catch (Exception e) {
             return "获取统计信息失败: " + e.getMessage();
         }
@@ -741,22 +1122,17 @@ public final class RagService {
      * 
      * 接口定义：供 UI 层调用
      * 
-     * 注意：此方法依赖 LuceneVectorDatabase.getAllFiles() 方法
-     * 后端 RAG 同学需要在 LuceneVectorDatabase 中实现 getAllFiles() 方法
+     * 注意：此方法依赖 VectorDatabase.getAllFiles() 方法
      * 
      * @return 文件信息列表
      */
-    public List<LuceneVectorDatabase.FileInfo> getKnowledgeBaseFiles() {
-        // UI 接口：调用底层 LuceneVectorDatabase.getAllFiles() 获取文件列表
-        // TODO: 等待后端实现 LuceneVectorDatabase.getAllFiles() 方法
+    public List<VectorDatabase.FileInfo> getKnowledgeBaseFiles() {
+        // UI 接口：调用底层 VectorDatabase.getAllFiles() 获取文件列表
         if (!initialized || vectorDatabase == null) {
             return new ArrayList<>();
         }
 
-        if (vectorDatabase instanceof LuceneVectorDatabase) {
-            return ((LuceneVectorDatabase) vectorDatabase).getAllFiles();
-        }
-        return new ArrayList<>();
+        return vectorDatabase.getAllFiles();
     }
 
     /**
@@ -764,33 +1140,36 @@ public final class RagService {
      * 
      * 接口定义：供 UI 层调用
      * 
-     * 注意：此方法依赖 LuceneVectorDatabase.deleteBySource() 方法
-     * 后端 RAG 同学需要在 LuceneVectorDatabase 中实现 deleteBySource(String source) 方法
+     * 注意：此方法依赖 VectorDatabase.deleteBySource() 方法
      * 
      * @param fileName 文件名
      * @return 是否成功（删除的文档数量 > 0 表示成功）
      */
     public boolean deleteFileFromKnowledgeBase(String fileName) {
-        // UI 接口：调用底层 LuceneVectorDatabase.deleteBySource() 删除文件
-        // TODO: 等待后端实现 LuceneVectorDatabase.deleteBySource() 方法
+        // UI 接口：调用底层 VectorDatabase.deleteBySource() 删除文件
         if (!initialized || vectorDatabase == null) {
             return false;
         }
 
-        if (vectorDatabase instanceof LuceneVectorDatabase) {
-            int deletedCount = ((LuceneVectorDatabase) vectorDatabase).deleteBySource(fileName);
-            System.out.println("已从知识库删除文件: " + fileName + " (删除了 " + deletedCount + " 个文档块)");
-            return deletedCount > 0;
+        forgetChunks(fileName);
+        int deletedCount = vectorDatabase.deleteBySource(fileName);
+        saveDocumentFrequencies();
+        scheduleReweight();
+        // 保留清单项并标记为已删除，避免下次同步时从目录中重新索引
+        if (manifest != null) {
+            manifest.exclude(fileName);
+            manifest.save();
         }
-        return false;
+        System.out.println("已从知识库删除文件: " + fileName + " (删除了 " + deletedCount + " 个文档块)");
+        return deletedCount > 0;
     }
 
     /**
      * 关闭资源
      */
     public void close() {
-        if (vectorDatabase instanceof LuceneVectorDatabase) {
-            ((LuceneVectorDatabase) vectorDatabase).close();
+        if (vectorDatabase != null) {
+            vectorDatabase.close();
         }
     }
 
@@ -9,7 +9,7 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.ui.components.JBList;
 import com.intellij.ui.components.JBScrollPane;
 import com.intellij.util.ui.JBUI;
-import com.javaee.mypilot.infra.rag.vector.LuceneVectorDatabase;
+import com.javaee.mypilot.infra.rag.vector.VectorDatabase;
 import com.javaee.mypilot.service.RagService;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -30,8 +30,8 @@ public class KnowledgeBaseManageDialog extends DialogWrapper {
 
     private final Project project;
     private final RagService ragService;
-    private JBList<LuceneVectorDatabase.FileInfo> fileList;
-    private DefaultListModel<LuceneVectorDatabase.FileInfo> listModel;
+    private JBList<VectorDatabase.FileInfo> fileList;
+    private DefaultListModel<VectorDatabase.FileInfo> listModel;
     private JLabel statusLabel;
     private JButton deleteButton;
     private JButton addButton;
@@ -133,7 +133,7 @@ public class KnowledgeBaseManageDialog extends DialogWrapper {
                     
                     try {
                         // 在后台线程中执行耗时操作
-                        List<LuceneVectorDatabase.FileInfo> files = ragService.getKnowledgeBaseFiles();
+                        List<VectorDatabase.FileInfo> files = ragService.getKnowledgeBaseFiles();
                         
                         // 切换到 EDT 线程更新 UI - 使用预先获取的 ModalityState
                         com.intellij.openapi.application.ApplicationManager.getApplication().invokeLater(() -> {
@@ -142,7 +142,7 @@ public class KnowledgeBaseManageDialog extends DialogWrapper {
                             if (files.isEmpty()) {
                                 statusLabel.setText("知识库为空");
                             } else {
-                                for (LuceneVectorDatabase.FileInfo fileInfo : files) {
+                                for (VectorDatabase.FileInfo fileInfo : files) {
                                     listModel.addElement(fileInfo);
                                 }
                                 statusLabel.setText(String.format("共 %d 个文件，总计 %d 个文档块",
@@ -276,16 +276,16 @@ public class KnowledgeBaseManageDialog extends DialogWrapper {
      */
     private void deleteSelectedFile() {
         // 获取所有选中的文件
-        List<LuceneVectorDatabase.FileInfo> selectedFiles = fileList.getSelectedValuesList();
+        List<VectorDatabase.FileInfo> selectedFiles = fileList.getSelectedValuesList();
         if (selectedFiles == null || selectedFiles.isEmpty()) {
             return;
         }
 
         // 过滤出可以删除的文件（排除静态资源）
-        List<LuceneVectorDatabase.FileInfo> filesToDelete = new ArrayList<>();
+        List<VectorDatabase.FileInfo> filesToDelete = new ArrayList<>();
         List<String> staticFileNames = new ArrayList<>();
         
-        for (LuceneVectorDatabase.FileInfo fileInfo : selectedFiles) {
+        for (VectorDatabase.FileInfo fileInfo : selectedFiles) {
             if (fileInfo.sourceType == com.javaee.mypilot.core.model.rag.DocumentChunk.SourceType.STATIC) {
                 staticFileNames.add(fileInfo.fileName);
             } else {
@@ -315,7 +315,7 @@ public class KnowledgeBaseManageDialog extends DialogWrapper {
         int totalChunks = filesToDelete.stream().mapToInt(f -> f.chunkCount).sum();
         
         if (filesToDelete.size() == 1) {
-            LuceneVectorDatabase.FileInfo file = filesToDelete.get(0);
+            VectorDatabase.FileInfo file = filesToDelete.get(0);
             confirmMessage = String.format("确定要删除文件 '%s' 吗？\n这将从知识库中删除所有相关的文档块（共 %d 个）。",
                 file.fileName, file.chunkCount);
         } else {
@@ -347,7 +347,7 @@ public class KnowledgeBaseManageDialog extends DialogWrapper {
 
         // 保存文件名列表用于显示
         final List<String> fileNames = new ArrayList<>();
-        for (LuceneVectorDatabase.FileInfo fileInfo : filesToDelete) {
+        for (VectorDatabase.FileInfo fileInfo : filesToDelete) {
             fileNames.add(fileInfo.fileName);
         }
 
@@ -433,7 +433,7 @@ public class KnowledgeBaseManageDialog extends DialogWrapper {
     /**
      * 文件信息列表单元格渲染器
      */
-    private static class FileInfoCellRenderer extends JPanel implements ListCellRenderer<LuceneVectorDatabase.FileInfo> {
+    private static class FileInfoCellRenderer extends JPanel implements ListCellRenderer<VectorDatabase.FileInfo> {
         private final JLabel fileNameLabel;
         private final JLabel infoLabel;
 
@@ -452,8 +452,8 @@ public class KnowledgeBaseManageDialog extends DialogWrapper {
 
         @Override
         public Component getListCellRendererComponent(
-            JList<? extends LuceneVectorDatabase.FileInfo> list,
-            LuceneVectorDatabase.FileInfo value,
+            JList<? extends VectorDatabase.FileInfo> list,
+            VectorDatabase.FileInfo value,
             int index,
             boolean isSelected,
             boolean cellHasFocus) {
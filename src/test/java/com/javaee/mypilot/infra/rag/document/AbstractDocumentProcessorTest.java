@@ -0,0 +1,72 @@
+package com.javaee.mypilot.infra.rag.document;
+
+import com.javaee.mypilot.core.model.rag.DocumentChunk;
+import com.javaee.mypilot.core.model.rag.SparseVector;
+import com.javaee.mypilot.infra.rag.embedding.EmbeddingService;
+import com.javaee.mypilot.infra.rag.embedding.LocalEmbeddingService;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class AbstractDocumentProcessorTest {
+
+    @Test
+    public void chunkIdIsStableForSameSourcePositionAndContent() {
+        assertEquals(AbstractDocumentProcessor.chunkId("a.pdf", 3, "第一章", "内容"),
+            AbstractDocumentProcessor.chunkId("a.pdf", 3, "第一章", "内容"));
+        assertEquals(AbstractDocumentProcessor.chunkId("a.pdf", 3, null, "内容"),
+            AbstractDocumentProcessor.chunkId("a.pdf", 3, "", "内容"));
+    }
+
+    @Test
+    public void chunkIdChangesWithPageNumberAndTitle() {
+        String id = AbstractDocumentProcessor.chunkId("a.pdf", 3, "第一章", "内容");
+        // 插入新页或章节改名后，内容不变的块也必须重新写入，索引中的页码和标题才不会过期
+        assertNotEquals(id, AbstractDocumentProcessor.chunkId("a.pdf", 4, "第一章", "内容"));
+        assertNotEquals(id, AbstractDocumentProcessor.chunkId("a.pdf", 3, "第二章", "内容"));
+        assertNotEquals(id, AbstractDocumentProcessor.chunkId("b.pdf", 3, "第一章", "内容"));
+    }
+
+    @Test
+    public void sparseServiceProducesOnlySparseRepresentation() {
+        LocalEmbeddingService sparse = new LocalEmbeddingService(null, true);
+        List<DocumentChunk> chunks = processor(sparse)
+            .process(new File("a.txt"), DocumentChunk.SourceType.USER_UPLOADED);
+        assertEquals(2, chunks.size());
+        for (DocumentChunk chunk : chunks) {
+            // 稀疏检索不需要稠密向量，索引时也不写 HNSW 图
+            assertNull(chunk.getEmbedding());
+            SparseVector expected = sparse.embedSparse(chunk.getContent());
+            assertArrayEquals(expected.features(), chunk.getSparseEmbedding().features());
+            assertArrayEquals(expected.weights(), chunk.getSparseEmbedding().weights(), 0.0f);
+        }
+    }
+
+    @Test
+    public void denseServiceProducesOnlyDenseRepresentation() {
+        List<DocumentChunk> chunks = processor(new LocalEmbeddingService())
+            .process(new File("a.txt"), DocumentChunk.SourceType.USER_UPLOADED);
+        for (DocumentChunk chunk : chunks) {
+            assertNotNull(chunk.getEmbedding());
+            assertNull(chunk.getSparseEmbedding());
+        }
+    }
+
+    private static AbstractDocumentProcessor processor(EmbeddingService embeddingService) {
+        return new AbstractDocumentProcessor(embeddingService) {
+            @Override
+            protected List<DocumentChunk> parse(File file, DocumentChunk.SourceType sourceType) {
+                return List.of(
+                    newChunk("Java 虚拟机的垃圾回收", file.getName(), 1, null, sourceType),
+                    newChunk("Spring Boot 自动配置", file.getName(), 2, null, sourceType));
+            }
+        };
+    }
+}
@@ -0,0 +1,110 @@
+package com.javaee.mypilot.infra.rag.embedding;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EmbeddingCacheTest {
+    private static final int DIMENSION = 64;
+    // 每条记录 20 字节头 + 256 字节向量
+    private static final int RECORD_BYTES = 20 + DIMENSION * Float.BYTES;
+    private static final long MAX_BYTES = RECORD_BYTES * 40L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void compactionRunsOutsidePutAndKeepsRecordsAddedMeanwhile() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("cache.bin");
+        List<Runnable> pending = new ArrayList<>();
+        try (EmbeddingCache cache = new EmbeddingCache(file.toString(), MAX_BYTES, pending::add)) {
+            for (int i = 0; i <= 40; i++) {
+                cache.put(key(i), vector(i));
+            }
+            // 超过上限只提交压缩任务，put 不等待重写
+            assertEquals(1, pending.size());
+            assertEquals(41, cache.size());
+
+            // 压缩期间的读写照常进行，追加的记录不能丢
+            assertNotNull(cache.get(key(0)));
+            for (int i = 41; i < 45; i++) {
+                cache.put(key(i), vector(i));
+            }
+            assertEquals("压缩进行中不重复提交", 1, pending.size());
+
+            pending.remove(0).run();
+
+            assertTrue(Files.size(file) <= MAX_BYTES);
+            for (int i = 41; i < 45; i++) {
+                assertArrayEquals(vector(i), cache.get(key(i)), 0.0f);
+            }
+            assertArrayEquals(vector(40), cache.get(key(40)), 0.0f);
+            assertNull("快照中最久未访问的记录被淘汰", cache.get(key(1)));
+
+            // 压缩完成后可以再次触发
+            for (int i = 45; i < 60; i++) {
+                cache.put(key(i), vector(i));
+            }
+            assertEquals(1, pending.size());
+        }
+    }
+
+    @Test
+    public void compactedCacheSurvivesReopen() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("cache.bin");
+        List<Runnable> pending = new ArrayList<>();
+        int kept;
+        try (EmbeddingCache cache = new EmbeddingCache(file.toString(), MAX_BYTES, pending::add)) {
+            for (int i = 0; i <= 40; i++) {
+                cache.put(key(i), vector(i));
+            }
+            cache.put(key(41), vector(41));
+            pending.remove(0).run();
+            kept = cache.size();
+        }
+        try (EmbeddingCache cache = new EmbeddingCache(file.toString(), MAX_BYTES, pending::add)) {
+            assertEquals(kept, cache.size());
+            assertArrayEquals(vector(41), cache.get(key(41)), 0.0f);
+            assertArrayEquals(vector(40), cache.get(key(40)), 0.0f);
+        }
+    }
+
+    @Test
+    public void compactionAfterCloseIsDiscarded() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("cache.bin");
+        List<Runnable> pending = new ArrayList<>();
+        EmbeddingCache cache = new EmbeddingCache(file.toString(), MAX_BYTES, pending::add);
+        for (int i = 0; i <= 40; i++) {
+            cache.put(key(i), vector(i));
+        }
+        long size = Files.size(file);
+        cache.close();
+
+        pending.remove(0).run();
+        assertEquals(size, Files.size(file));
+        assertTrue(Files.notExists(file.resolveSibling("cache.bin.tmp")));
+    }
+
+    private static EmbeddingCache.Key key(int i) {
+        return EmbeddingCache.key("test-model", "text " + i);
+    }
+
+    private static float[] vector(int i) {
+        float[] vector = new float[DIMENSION];
+        for (int d = 0; d < DIMENSION; d++) {
+            vector[d] = i + d / 100.0f;
+        }
+        return vector;
+    }
+}
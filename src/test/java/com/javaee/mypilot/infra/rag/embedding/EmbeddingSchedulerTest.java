@@ -0,0 +1,93 @@
+package com.javaee.mypilot.infra.rag.embedding;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class EmbeddingSchedulerTest {
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failedSliceCancelsSlicesWaitingToRetry() {
+        AtomicInteger retryableCalls = new AtomicInteger();
+        EmbeddingService delegate = new EmbeddingService() {
+            @Override
+            public float[] embed(String text) {
+                if (text.equals("unauthorized")) {
+                    // 等另一个切片进入退避等待后再失败
+                    sleepQuietly(200);
+                    throw new EmbeddingException("鉴权失败", 401, 0);
+                }
+                retryableCalls.incrementAndGet();
+                throw new EmbeddingException("服务端错误", 500, 0);
+            }
+
+            @Override
+            public int getMaxBatchSize() {
+                return 1;
+            }
+        };
+        EmbeddingScheduler scheduler = new EmbeddingScheduler(delegate, executor, 2, 1000);
+
+        long start = System.nanoTime();
+        EmbeddingException e = assertThrows(EmbeddingException.class,
+            () -> scheduler.embedBatch(List.of("server-error", "unauthorized", "pending")));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // 抛出最先失败的切片的异常；重试中的切片在退避等待时放弃，不会等满 5 次重试（约 7 秒）
+        assertEquals(401, e.getStatusCode());
+        assertTrue("取消后仍在重试: " + elapsedMs + "ms", elapsedMs < 2000);
+        assertTrue(retryableCalls.get() < 3);
+    }
+
+    @Test
+    public void successfulBatchKeepsOrder() {
+        EmbeddingService delegate = new EmbeddingService() {
+            @Override
+            public float[] embed(String text) {
+                return new float[]{Float.parseFloat(text)};
+            }
+
+            @Override
+            public int getMaxBatchSize() {
+                return 2;
+            }
+        };
+        EmbeddingScheduler scheduler = new EmbeddingScheduler(delegate, executor, 2, 1000);
+
+        List<float[]> embeddings = scheduler.embedBatch(List.of("1", "2", "3", "4", "5"));
+        assertEquals(5, embeddings.size());
+        for (int i = 0; i < embeddings.size(); i++) {
+            assertEquals(i + 1, embeddings.get(i)[0], 0.0f);
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.javaee.mypilot.infra.rag.embedding;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 特征哈希的 JMH 基准：原来的 SHA-256 取下标与现在的 MurmurHash3 累加
+ *
+ * <p>两组基准处理同一个约 1000 字符的分块中的全部 2~4-gram，把每个特征累加到 384 维向量的 3 个位置。
+ * 运行：{@code ./gradlew jmh}（或 {@code ./gradlew jmh -Pjmh.includes=FeatureHashingBenchmark}）。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FeatureHashingBenchmark {
+    private static final int DIMENSION = 384;
+    private static final int NGRAM_SEED = 0x6e677261;
+    private static final String PARAGRAPH = "Java 虚拟机的垃圾回收器负责自动管理堆内存。" +
+        "The garbage collector reclaims objects that are no longer reachable from GC roots. " +
+        "分代收集把堆划分为新生代和老年代，新生代使用复制算法，老年代使用标记-整理算法。" +
+        "Spring Boot 通过自动配置和起步依赖简化了企业级应用的开发，@Transactional 注解声明事务边界。";
+
+    private String chunk;
+    private List<String> ngrams;
+    private float[] vector;
+
+    @Setup
+    public void setUp() {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 1000) {
+            text.append(PARAGRAPH);
+        }
+        chunk = text.substring(0, 1000).toLowerCase();
+        ngrams = new ArrayList<>();
+        for (int n = 2; n <= 4; n++) {
+            for (int i = 0; i + n <= chunk.length(); i++) {
+                ngrams.add(chunk.substring(i, i + n));
+            }
+        }
+        vector = new float[DIMENSION];
+    }
+
+    /**
+     * 原实现：每个特征拼接前缀字符串、编码为 UTF-8、计算 SHA-256，再用 HashSet 去重取下标
+     */
+    @Benchmark
+    public float[] sha256() {
+        for (String ngram : ngrams) {
+            for (int index : legacyFeatureIndices("ngram_" + ngram, 3)) {
+                vector[index] += 1.0f;
+            }
+        }
+        return vector;
+    }
+
+    /**
+     * 现实现：直接在字符区间上计算 MurmurHash3，按奇数步长累加，不分配对象
+     */
+    @Benchmark
+    public float[] murmur3() {
+        for (int n = 2; n <= 4; n++) {
+            for (int i = 0; i + n <= chunk.length(); i++) {
+                FeatureHashing.accumulate(vector, FeatureHashing.hash(chunk, i, i + n, NGRAM_SEED), 3, 1.0f);
+            }
+        }
+        return vector;
+    }
+
+    /**
+     * 替换前 LocalEmbeddingService.getFeatureIndices 的拷贝（模型 local-ngram-384-v1，省略了不会走到的降级分支）
+     */
+    private static int[] legacyFeatureIndices(String feature, int numIndices) {
+        int[] indices = new int[numIndices];
+        Set<Integer> usedIndices = new HashSet<>();
+
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] hash = md.digest(feature.getBytes(StandardCharsets.UTF_8));
+
+            int attempt = 0;
+            for (int i = 0; i < numIndices; i++) {
+                int idx;
+                do {
+                    int offset = (i + attempt) * 4;
+                    if (offset + 3 < hash.length) {
+                        int value = ((hash[offset % hash.length] & 0xFF) << 24) |
+                                   ((hash[(offset + 1) % hash.length] & 0xFF) << 16) |
+                                   ((hash[(offset + 2) % hash.length] & 0xFF) << 8) |
+                                   (hash[(offset + 3) % hash.length] & 0xFF);
+                        idx = Math.abs(value) % DIMENSION;
+                    } else {
+                        idx = Math.abs((feature.hashCode() + i * 31 + attempt * 97)) % DIMENSION;
+                    }
+                    attempt++;
+                } while (usedIndices.contains(idx) && attempt < 100); // 避免重复索引
+
+                indices[i] = idx;
+                usedIndices.add(idx);
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        return indices;
+    }
+}
@@ -0,0 +1,95 @@
+package com.javaee.mypilot.infra.rag.embedding;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * 特征哈希的固定输出：哈希值决定稠密向量的下标和稀疏特征的编号，变化后已建索引与查询不再对应，
+ * 必须同时更新 {@link LocalEmbeddingService#MODEL_ID}
+ */
+public class FeatureHashingTest {
+
+    @Test
+    public void matchesPublishedMurmur3Vectors() {
+        // 字符按 UTF-16LE 参与哈希："慡慡" 即字节 "aaaa"，"\0\0" 即 4 个零字节
+        assertEquals(0x514e28b7, FeatureHashing.hash("", 0, 0, 1));
+        assertEquals(0x2362f9de, FeatureHashing.hash("\0\0", 0, 2, 0));
+        assertEquals(0x5a97808a, FeatureHashing.hash("慡慡", 0, 2, 0x9747b28c));
+        assertEquals(0x2362f9de, FeatureHashing.hash(0, 0));
+    }
+
+    @Test
+    public void matchesByteOrientedMurmur3OnUtf16() {
+        Random random = new Random(42);
+        for (int trial = 0; trial < 1000; trial++) {
+            char[] chars = new char[random.nextInt(12)];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char) random.nextInt(Character.MAX_VALUE + 1);
+            }
+            // 逐字符取低、高字节（不经过字符集编码，未配对的代理字符也原样参与）
+            byte[] bytes = new byte[chars.length * 2];
+            for (int i = 0; i < chars.length; i++) {
+                bytes[i * 2] = (byte) chars[i];
+                bytes[i * 2 + 1] = (byte) (chars[i] >>> 8);
+            }
+            String text = new String(chars);
+            int seed = random.nextInt();
+            assertEquals(murmur3(bytes, seed),
+                FeatureHashing.hash(text, 0, text.length(), seed));
+        }
+    }
+
+    @Test
+    public void pinsFeatureHashes() {
+        assertEquals(0x2ee55788, FeatureHashing.hash("ab", 0, 2, 0x6e677261));
+        assertEquals(0x90818f23, FeatureHashing.hash("虚拟机", 0, 3, 0x776f7264));
+        assertEquals(0x300412d4, FeatureHashing.hash(3, 0x73746174));
+        // 区间哈希与子串哈希一致
+        assertEquals(FeatureHashing.hash("虚拟机", 0, 3, 7), FeatureHashing.hash("java 虚拟机的", 5, 8, 7));
+        assertNotEquals(FeatureHashing.hash("ab", 0, 2, 1), FeatureHashing.hash("ab", 0, 2, 2));
+    }
+
+    /**
+     * 按字节处理的 MurmurHash3 x86_32 参考实现
+     */
+    private static int murmur3(byte[] data, int seed) {
+        int h = seed;
+        int blocks = data.length / 4;
+        for (int i = 0; i < blocks; i++) {
+            int k = (data[i * 4] & 0xff) | (data[i * 4 + 1] & 0xff) << 8
+                | (data[i * 4 + 2] & 0xff) << 16 | (data[i * 4 + 3] & 0xff) << 24;
+            k *= 0xcc9e2d51;
+            k = Integer.rotateLeft(k, 15);
+            k *= 0x1b873593;
+            h ^= k;
+            h = Integer.rotateLeft(h, 13) * 5 + 0xe6546b64;
+        }
+        int k = 0;
+        int tail = blocks * 4;
+        int remaining = data.length & 3;
+        if (remaining >= 3) {
+            k ^= (data[tail + 2] & 0xff) << 16;
+        }
+        if (remaining >= 2) {
+            k ^= (data[tail + 1] & 0xff) << 8;
+        }
+        if (remaining >= 1) {
+            k ^= data[tail] & 0xff;
+            k *= 0xcc9e2d51;
+            k = Integer.rotateLeft(k, 15);
+            k *= 0x1b873593;
+            h ^= k;
+        }
+        h ^= data.length;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,51 @@
+package com.javaee.mypilot.infra.rag.embedding;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 本地嵌入的固定输出（不使用 IDF）：向量变化意味着预构建索引和已建索引失效，
+ * 必须同时更新 {@link LocalEmbeddingService#MODEL_ID}
+ */
+public class LocalEmbeddingServiceTest {
+    private static final String TEXT = "Java 虚拟机的垃圾回收器负责自动管理堆内存 (GC roots)";
+
+    @Test
+    public void pinsGoldenVector() {
+        assertEquals("local-ngram-384-v3", LocalEmbeddingService.MODEL_ID);
+
+        float[] embedding = new LocalEmbeddingService().embed(TEXT);
+        assertEquals(384, embedding.length);
+        int nonZero = 0;
+        for (float value : embedding) {
+            if (value != 0.0f) {
+                nonZero++;
+            }
+        }
+        assertEquals(217, nonZero);
+
+        int[] dims = {34, 45, 217, 190, 207, 236, 244, 303};
+        float[] expected = {0.25332993f, 0.25332993f, 0.25332993f,
+            0.24891777f, 0.24891777f, 0.24891777f, 0.24891777f, 0.24891777f};
+        float[] actual = new float[dims.length];
+        for (int i = 0; i < dims.length; i++) {
+            actual[i] = embedding[dims[i]];
+        }
+        assertArrayEquals(expected, actual, 1e-6f);
+    }
+
+    @Test
+    public void embeddingIsDeterministicAndNormalized() {
+        LocalEmbeddingService service = new LocalEmbeddingService();
+        float[] first = service.embed(TEXT);
+        assertArrayEquals(first, new LocalEmbeddingService().embed("  " + TEXT.toUpperCase() + "\n"), 0.0f);
+
+        double norm = 0;
+        for (float value : first) {
+            norm += value * value;
+        }
+        assertEquals(1.0, norm, 1e-5);
+    }
+}
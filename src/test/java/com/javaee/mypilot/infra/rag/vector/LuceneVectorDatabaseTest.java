@@ -0,0 +1,138 @@
+package com.javaee.mypilot.infra.rag.vector;
+
+import com.javaee.mypilot.core.model.rag.DocumentChunk;
+import com.javaee.mypilot.infra.rag.embedding.LocalEmbeddingService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class LuceneVectorDatabaseTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String indexPath;
+    private LuceneVectorDatabase database;
+
+    @Before
+    public void setUp() throws Exception {
+        indexPath = folder.newFolder("index").getPath();
+        database = new LuceneVectorDatabase(indexPath);
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    @Test
+    public void deleteBySourceRemovesChunksOfOpenBulkSession() {
+        try (VectorDatabase.BulkSession session = database.openBulkSession()) {
+            session.add(chunks("a.pdf", 4));
+            session.add(chunks("b.pdf", 3));
+
+            // 会话尚未关闭，写入还没有刷新可见，删除仍须生效
+            database.deleteBySource("a.pdf");
+        }
+        assertEquals(Set.of(), database.getChunkIds("a.pdf"));
+        assertEquals(3, database.getDocumentCount());
+    }
+
+    @Test
+    public void retainChunksRemovesStaleChunksOfOpenBulkSession() {
+        try (VectorDatabase.BulkSession session = database.openBulkSession()) {
+            session.add(chunks("a.pdf", 4));
+            database.retainChunks("a.pdf", Set.of("a.pdf#0"));
+        }
+        assertEquals(Set.of("a.pdf#0"), database.getChunkIds("a.pdf"));
+    }
+
+    @Test
+    public void deletesSurviveReopen() {
+        database.index(chunks("a.pdf", 4));
+        database.index(chunks("b.pdf", 2));
+        assertEquals(4, database.deleteBySource("a.pdf"));
+        assertEquals(1, database.retainChunks("b.pdf", Set.of("b.pdf#1")));
+
+        // 删除走 group commit，关闭时提交
+        database.close();
+        database = new LuceneVectorDatabase(indexPath);
+        assertEquals(Set.of(), database.getChunkIds("a.pdf"));
+        assertEquals(Set.of("b.pdf#1"), database.getChunkIds("b.pdf"));
+    }
+
+    @Test
+    public void fileSourceTypeIsMergedAcrossSegments() {
+        // 两次写入刷新为两个段：用户上传的块在前一个段，课程材料的块在后一个段
+        database.index(chunks("x.pdf", 2));
+        List<DocumentChunk> staticChunks = new ArrayList<>();
+        for (DocumentChunk chunk : chunks("x.pdf", 3)) {
+            staticChunks.add(new DocumentChunk(chunk.getId() + "-static", chunk.getContent(), chunk.getSource(),
+                chunk.getPageNumber(), null, chunk.getEmbedding(), DocumentChunk.SourceType.STATIC));
+        }
+        database.index(staticChunks);
+
+        List<VectorDatabase.FileInfo> files = database.getAllFiles();
+        assertEquals(1, files.size());
+        assertEquals(DocumentChunk.SourceType.STATIC, files.get(0).sourceType);
+        assertEquals(5, files.get(0).chunkCount);
+    }
+
+    @Test
+    public void instancesShareOneGroupCommitThread() throws Exception {
+        List<LuceneVectorDatabase> others = new ArrayList<>();
+        try {
+            for (int i = 0; i < 3; i++) {
+                LuceneVectorDatabase other = new LuceneVectorDatabase(folder.newFolder("other" + i).getPath());
+                others.add(other);
+                other.index(chunks("o" + i + ".pdf", 2));
+            }
+            database.index(chunks("a.pdf", 2));
+            long commitThreads = Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().equals("lucene-group-commit"))
+                .count();
+            assertEquals(1, commitThreads);
+        } finally {
+            others.forEach(LuceneVectorDatabase::close);
+        }
+        // 关闭其他实例只取消它们自己的提交，共用的调度线程继续为本实例提交
+        database.index(chunks("b.pdf", 2));
+        assertEquals(4, database.getDocumentCount());
+    }
+
+    @Test
+    public void sparseOnlyChunksAreIndexedWithoutDenseVectors() {
+        LocalEmbeddingService service = new LocalEmbeddingService(null, true);
+        List<DocumentChunk> chunks = new ArrayList<>();
+        String[] contents = {"Java 虚拟机的垃圾回收", "Spring Boot 自动配置", "MyBatis 映射文件"};
+        for (int i = 0; i < contents.length; i++) {
+            DocumentChunk chunk = new DocumentChunk("c.md#" + i, contents[i], "c.md", i + 1, null, null,
+                DocumentChunk.SourceType.USER_UPLOADED);
+            chunk.setSparseEmbedding(service.embedSparse(contents[i]));
+            chunks.add(chunk);
+        }
+        database.index(chunks);
+
+        assertEquals(3, database.getDocumentCount());
+        List<DocumentChunk> results = database.searchSparse(service.embedSparse("垃圾回收"), 2, null);
+        assertEquals("c.md#0", results.get(0).getId());
+    }
+
+    private static List<DocumentChunk> chunks(String source, int count) {
+        List<DocumentChunk> chunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            float[] embedding = new float[8];
+            embedding[i % embedding.length] = 1.0f;
+            chunks.add(new DocumentChunk(source + "#" + i, "content " + i, source, i + 1, null, embedding,
+                DocumentChunk.SourceType.USER_UPLOADED));
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,189 @@
+package com.javaee.mypilot.infra.rag.vector;
+
+import com.javaee.mypilot.core.model.rag.DocumentChunk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * int8 量化粗排 + float32 重排相对精确检索的召回率
+ *
+ * <p>行数低于 {@link IvfIndex#MIN_ROWS}，检索走全量扫描，只衡量量化和候选集重排的影响。
+ */
+public class MappedVectorDatabaseRecallTest {
+    private static final int ROWS = 2000;
+    private static final int DIMENSION = 128;
+    private static final int QUERIES = 100;
+    private static final long SEED = 20240601L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MappedVectorDatabase database;
+    private float[][] vectors;
+    private float[][] queries;
+
+    @Before
+    public void setUp() throws Exception {
+        Random random = new Random(SEED);
+        vectors = new float[ROWS][];
+        List<DocumentChunk> chunks = new ArrayList<>(ROWS);
+        for (int row = 0; row < ROWS; row++) {
+            vectors[row] = VectorMath.normalize(randomVector(random));
+            chunks.add(new DocumentChunk("chunk-" + row, "content " + row, "source.pdf", row / 10, null,
+                vectors[row], DocumentChunk.SourceType.USER_UPLOADED));
+        }
+        // 查询取自数据点附近，和真实检索一样存在明显的近邻
+        queries = new float[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            float[] base = vectors[random.nextInt(ROWS)];
+            float[] query = new float[DIMENSION];
+            for (int d = 0; d < DIMENSION; d++) {
+                query[d] = base[d] + (float) random.nextGaussian() * 0.1f;
+            }
+            queries[i] = VectorMath.normalize(query);
+        }
+
+        database = new MappedVectorDatabase(folder.newFolder("index").getPath(), Runnable::run,
+            MappedVectorDatabase.DEFAULT_NPROBE);
+        database.index(chunks);
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    @Test
+    public void rescoredSearchKeepsRecallAt10() {
+        int k = 10;
+        int rescoredHits = 0;
+        int codeOnlyHits = 0;
+        for (float[] query : queries) {
+            Set<Integer> exact = exactTopK(query, k);
+            for (DocumentChunk chunk : database.search(query, k)) {
+                if (exact.contains(rowOf(chunk))) {
+                    rescoredHits++;
+                }
+            }
+            for (int row : codeOnlyTopK(query, k)) {
+                if (exact.contains(row)) {
+                    codeOnlyHits++;
+                }
+            }
+        }
+        double recall = (double) rescoredHits / (QUERIES * k);
+        double codeOnlyRecall = (double) codeOnlyHits / (QUERIES * k);
+        System.out.printf("recall@%d: 量化粗排 %.3f, 候选集重排后 %.3f%n", k, codeOnlyRecall, recall);
+
+        assertTrue("recall@10 过低: " + recall, recall >= 0.95);
+        assertTrue("重排不应降低召回率", recall >= codeOnlyRecall);
+    }
+
+    @Test
+    public void shortlistIsRescoredInFullPrecision() {
+        // topK = 1 时候选集取下限 MIN_SHORTLIST，topK = 10 时为 4 倍 topK
+        for (int k : new int[]{1, 10}) {
+            int top1Hits = 0;
+            for (float[] query : queries) {
+                List<DocumentChunk> results = database.search(query, k);
+                assertEquals(k, results.size());
+                float previous = Float.POSITIVE_INFINITY;
+                for (DocumentChunk chunk : results) {
+                    // 返回的分数是 float32 精确点积，而不是量化编码上的近似值
+                    assertEquals(dot(query, vectors[rowOf(chunk)]), chunk.getSimilarity(), 1e-5f);
+                    assertTrue(chunk.getSimilarity() <= previous);
+                    previous = chunk.getSimilarity();
+                }
+                if (rowOf(results.get(0)) == exactTopK(query, 1).iterator().next()) {
+                    top1Hits++;
+                }
+            }
+            assertTrue("top-1 命中率过低 (k=" + k + "): " + top1Hits, top1Hits >= QUERIES * 0.98);
+        }
+    }
+
+    @Test
+    public void quantizedDotProductStaysCloseToExact() {
+        int rowBytes = ScalarQuantizer.rowBytes(DIMENSION);
+        ByteBuffer codes = ByteBuffer.allocate(rowBytes).order(ByteOrder.LITTLE_ENDIAN);
+        float[] query = queries[0];
+        float querySum = 0.0f;
+        float queryAbsSum = 0.0f;
+        for (float v : query) {
+            querySum += v;
+            queryAbsSum += Math.abs(v);
+        }
+        for (float[] vector : vectors) {
+            codes.clear();
+            ScalarQuantizer.quantize(vector, codes);
+            float approx = ScalarQuantizer.dot(codes, 0, query, querySum);
+            float error = Math.abs(dot(query, vector) - approx);
+            assertTrue(error <= 0.02f);
+            // 重排阶段依赖这个上界跳过候选，上界必须成立
+            assertTrue(error <= ScalarQuantizer.errorBound(codes, 0, queryAbsSum));
+        }
+    }
+
+    private Set<Integer> exactTopK(float[] query, int k) {
+        TopKCollector collector = new TopKCollector(k);
+        for (int row = 0; row < ROWS; row++) {
+            collector.collect(row, dot(query, vectors[row]));
+        }
+        Set<Integer> rows = new HashSet<>();
+        for (int row : collector.drainDocs(null)) {
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private int[] codeOnlyTopK(float[] query, int k) {
+        int rowBytes = ScalarQuantizer.rowBytes(DIMENSION);
+        ByteBuffer codes = ByteBuffer.allocate(ROWS * rowBytes).order(ByteOrder.LITTLE_ENDIAN);
+        for (float[] vector : vectors) {
+            ScalarQuantizer.quantize(vector, codes);
+        }
+        float querySum = 0.0f;
+        for (float v : query) {
+            querySum += v;
+        }
+        TopKCollector collector = new TopKCollector(k);
+        for (int row = 0; row < ROWS; row++) {
+            collector.collect(row, ScalarQuantizer.dot(codes, row * rowBytes, query, querySum));
+        }
+        return collector.drainDocs(null);
+    }
+
+    private static int rowOf(DocumentChunk chunk) {
+        return Integer.parseInt(chunk.getId().substring("chunk-".length()));
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSION];
+        for (int d = 0; d < DIMENSION; d++) {
+            vector[d] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float dot = 0.0f;
+        for (int d = 0; d < a.length; d++) {
+            dot += a[d] * b[d];
+        }
+        return dot;
+    }
+}
@@ -0,0 +1,87 @@
+package com.javaee.mypilot.infra.rag.vector;
+
+import com.javaee.mypilot.core.model.rag.DocumentChunk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+public class ShardedVectorDatabaseTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ShardedVectorDatabase database;
+
+    @Before
+    public void setUp() throws Exception {
+        Path root = folder.newFolder("index").toPath();
+        database = new ShardedVectorDatabase(
+            type -> new LuceneVectorDatabase(root.resolve(type.name()).toString()),
+            type -> root.resolve(type.name()));
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    @Test
+    public void bulkSessionRoutesChunksToShards() {
+        try (VectorDatabase.BulkSession session = database.openBulkSession()) {
+            session.add(chunks("a.pdf", 3, DocumentChunk.SourceType.STATIC));
+            session.add(chunks("b.pdf", 2, DocumentChunk.SourceType.USER_UPLOADED));
+        }
+        assertEquals(5, database.getDocumentCount());
+        database.clear(DocumentChunk.SourceType.STATIC);
+        assertEquals(Set.of(), database.getChunkIds("a.pdf"));
+        assertEquals(2, database.getChunkIds("b.pdf").size());
+    }
+
+    @Test
+    public void clearInvalidatesOpenBulkSession() {
+        VectorDatabase.BulkSession session = database.openBulkSession();
+        session.add(chunks("a.pdf", 3, DocumentChunk.SourceType.USER_UPLOADED));
+
+        database.clear(DocumentChunk.SourceType.USER_UPLOADED);
+
+        // 旧分片已关闭：继续写入被拒绝，关闭会话不会访问已关闭的 IndexWriter
+        assertThrows(IllegalStateException.class,
+            () -> session.add(chunks("b.pdf", 2, DocumentChunk.SourceType.USER_UPLOADED)));
+        session.close();
+        assertEquals(0, database.getDocumentCount());
+
+        // 新分片不受影响
+        database.index(chunks("c.pdf", 2, DocumentChunk.SourceType.USER_UPLOADED));
+        assertEquals(2, database.getDocumentCount());
+    }
+
+    @Test
+    public void clearOfOtherShardKeepsBulkSessionValid() {
+        try (VectorDatabase.BulkSession session = database.openBulkSession()) {
+            session.add(chunks("a.pdf", 3, DocumentChunk.SourceType.USER_UPLOADED));
+            database.clear(DocumentChunk.SourceType.STATIC);
+            session.add(chunks("b.pdf", 2, DocumentChunk.SourceType.USER_UPLOADED));
+        }
+        assertEquals(5, database.getDocumentCount());
+    }
+
+    private static List<DocumentChunk> chunks(String source, int count, DocumentChunk.SourceType sourceType) {
+        List<DocumentChunk> chunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            float[] embedding = new float[8];
+            embedding[i % embedding.length] = 1.0f;
+            chunks.add(new DocumentChunk(source + "#" + i, "content " + i, source, i + 1, null, embedding,
+                sourceType));
+        }
+        return chunks;
+    }
+}
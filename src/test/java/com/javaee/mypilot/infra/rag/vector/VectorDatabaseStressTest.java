@@ -0,0 +1,175 @@
+package com.javaee.mypilot.infra.rag.vector;
+
+import com.javaee.mypilot.core.model.rag.DocumentChunk;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 并发写入、删除与检索的压力测试
+ *
+ * <p>每个写线程独占若干源文件，交替写入和删除，并在每次写操作后立即核对自己文件的块数（写后可见）；
+ * 检索线程同时不停地做向量和关键词检索。结束后要求没有任何异常，且索引中的块数与各写线程记录的一致。
+ */
+public class VectorDatabaseStressTest {
+    private static final int DIMENSION = 16;
+    private static final int WRITERS = 4;
+    private static final int SEARCHERS = 4;
+    private static final int OPERATIONS_PER_WRITER = 60;
+    private static final int SOURCES_PER_WRITER = 3;
+    private static final int CHUNKS_PER_FILE = 5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void luceneHandlesConcurrentSearchIndexAndDelete() throws Exception {
+        ExecutorService searchExecutor = Executors.newFixedThreadPool(2);
+        LuceneVectorDatabase database = new LuceneVectorDatabase(folder.newFolder("lucene").getPath(), searchExecutor);
+        try {
+            runStress(database);
+        } finally {
+            database.close();
+            searchExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void mappedHandlesConcurrentSearchIndexAndDelete() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        MappedVectorDatabase database = new MappedVectorDatabase(folder.newFolder("mapped").getPath(), executor,
+            MappedVectorDatabase.DEFAULT_NPROBE);
+        try {
+            runStress(database);
+        } finally {
+            database.close();
+            executor.shutdownNow();
+        }
+    }
+
+    private void runStress(VectorDatabase database) throws Exception {
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        Map<String, Integer> expected = new ConcurrentHashMap<>();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService threads = Executors.newFixedThreadPool(WRITERS + SEARCHERS);
+
+        List<Runnable> writers = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            writers.add(() -> {
+                Random random = new Random(writer);
+                Map<String, Integer> versions = new HashMap<>();
+                for (int op = 0; op < OPERATIONS_PER_WRITER; op++) {
+                    String source = "writer" + writer + "-file" + random.nextInt(SOURCES_PER_WRITER) + ".pdf";
+                    if (random.nextInt(3) == 0) {
+                        int deleted = database.deleteBySource(source);
+                        assertEquals((int) expected.getOrDefault(source, 0), deleted);
+                        expected.remove(source);
+                    } else {
+                        // 每次写入新版本的块（新 ID），同一文件的块数逐次累加
+                        int version = versions.merge(source, 1, Integer::sum);
+                        database.index(chunks(source, version, random));
+                        expected.merge(source, CHUNKS_PER_FILE, Integer::sum);
+                    }
+                    assertEquals((int) expected.getOrDefault(source, 0), database.getChunkIds(source).size());
+                }
+            });
+        }
+
+        List<Runnable> searchers = new ArrayList<>();
+        for (int s = 0; s < SEARCHERS; s++) {
+            int searcher = s;
+            searchers.add(() -> {
+                Random random = new Random(1000 + searcher);
+                while (writing.get()) {
+                    List<DocumentChunk> results = database.search(VectorMath.normalize(randomVector(random)), 5);
+                    assertTrue(results.size() <= 5);
+                    for (DocumentChunk chunk : results) {
+                        assertNotNull(chunk.getId());
+                        assertNotNull(chunk.getContent());
+                        assertNotNull(chunk.getSource());
+                    }
+                    assertTrue(database.searchText("content", 5, null).size() <= 5);
+                    database.getAllFiles();
+                    database.getDocumentCount();
+                }
+            });
+        }
+
+        List<java.util.concurrent.Future<?>> writerFutures = new ArrayList<>();
+        for (Runnable writer : writers) {
+            writerFutures.add(threads.submit(guarded(writer, start, failures)));
+        }
+        for (Runnable searcher : searchers) {
+            threads.submit(guarded(searcher, start, failures));
+        }
+        start.countDown();
+        for (java.util.concurrent.Future<?> future : writerFutures) {
+            future.get(2, TimeUnit.MINUTES);
+        }
+        writing.set(false);
+        threads.shutdown();
+        assertTrue(threads.awaitTermination(1, TimeUnit.MINUTES));
+
+        if (!failures.isEmpty()) {
+            AssertionError error = new AssertionError(failures.size() + " 个线程失败");
+            failures.forEach(error::addSuppressed);
+            throw error;
+        }
+
+        int expectedTotal = expected.values().stream().mapToInt(Integer::intValue).sum();
+        assertEquals(expectedTotal, database.getDocumentCount());
+        Map<String, Integer> actual = new HashMap<>();
+        for (VectorDatabase.FileInfo file : database.getAllFiles()) {
+            actual.put(file.fileName, file.chunkCount);
+        }
+        assertEquals(expected, actual);
+    }
+
+    private static Runnable guarded(Runnable task, CountDownLatch start, Queue<Throwable> failures) {
+        return () -> {
+            try {
+                start.await();
+                task.run();
+            } catch (Throwable t) {
+                failures.add(t);
+            }
+        };
+    }
+
+    private static List<DocumentChunk> chunks(String source, int version, Random random) {
+        List<DocumentChunk> chunks = new ArrayList<>(CHUNKS_PER_FILE);
+        for (int i = 0; i < CHUNKS_PER_FILE; i++) {
+            chunks.add(new DocumentChunk(source + "#" + version + "-" + i, "content of " + source + " part " + i,
+                source, i + 1, "title " + i, randomVector(random), DocumentChunk.SourceType.USER_UPLOADED));
+        }
+        return chunks;
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSION];
+        for (int d = 0; d < DIMENSION; d++) {
+            vector[d] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}